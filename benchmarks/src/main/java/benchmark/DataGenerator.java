@@ -0,0 +1,159 @@
+package benchmark;
+
+import product.Product;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.SplittableRandom;
+
+/**
+ * Deterministic generator of product CSV files: the same settings and seed always produce the same bytes.
+ * <p>
+ * Product ids follow a Zipf distribution over {@code idCardinality} ids, {@code duplicateSkew} 0 means uniform ids,
+ * larger values concentrate rows on fewer ids and so exercise the duplicate cap.
+ */
+public final class DataGenerator {
+
+    private static final String[] CONDITIONS = {"new", "used", "refurbished"};
+
+    private static final String[] STATES = {
+            "AL", "AK", "AZ", "AR", "CA", "CO", "CT", "DE", "FL", "GA", "HI", "ID", "IL", "IN", "IA", "KS", "KY",
+            "LA", "ME", "MD", "MA", "MI", "MN", "MS", "MO", "MT", "NE", "NV", "NH", "NJ", "NM", "NY", "NC", "ND",
+            "OH", "OK", "OR", "PA", "RI", "SC", "SD", "TN", "TX", "UT", "VT", "VA", "WA", "WV", "WI", "WY"
+    };
+
+    private final int fileCount;
+
+    private final int rowsPerFile;
+
+    private final int idCardinality;
+
+    private final double duplicateSkew;
+
+    private final PriceDistribution priceDistribution;
+
+    private final long seed;
+
+    private final double[] idCumulativeWeights;
+
+    public DataGenerator(int fileCount, int rowsPerFile, int idCardinality, double duplicateSkew,
+                         PriceDistribution priceDistribution, long seed) {
+        if (fileCount <= 0 || rowsPerFile < 0 || idCardinality <= 0 || duplicateSkew < 0) {
+            throw new IllegalArgumentException("Invalid generator settings");
+        }
+        this.fileCount = fileCount;
+        this.rowsPerFile = rowsPerFile;
+        this.idCardinality = idCardinality;
+        this.duplicateSkew = duplicateSkew;
+        this.priceDistribution = priceDistribution;
+        this.seed = seed;
+        this.idCumulativeWeights = duplicateSkew == 0 ? null : zipfCumulativeWeights(idCardinality, duplicateSkew);
+    }
+
+    /**
+     * @return generated files in the order of their names
+     */
+    public List<Path> generate(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>(fileCount);
+        for (int file = 0; file < fileCount; file++) {
+            Path path = directory.resolve(String.format("products-%05d.csv", file));
+            SplittableRandom random = new SplittableRandom(seed + file);
+            try (BufferedWriter writer = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+                for (int row = 0; row < rowsPerFile; row++) {
+                    writer.write(String.join(",", nextProduct(random, row).toRaw()));
+                    writer.newLine();
+                }
+            }
+            files.add(path);
+        }
+        return files;
+    }
+
+    public List<Product> products(int count) {
+        SplittableRandom random = new SplittableRandom(seed);
+        List<Product> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            products.add(nextProduct(random, i));
+        }
+        return products;
+    }
+
+    private Product nextProduct(SplittableRandom random, int row) {
+        int id = nextId(random);
+        String suffix = Long.toString(random.nextLong() & Long.MAX_VALUE, 36);
+        String name = "product-" + id + "-" + suffix.substring(0, Math.min(suffix.length(), 1 + row % 8));
+        String condition = CONDITIONS[random.nextInt(CONDITIONS.length)];
+        String state = STATES[random.nextInt(STATES.length)];
+        double price = Math.round(priceDistribution.next(random) * 100) / 100.0;
+        return new Product(id, name, condition, state, price);
+    }
+
+    private int nextId(SplittableRandom random) {
+        if (idCumulativeWeights == null) {
+            return 1 + random.nextInt(idCardinality);
+        }
+        int index = Arrays.binarySearch(idCumulativeWeights, random.nextDouble());
+        return 1 + (index >= 0 ? index : Math.min(-index - 1, idCardinality - 1));
+    }
+
+    private static double[] zipfCumulativeWeights(int cardinality, double exponent) {
+        double[] weights = new double[cardinality];
+        double total = 0;
+        for (int i = 0; i < cardinality; i++) {
+            total += 1 / Math.pow(i + 1, exponent);
+            weights[i] = total;
+        }
+        for (int i = 0; i < cardinality; i++) {
+            weights[i] /= total;
+        }
+        return weights;
+    }
+
+    public enum PriceDistribution {
+        UNIFORM {
+            @Override
+            double next(SplittableRandom random) {
+                return 1 + random.nextDouble() * 9999;
+            }
+        },
+        LOG_NORMAL {
+            @Override
+            double next(SplittableRandom random) {
+                double gaussian = Math.sqrt(-2 * Math.log(1 - random.nextDouble())) * Math.cos(2 * Math.PI * random.nextDouble());
+                return Math.exp(4 + 1.5 * gaussian);
+            }
+        },
+        EXPONENTIAL {
+            @Override
+            double next(SplittableRandom random) {
+                return 1 - 500 * Math.log(1 - random.nextDouble());
+            }
+        };
+
+        abstract double next(SplittableRandom random);
+    }
+
+    /**
+     * Usage: {@code directory fileCount rowsPerFile idCardinality duplicateSkew priceDistribution seed}
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 7) {
+            System.err.println("Usage: directory fileCount rowsPerFile idCardinality duplicateSkew priceDistribution seed");
+            return;
+        }
+        DataGenerator generator = new DataGenerator(Integer.parseInt(args[1]), Integer.parseInt(args[2]),
+                Integer.parseInt(args[3]), Double.parseDouble(args[4]),
+                PriceDistribution.valueOf(args[5].toUpperCase(Locale.ROOT)), Long.parseLong(args[6]));
+        List<Path> files = generator.generate(Paths.get(args[0]));
+        System.out.println(String.format("Generated %s files in %s", files.size(), args[0]));
+    }
+}
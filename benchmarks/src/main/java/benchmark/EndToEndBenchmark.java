@@ -0,0 +1,79 @@
+package benchmark;
+
+import main.Params;
+import org.openjdk.jmh.annotations.*;
+import product.Product;
+import product.ProductService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Whole {@link ProductService#getCheapestProducts(List, Params)} run over a generated directory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EndToEndBenchmark {
+
+    @Param("100")
+    public int fileCount;
+
+    @Param("50000")
+    public int rowsPerFile;
+
+    @Param("100000")
+    public int idCardinality;
+
+    @Param("1.0")
+    public double duplicateSkew;
+
+    @Param({"MAPPED", "STREAM"})
+    public Params.ReaderMode readerMode;
+
+    @Param("1000")
+    public int productResultRowsCount;
+
+    @Param("20")
+    public int duplicateProductsMaxCount;
+
+    private Path directory;
+
+    private List<Path> files;
+
+    private Params params;
+
+    @Setup
+    public void generate() throws IOException {
+        directory = Files.createTempDirectory("end-to-end-benchmark");
+        files = new DataGenerator(fileCount, rowsPerFile, idCardinality, duplicateSkew,
+                DataGenerator.PriceDistribution.LOG_NORMAL, 42).generate(directory);
+        params = Params.builder(directory.toString())
+                .readerMode(readerMode)
+                .productResultRowsCount(productResultRowsCount)
+                .duplicateProductsMaxCount(duplicateProductsMaxCount)
+                .build();
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        try (Stream<Path> paths = Files.walk(directory)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<Product> cheapestProducts() {
+        return new ProductService().getCheapestProducts(files, params);
+    }
+}
@@ -0,0 +1,64 @@
+package benchmark;
+
+import csv.CSVReader;
+import csv.MappedCSVReader;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import product.Product;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Row parsing of one file: id and price of every row, as the workers do before a row is pruned or kept.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param("1000000")
+    public int rows;
+
+    private Path directory;
+
+    private Path file;
+
+    @Setup
+    public void generate() throws IOException {
+        directory = Files.createTempDirectory("parse-benchmark");
+        file = new DataGenerator(1, rows, 100_000, 0, DataGenerator.PriceDistribution.UNIFORM, 42).generate(directory).get(0);
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void mappedReader(Blackhole blackhole) throws IOException {
+        new MappedCSVReader(file, ',').read(row -> {
+            blackhole.consume(row.parseDouble(4));
+            blackhole.consume(row.parseInt(0));
+        });
+    }
+
+    @Benchmark
+    public void streamReader(Blackhole blackhole) throws IOException {
+        try (FileReader reader = new FileReader(file.toFile())) {
+            for (List<String[]> chunk : new CSVReader(reader, ',', 1000)) {
+                for (Product product : Product.fromRaw(chunk, true)) {
+                    blackhole.consume(product);
+                }
+            }
+        }
+    }
+}
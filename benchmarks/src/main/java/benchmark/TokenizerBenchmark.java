@@ -0,0 +1,79 @@
+package benchmark;
+
+import csv.CSVRow;
+import csv.MappedCSVReader;
+import csv.Tokenizer;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Field splitting of the mapped reader by each {@link Tokenizer}, alone and followed by parsing id and price. The
+ * setup fails unless both tokenizers cut every row of the file into the same fields.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+
+    @Param("1000000")
+    public int rows;
+
+    @Param({"SCALAR", "BLOCK"})
+    public Tokenizer tokenizer;
+
+    private Path directory;
+
+    private Path file;
+
+    @Setup
+    public void generate() throws IOException {
+        directory = Files.createTempDirectory("tokenizer-benchmark");
+        file = new DataGenerator(1, rows, 100_000, 0, DataGenerator.PriceDistribution.UNIFORM, 42).generate(directory).get(0);
+        if (!fields(Tokenizer.SCALAR).equals(fields(Tokenizer.BLOCK))) {
+            throw new IllegalStateException("Tokenizers split " + file + " differently");
+        }
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void split(Blackhole blackhole) throws IOException {
+        new MappedCSVReader(file, ',', tokenizer).read(row -> blackhole.consume(row.getFieldLength(4)));
+    }
+
+    @Benchmark
+    public void splitAndParse(Blackhole blackhole) throws IOException {
+        new MappedCSVReader(file, ',', tokenizer).read(row -> {
+            blackhole.consume(row.tryParseDouble(4) ? row.getParsedDouble() : 0);
+            blackhole.consume(row.tryParseInt(0) ? row.getParsedInt() : 0);
+        });
+    }
+
+    private List<String> fields(Tokenizer tokenizer) throws IOException {
+        List<String> fields = new ArrayList<>();
+        new MappedCSVReader(file, ',', tokenizer).read(row -> fields.add(describe(row)));
+        return fields;
+    }
+
+    private static String describe(CSVRow row) {
+        StringBuilder fields = new StringBuilder().append(row.getOffset());
+        for (int i = 0; i < row.getFieldCount(); i++) {
+            fields.append('|').append(row.getString(i));
+        }
+        return fields.append('|').append(row.getLine()).toString();
+    }
+}
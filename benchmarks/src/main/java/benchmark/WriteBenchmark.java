@@ -0,0 +1,67 @@
+package benchmark;
+
+import csv.CSVWriter;
+import csv.MappedCSVReader;
+import org.openjdk.jmh.annotations.*;
+import product.Product;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Output of a large result: the streaming byte writer against joining the strings of {@link Product#toRaw()}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WriteBenchmark {
+
+    @Param("1000000")
+    public int rows;
+
+    private Path directory;
+
+    private Path input;
+
+    private Path output;
+
+    private List<Product> products;
+
+    @Setup
+    public void generate() throws IOException {
+        directory = Files.createTempDirectory("write-benchmark");
+        input = new DataGenerator(1, rows, 100_000, 0, DataGenerator.PriceDistribution.UNIFORM, 42).generate(directory).get(0);
+        output = directory.resolve("output.csv");
+        products = new ArrayList<>(rows);
+        new MappedCSVReader(input, ',').read(row -> products.add(Product.fromRow(row)));
+    }
+
+    @TearDown
+    public void delete() throws IOException {
+        Files.deleteIfExists(input);
+        Files.deleteIfExists(output);
+        Files.deleteIfExists(directory);
+    }
+
+    @Benchmark
+    public void streamingWriter() throws IOException {
+        new CSVWriter(true, ',').write(output, products.iterator(), Product::writeTo);
+    }
+
+    @Benchmark
+    public void joinedStrings() throws IOException {
+        try (PrintWriter writer = new PrintWriter(output.toFile())) {
+            for (Product product : products) {
+                writer.println(String.join(",", product.toRaw()));
+            }
+        }
+    }
+}
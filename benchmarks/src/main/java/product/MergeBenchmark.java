@@ -0,0 +1,58 @@
+package product;
+
+import benchmark.DataGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merge of two sorted partial results, the kernel used within files and between files.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MergeBenchmark {
+
+    @Param({"1000", "50000"})
+    public int resultSize;
+
+    @Param({"20", "500"})
+    public int duplicateMaxCount;
+
+    @Param({"1.0"})
+    public double duplicateSkew;
+
+    private ProductMerger merger;
+
+    private ProductBatch first;
+
+    private ProductBatch second;
+
+    private ProductBatch result;
+
+    @Setup
+    public void generate() {
+        DataGenerator generator = new DataGenerator(1, 0, 100_000, duplicateSkew, DataGenerator.PriceDistribution.UNIFORM, 42);
+        List<Product> products = generator.products(resultSize * 2);
+        products.sort(Comparator.comparingDouble(Product::getPrice));
+
+        first = new ProductBatch(resultSize);
+        second = new ProductBatch(resultSize);
+        for (int i = 0; i < products.size(); i++) {
+            (i % 2 == 0 ? first : second).add(products.get(i));
+        }
+        merger = new ProductMerger(resultSize, duplicateMaxCount);
+        result = new ProductBatch(resultSize);
+    }
+
+    @Benchmark
+    public ProductBatch merge() {
+        merger.merge(first, null, second, null, result);
+        return result;
+    }
+}
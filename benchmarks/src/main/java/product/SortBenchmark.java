@@ -0,0 +1,60 @@
+package product;
+
+import benchmark.DataGenerator;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sorting of one chunk by price: the permutation sort of {@link ProductBatch} against a comparator sort of products.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SortBenchmark {
+
+    private static final Comparator<Product> PRICE_ASCENDING_COMPARATOR = Comparator.comparingDouble(Product::getPrice);
+
+    @Param({"1000", "50000"})
+    public int chunkSize;
+
+    private ProductBatch batch;
+
+    private int[] order;
+
+    private double[] keys;
+
+    private Product[] products;
+
+    private Product[] sortedProducts;
+
+    @Setup
+    public void generate() {
+        List<Product> generated = new DataGenerator(1, 0, 100_000, 0, DataGenerator.PriceDistribution.UNIFORM, 42).products(chunkSize);
+        batch = new ProductBatch(chunkSize);
+        generated.forEach(batch::add);
+        order = new int[chunkSize];
+        keys = new double[chunkSize];
+        products = generated.toArray(new Product[0]);
+        sortedProducts = new Product[chunkSize];
+    }
+
+    @Benchmark
+    public int[] batchSort() {
+        batch.sortByKey(order, keys);
+        return order;
+    }
+
+    @Benchmark
+    public Product[] productArraySort() {
+        System.arraycopy(products, 0, sortedProducts, 0, products.length);
+        Arrays.sort(sortedProducts, PRICE_ASCENDING_COMPARATOR);
+        return sortedProducts;
+    }
+}
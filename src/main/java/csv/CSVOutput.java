@@ -0,0 +1,257 @@
+package csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Buffered CSV output of one file or stream, opened by {@link CSVWriter#open(java.nio.file.Path)} or
+ * {@link CSVWriter#open(java.io.OutputStream)}. Fields are encoded straight into a reused byte buffer which is
+ * written to the channel whenever it is full, numbers are formatted without creating strings. Not thread-safe.
+ * <p>
+ * With quoting enabled a field which contains the delimiter, a quote or a line break is enclosed in quotes and its
+ * quotes are doubled as in RFC 4180, otherwise fields are written as they are.
+ */
+public final class CSVOutput implements Closeable {
+
+    static final int BUFFER_SIZE = 1 << 20;
+
+    private static final byte QUOTE = '"';
+
+    private static final byte[] MIN_INT = String.valueOf(Integer.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private final WritableByteChannel channel;
+
+    private final byte[] delimiter;
+
+    private final boolean quote;
+
+    private final ByteBuffer buffer;
+
+    private final byte[] bytes;
+
+    private boolean firstField = true;
+
+    CSVOutput(WritableByteChannel channel, char delimiter, boolean quote) {
+        this.channel = channel;
+        this.delimiter = String.valueOf(delimiter).getBytes(StandardCharsets.UTF_8);
+        this.quote = quote;
+        this.bytes = new byte[BUFFER_SIZE];
+        this.buffer = ByteBuffer.wrap(bytes);
+    }
+
+    public void field(int value) throws IOException {
+        beginField(11);
+        if (value == Integer.MIN_VALUE) {
+            buffer.put(MIN_INT);
+            return;
+        }
+        if (value < 0) {
+            buffer.put((byte) '-');
+            value = -value;
+        }
+        putDigits(value);
+    }
+
+    /**
+     * @param value not negative
+     */
+    public void field(long value) throws IOException {
+        beginField(19);
+        putDigits(value);
+    }
+
+    /**
+     * Writes the value as {@link Double#toString(double)} does. Prices with at most two decimals between 0.001 and
+     * 10^7, which is almost every price, are formatted from their integer cents.
+     */
+    public void field(double value) throws IOException {
+        if (value >= 1e-3 && value < 1e7) {
+            long cents = Math.round(value * 100);
+            if (cents / 100.0 == value) {
+                beginField(12);
+                putDigits(cents / 100);
+                buffer.put((byte) '.');
+                int fraction = (int) (cents % 100);
+                buffer.put((byte) ('0' + fraction / 10));
+                if (fraction % 10 != 0) {
+                    buffer.put((byte) ('0' + fraction % 10));
+                }
+                return;
+            }
+        }
+        field(Double.toString(value));
+    }
+
+    /**
+     * @param value null is written as an empty field
+     */
+    public void field(String value) throws IOException {
+        if (value == null) {
+            beginField(0);
+            return;
+        }
+        int length = value.length();
+        boolean ascii = true;
+        boolean special = false;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x80) {
+                ascii = false;
+            } else if (quote && (c == QUOTE || c == '\r' || c == '\n')) {
+                special = true;
+            }
+        }
+        if (!ascii) {
+            byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+            field(encoded, 0, encoded.length);
+            return;
+        }
+        if (quote && (special || contains(value))) {
+            field(value.getBytes(StandardCharsets.US_ASCII), 0, length);
+            return;
+        }
+
+        beginField(length);
+        if (length > buffer.remaining()) {
+            writeLarge(value.getBytes(StandardCharsets.US_ASCII), 0, length);
+            return;
+        }
+        int position = buffer.position();
+        for (int i = 0; i < length; i++) {
+            bytes[position + i] = (byte) value.charAt(i);
+        }
+        buffer.position(position + length);
+    }
+
+    /**
+     * Writes UTF-8 bytes of a field, e.g. copied from a {@link CSVRow}.
+     */
+    public void field(byte[] value, int offset, int length) throws IOException {
+        if (quote && needsQuotes(value, offset, length)) {
+            beginField(length + 2);
+            putByte(QUOTE);
+            for (int i = offset; i < offset + length; i++) {
+                if (value[i] == QUOTE) {
+                    putByte(QUOTE);
+                }
+                putByte(value[i]);
+            }
+            putByte(QUOTE);
+            return;
+        }
+        beginField(length);
+        if (length > buffer.remaining()) {
+            writeLarge(value, offset, length);
+        } else {
+            buffer.put(value, offset, length);
+        }
+    }
+
+    /**
+     * Ends the current line, the next field starts a new one.
+     */
+    public void endLine() throws IOException {
+        ensureRemaining(1);
+        buffer.put((byte) '\n');
+        firstField = true;
+    }
+
+    /**
+     * Writes the buffered bytes and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Writes the delimiter unless the field is the first of its line and makes room for {@code length} more bytes
+     * if the buffer can hold them.
+     */
+    private void beginField(int length) throws IOException {
+        ensureRemaining(Math.min(delimiter.length + length, BUFFER_SIZE));
+        if (!firstField) {
+            buffer.put(delimiter);
+        }
+        firstField = false;
+    }
+
+    private void putDigits(long value) {
+        int position = buffer.position();
+        int digits = 1;
+        for (long rest = value / 10; rest != 0; rest /= 10) {
+            digits++;
+        }
+        for (int i = position + digits - 1; i >= position; i--) {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+        buffer.position(position + digits);
+    }
+
+    private void putByte(byte value) throws IOException {
+        ensureRemaining(1);
+        buffer.put(value);
+    }
+
+    private boolean contains(String value) {
+        if (delimiter.length == 1) {
+            return value.indexOf(delimiter[0]) >= 0;
+        }
+        return value.contains(new String(delimiter, StandardCharsets.UTF_8));
+    }
+
+    private boolean needsQuotes(byte[] value, int offset, int length) {
+        for (int i = offset; i < offset + length; i++) {
+            byte b = value[i];
+            if (b == QUOTE || b == '\r' || b == '\n' || startsWith(value, i, offset + length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean startsWith(byte[] value, int from, int end) {
+        if (end - from < delimiter.length) {
+            return false;
+        }
+        for (int i = 0; i < delimiter.length; i++) {
+            if (value[from + i] != delimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void ensureRemaining(int length) throws IOException {
+        if (buffer.remaining() < length) {
+            flush();
+        }
+    }
+
+    /**
+     * Writes a field bigger than the free space of the buffer after the buffered bytes.
+     */
+    private void writeLarge(byte[] value, int offset, int length) throws IOException {
+        flush();
+        ByteBuffer field = ByteBuffer.wrap(value, offset, length);
+        while (field.hasRemaining()) {
+            channel.write(field);
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,280 @@
+package csv;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Mutable view of a single row inside a mapped file. The instance is reused for every row,
+ * so it must not be retained after {@link RowHandler#handle(CSVRow)} returns.
+ */
+public final class CSVRow {
+
+    static final int MAX_FIELDS = 5;
+
+    private static final double[] POWERS_OF_TEN = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+    private final int[] starts = new int[MAX_FIELDS];
+
+    private final int[] ends = new int[MAX_FIELDS];
+
+    private ByteBuffer buffer;
+
+    private ByteBuffer view;
+
+    private long bufferOffset;
+
+    private int rowStart;
+
+    private int rowEnd;
+
+    private int fieldCount;
+
+    private int parsedInt;
+
+    private double parsedDouble;
+
+    void reset(ByteBuffer buffer, long bufferOffset, int rowStart) {
+        if (this.buffer != buffer) {
+            this.buffer = buffer;
+            this.view = buffer.duplicate();
+        }
+        this.bufferOffset = bufferOffset;
+        this.rowStart = rowStart;
+        this.rowEnd = rowStart;
+        this.fieldCount = 0;
+    }
+
+    void end(int rowEnd) {
+        this.rowEnd = rowEnd;
+    }
+
+    void addField(int start, int end) {
+        starts[fieldCount] = start;
+        ends[fieldCount] = end;
+        fieldCount++;
+    }
+
+    public int getFieldCount() {
+        return fieldCount;
+    }
+
+    /**
+     * @return position of the first byte of this row in the file
+     */
+    public long getOffset() {
+        return bufferOffset + rowStart;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the field is missing or is not an int
+     */
+    public int parseInt(int column) {
+        if (!tryParseInt(column)) {
+            throw new IllegalArgumentException("invalid int field " + column);
+        }
+        return parsedInt;
+    }
+
+    /**
+     * Parses the field without throwing, the value is returned by {@link #getParsedInt()}.
+     *
+     * @return false if the field is missing, empty, not a decimal int or out of range
+     */
+    public boolean tryParseInt(int column) {
+        if (column >= fieldCount) {
+            return false;
+        }
+        int position = starts[column];
+        int end = ends[column];
+        if (position == end) {
+            return false;
+        }
+
+        boolean negative = false;
+        byte first = buffer.get(position);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++position == end) {
+                return false;
+            }
+        }
+
+        long value = 0;
+        for (; position < end; position++) {
+            int digit = buffer.get(position) - '0';
+            if (digit < 0 || digit > 9) {
+                return false;
+            }
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) {
+                return false;
+            }
+        }
+
+        value = negative ? -value : value;
+        if (value > Integer.MAX_VALUE) {
+            return false;
+        }
+        parsedInt = (int) value;
+        return true;
+    }
+
+    /**
+     * @return value of the last successful {@link #tryParseInt(int)}
+     */
+    public int getParsedInt() {
+        return parsedInt;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the field is missing or is not a double
+     */
+    public double parseDouble(int column) {
+        if (!tryParseDouble(column)) {
+            throw new IllegalArgumentException("invalid double field " + column);
+        }
+        return parsedDouble;
+    }
+
+    /**
+     * Parses the field without throwing, the value is returned by {@link #getParsedDouble()}. Plain decimals are
+     * parsed straight from the bytes, other numbers go through {@link Double#parseDouble(String)} once their syntax
+     * is checked by {@link FieldParser#isDecimal(CharSequence)}.
+     *
+     * @return false if the field is missing or is not a decimal number
+     */
+    public boolean tryParseDouble(int column) {
+        if (column >= fieldCount) {
+            return false;
+        }
+        int start = starts[column];
+        int end = ends[column];
+        int position = start;
+
+        boolean negative = false;
+        if (position < end) {
+            byte first = buffer.get(position);
+            if (first == '-' || first == '+') {
+                negative = first == '-';
+                position++;
+            }
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = -1;
+        for (; position < end; position++) {
+            byte b = buffer.get(position);
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                if (++digits > 18) {
+                    return tryParseDoubleSlow(start, end);
+                }
+                if (fractionDigits >= 0) {
+                    fractionDigits++;
+                }
+            } else if (b == '.' && fractionDigits < 0) {
+                fractionDigits = 0;
+            } else {
+                return tryParseDoubleSlow(start, end);
+            }
+        }
+
+        if (digits == 0 || mantissa >= MAX_EXACT_MANTISSA || fractionDigits >= POWERS_OF_TEN.length) {
+            return tryParseDoubleSlow(start, end);
+        }
+
+        double value = fractionDigits > 0 ? mantissa / POWERS_OF_TEN[fractionDigits] : mantissa;
+        parsedDouble = negative ? -value : value;
+        return true;
+    }
+
+    /**
+     * @return value of the last successful {@link #tryParseDouble(int)}
+     */
+    public double getParsedDouble() {
+        return parsedDouble;
+    }
+
+    /**
+     * @return the whole row as it is in the file without its line separator, including fields beyond the fifth
+     */
+    public String getLine() {
+        return new String(copyBytes(rowStart, rowEnd), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the field is missing
+     */
+    public String getString(int column) {
+        checkColumn(column);
+        return new String(copyBytes(starts[column], ends[column]), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @throws IllegalArgumentException if the field is missing
+     */
+    public int getFieldLength(int column) {
+        checkColumn(column);
+        return ends[column] - starts[column];
+    }
+
+    /**
+     * Copies raw bytes of the field, {@code target} must have {@link #getFieldLength(int)} bytes of space after {@code offset}.
+     *
+     * @throws IllegalArgumentException if the field is missing
+     */
+    public void copyField(int column, byte[] target, int offset) {
+        checkColumn(column);
+        view.limit(ends[column]).position(starts[column]);
+        view.get(target, offset, ends[column] - starts[column]);
+    }
+
+    /**
+     * Compares raw bytes of the field with {@code value} as unsigned bytes, which orders UTF-8 text by code points.
+     *
+     * @return negative, zero or positive if the field is less than, equal to or greater than the value
+     * @throws IllegalArgumentException if the field is missing
+     */
+    public int compareField(int column, byte[] value) {
+        checkColumn(column);
+        int start = starts[column];
+        int length = ends[column] - start;
+        int common = Math.min(length, value.length);
+        for (int i = 0; i < common; i++) {
+            int comparison = Integer.compare(buffer.get(start + i) & 0xFF, value[i] & 0xFF);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(length, value.length);
+    }
+
+    private boolean tryParseDoubleSlow(int start, int end) {
+        String value = new String(copyBytes(start, end), StandardCharsets.US_ASCII);
+        if (!FieldParser.isDecimal(value)) {
+            return false;
+        }
+        parsedDouble = Double.parseDouble(value);
+        return true;
+    }
+
+    private byte[] copyBytes(int start, int end) {
+        byte[] bytes = new byte[end - start];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buffer.get(start + i);
+        }
+        return bytes;
+    }
+
+    private void checkColumn(int column) {
+        if (column >= fieldCount) {
+            throw new IllegalArgumentException("missing field " + column);
+        }
+    }
+}
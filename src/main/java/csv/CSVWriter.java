@@ -1,10 +1,14 @@
 package csv;
 
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
 import java.util.List;
 
 public final class CSVWriter {
@@ -13,22 +17,70 @@ public final class CSVWriter {
 
     private final char delimiter;
 
+    private final boolean quote;
+
     public CSVWriter(boolean overwrite, char delimiter) {
+        this(overwrite, delimiter, false);
+    }
+
+    /**
+     * @param quote true if fields which contain the delimiter, a quote or a line break are quoted as in RFC 4180
+     */
+    public CSVWriter(boolean overwrite, char delimiter, boolean quote) {
         this.overwrite = overwrite;
         this.delimiter = delimiter;
+        this.quote = quote;
     }
 
     public void write(Path path, List<String[]> data) throws IOException {
-        if (!overwrite) {
-            if (Files.exists(path)) {
-                throw new FileAlreadyExistsException("File already exists: " + path);
+        write(path, data.iterator());
+    }
+
+    /**
+     * Writes the lines as they are produced, so that they never have to be held in memory at the same time.
+     */
+    public void write(Path path, Iterator<String[]> data) throws IOException {
+        write(path, data, (line, output) -> {
+            for (String field : line) {
+                output.field(field);
+            }
+        });
+    }
+
+    /**
+     * Writes a line of every value as the values are produced.
+     */
+    public <T> void write(Path path, Iterator<? extends T> values, RowFormatter<? super T> formatter)
+            throws IOException {
+        try (CSVOutput output = open(path)) {
+            while (values.hasNext()) {
+                formatter.format(values.next(), output);
+                output.endLine();
             }
         }
+    }
 
-        try (PrintWriter pw = new PrintWriter(path.toFile())) {
-            for (String[] line : data) {
-                pw.println(String.join(String.valueOf(delimiter), line));
+    /**
+     * @throws FileAlreadyExistsException if the file exists and must not be overwritten
+     */
+    public CSVOutput open(Path path) throws IOException {
+        FileChannel channel;
+        if (overwrite) {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } else {
+            if (Files.exists(path)) {
+                throw new FileAlreadyExistsException("File already exists: " + path);
             }
+            channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
         }
+        return new CSVOutput(channel, delimiter, quote);
+    }
+
+    /**
+     * @param out closed together with the output
+     */
+    public CSVOutput open(OutputStream out) {
+        return new CSVOutput(Channels.newChannel(out), delimiter, quote);
     }
 }
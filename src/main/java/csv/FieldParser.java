@@ -0,0 +1,102 @@
+package csv;
+
+/**
+ * Parsing of number fields which reports malformed values by its result instead of exceptions, so rejecting a row
+ * costs no more than accepting it.
+ */
+public final class FieldParser {
+
+    /**
+     * Result of {@link #parseInt(CharSequence)} for a value which is not an int.
+     */
+    public static final long NOT_AN_INT = Long.MIN_VALUE;
+
+    private FieldParser() {
+    }
+
+    /**
+     * @return the int value, {@link #NOT_AN_INT} if the value is null, empty, not a decimal int or out of range
+     */
+    public static long parseInt(CharSequence value) {
+        if (value == null || value.length() == 0) {
+            return NOT_AN_INT;
+        }
+        int position = 0;
+        boolean negative = false;
+        char first = value.charAt(0);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            if (++position == value.length()) {
+                return NOT_AN_INT;
+            }
+        }
+
+        long result = 0;
+        for (; position < value.length(); position++) {
+            int digit = value.charAt(position) - '0';
+            if (digit < 0 || digit > 9) {
+                return NOT_AN_INT;
+            }
+            result = result * 10 + digit;
+            if (result > (long) Integer.MAX_VALUE + 1) {
+                return NOT_AN_INT;
+            }
+        }
+        result = negative ? -result : result;
+        return result > Integer.MAX_VALUE ? NOT_AN_INT : result;
+    }
+
+    /**
+     * Checks the syntax of a decimal number with an optional sign, fraction and exponent, surrounded by optional
+     * whitespace. {@link Double#parseDouble(String)} never throws for a value which passes the check, values it
+     * accepts beyond that (NaN, infinities, hexadecimal and type suffixes) are not valid prices.
+     */
+    public static boolean isDecimal(CharSequence value) {
+        if (value == null) {
+            return false;
+        }
+        int end = value.length();
+        while (end > 0 && value.charAt(end - 1) <= ' ') {
+            end--;
+        }
+        int position = 0;
+        while (position < end && value.charAt(position) <= ' ') {
+            position++;
+        }
+        if (position < end && (value.charAt(position) == '-' || value.charAt(position) == '+')) {
+            position++;
+        }
+
+        int digits = 0;
+        for (; position < end && isDigit(value.charAt(position)); position++) {
+            digits++;
+        }
+        if (position < end && value.charAt(position) == '.') {
+            for (position++; position < end && isDigit(value.charAt(position)); position++) {
+                digits++;
+            }
+        }
+        if (digits == 0) {
+            return false;
+        }
+
+        if (position < end && (value.charAt(position) == 'e' || value.charAt(position) == 'E')) {
+            position++;
+            if (position < end && (value.charAt(position) == '-' || value.charAt(position) == '+')) {
+                position++;
+            }
+            int exponentDigits = 0;
+            for (; position < end && isDigit(value.charAt(position)); position++) {
+                exponentDigits++;
+            }
+            if (exponentDigits == 0) {
+                return false;
+            }
+        }
+        return position == end;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
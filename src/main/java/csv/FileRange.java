@@ -0,0 +1,47 @@
+package csv;
+
+import java.nio.file.Path;
+import java.util.Objects;
+
+/**
+ * Byte range {@code [start, end)} of a CSV file which starts at the beginning of a row and ends after a line separator
+ * or at the end of the file.
+ */
+public final class FileRange {
+
+    private final Path path;
+
+    private final long start;
+
+    private final long end;
+
+    public FileRange(Path path, long start, long end) {
+        if (start < 0 || end < start) {
+            throw new IllegalArgumentException(String.format("Invalid range [%s, %s)", start, end));
+        }
+        this.path = Objects.requireNonNull(path);
+        this.start = start;
+        this.end = end;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getStart() {
+        return start;
+    }
+
+    public long getEnd() {
+        return end;
+    }
+
+    public long getSize() {
+        return end - start;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s[%s, %s)", path, start, end);
+    }
+}
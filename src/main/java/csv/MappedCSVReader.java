@@ -0,0 +1,363 @@
+package csv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Byte level alternative to {@link CSVReader}: the file is memory-mapped and rows are handed to a
+ * {@link RowHandler} without creating intermediate strings. Fields are found by the {@link Tokenizer}.
+ */
+public final class MappedCSVReader {
+
+    private static final long MAX_WINDOW_SIZE = 1L << 30;
+
+    private static final int BOUNDARY_SCAN_BUFFER_SIZE = 8192;
+
+    private static final int BLOCK_SIZE = Long.SIZE;
+
+    private static final long ONES = 0x0101010101010101L;
+
+    private static final long LOW_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private static final long NEWLINES = '\n' * ONES;
+
+    private final Path path;
+
+    private final byte delimiter;
+
+    private final Tokenizer tokenizer;
+
+    private final long maxWindowSize;
+
+    public MappedCSVReader(Path path, char delimiter) {
+        this(path, delimiter, Tokenizer.BLOCK);
+    }
+
+    public MappedCSVReader(Path path, char delimiter, Tokenizer tokenizer) {
+        this(path, delimiter, tokenizer, MAX_WINDOW_SIZE);
+    }
+
+    /**
+     * @param maxWindowSize size of the largest mapping, smaller windows let tests cross window boundaries
+     */
+    MappedCSVReader(Path path, char delimiter, Tokenizer tokenizer, long maxWindowSize) {
+        if (delimiter > 0x7F || delimiter == '\n' || delimiter == '\r') {
+            throw new IllegalArgumentException("delimiter must be an ASCII character other than line separators");
+        }
+        this.path = path;
+        this.delimiter = (byte) delimiter;
+        this.tokenizer = tokenizer;
+        this.maxWindowSize = maxWindowSize;
+    }
+
+    public void read(RowHandler handler) throws IOException {
+        read(0, Long.MAX_VALUE, handler);
+    }
+
+    public void read(FileRange range, RowHandler handler) throws IOException {
+        if (!range.getPath().equals(path)) {
+            throw new IllegalArgumentException("Range belongs to another file: " + range);
+        }
+        read(range.getStart(), range.getEnd(), handler);
+    }
+
+    /**
+     * Cuts the file into ranges of approximately {@code rangeSize} bytes, each range boundary is moved forward
+     * to the beginning of the next row.
+     */
+    public List<FileRange> split(long rangeSize) throws IOException {
+        if (rangeSize <= 0) {
+            throw new IllegalArgumentException("rangeSize must be positive");
+        }
+
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            List<FileRange> ranges = new ArrayList<>();
+            ByteBuffer buffer = ByteBuffer.allocate(BOUNDARY_SCAN_BUFFER_SIZE);
+
+            long start = 0;
+            while (start < size) {
+                long end = size - start > rangeSize ? nextRowStart(channel, start + rangeSize, size, buffer) : size;
+                ranges.add(new FileRange(path, start, end));
+                start = end;
+            }
+            return ranges;
+        }
+    }
+
+    /**
+     * Maps the range without reading it, see {@link MappedRange#load()}.
+     */
+    public MappedRange map(FileRange range) throws IOException {
+        if (!range.getPath().equals(path)) {
+            throw new IllegalArgumentException("Range belongs to another file: " + range);
+        }
+        return map(range.getStart(), range.getEnd());
+    }
+
+    public void read(MappedRange range, RowHandler handler) {
+        if (!range.getRange().getPath().equals(path)) {
+            throw new IllegalArgumentException("Range belongs to another file: " + range.getRange());
+        }
+        CSVRow row = new CSVRow();
+        for (MappedRange.Window window : range.getWindows()) {
+            readRows(window.buffer, window.offset, window.limit, row, handler);
+        }
+    }
+
+    private void read(long start, long end, RowHandler handler) throws IOException {
+        read(map(start, end), handler);
+    }
+
+    /**
+     * Mappings stay valid after the channel is closed, until the buffers are garbage collected.
+     */
+    private MappedRange map(long start, long end) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long rangeEnd = Math.min(end, channel.size());
+            long windowStart = start;
+            List<MappedRange.Window> windows = new ArrayList<>();
+
+            while (windowStart < rangeEnd) {
+                long windowSize = Math.min(rangeEnd - windowStart, maxWindowSize);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+                boolean lastWindow = windowStart + windowSize == rangeEnd;
+
+                int limit = (int) windowSize;
+                if (!lastWindow) {
+                    limit = lastNewline(buffer, limit) + 1;
+                    if (limit == 0) {
+                        throw new IllegalStateException("Row is longer than " + maxWindowSize + " bytes in " + path);
+                    }
+                }
+
+                windows.add(new MappedRange.Window(buffer, windowStart, limit));
+                windowStart += limit;
+            }
+            return new MappedRange(new FileRange(path, start, Math.max(start, rangeEnd)), windows);
+        }
+    }
+
+    /**
+     * Reads the rows starting at the given file positions, e.g. collected earlier with {@link CSVRow#getOffset()}.
+     *
+     * @param offsets row positions sorted ascending
+     */
+    public void readAt(long[] offsets, RowHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            CSVRow row = new CSVRow();
+            MappedByteBuffer buffer = null;
+            long windowStart = 0;
+            long windowEnd = 0;
+
+            for (long offset : offsets) {
+                if (offset < 0 || offset >= size) {
+                    throw new IllegalArgumentException(String.format("Offset %s is out of %s", offset, path));
+                }
+
+                int rowEnd = -1;
+                if (buffer != null && offset >= windowStart && offset < windowEnd) {
+                    rowEnd = readRow(buffer, windowStart, (int) (offset - windowStart), (int) (windowEnd - windowStart), row);
+                }
+                if (rowEnd < 0 || (rowEnd == windowEnd - windowStart && windowEnd < size)) { // row is not fully mapped
+                    windowStart = offset;
+                    windowEnd = offset + Math.min(size - offset, maxWindowSize);
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+                    readRow(buffer, windowStart, 0, (int) (windowEnd - windowStart), row);
+                }
+
+                handler.handle(row);
+            }
+        }
+    }
+
+    /**
+     * Counts the lines before the given file positions in one pass over the file up to the last position.
+     *
+     * @param offsets row positions sorted ascending
+     * @return 1-based line numbers of the rows
+     */
+    public long[] lineNumbers(long[] offsets) throws IOException {
+        long[] lines = new long[offsets.length];
+        if (offsets.length == 0) {
+            return lines;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long end = Math.min(offsets[offsets.length - 1], channel.size());
+            long newlines = 0;
+            long position = 0;
+            int next = 0;
+            while (next < offsets.length) {
+                long windowSize = Math.min(end - position, maxWindowSize);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize);
+                for (int i = 0; i < windowSize; i++) {
+                    while (next < offsets.length && offsets[next] <= position + i) {
+                        lines[next++] = newlines + 1;
+                    }
+                    if (buffer.get(i) == '\n') {
+                        newlines++;
+                    }
+                }
+                position += windowSize;
+                if (position == end) {
+                    while (next < offsets.length) {
+                        lines[next++] = newlines + 1;
+                    }
+                }
+            }
+        }
+        return lines;
+    }
+
+    private void readRows(MappedByteBuffer buffer, long bufferOffset, int limit, CSVRow row, RowHandler handler) {
+        if (tokenizer == Tokenizer.BLOCK) {
+            readRowsInBlocks(buffer, bufferOffset, limit, row, handler);
+            return;
+        }
+        int position = 0;
+        while (position < limit) {
+            position = readRow(buffer, bufferOffset, position, limit, row);
+            handler.handle(row);
+            position++;
+        }
+    }
+
+    /**
+     * @return position of the line separator which ends the row or {@code limit} if there is none
+     */
+    private int readRow(MappedByteBuffer buffer, long bufferOffset, int position, int limit, CSVRow row) {
+        row.reset(buffer, bufferOffset, position);
+
+        int fieldStart = position;
+        while (position < limit) {
+            byte b = buffer.get(position);
+            if (b == '\n') {
+                break;
+            }
+            if (b == delimiter && row.getFieldCount() < CSVRow.MAX_FIELDS) {
+                row.addField(fieldStart, position);
+                fieldStart = position + 1;
+            }
+            position++;
+        }
+
+        endRow(buffer, position, fieldStart, row);
+        return position;
+    }
+
+    /**
+     * Reads the rows as {@link #readRow} does, but finds the delimiters and line separators of every 64 bytes at
+     * once: eight bytes are compared at a time within a long and the matches of the block are collected into
+     * bitmaps, bit {@code i} standing for byte {@code i} of the block. Only the set bits are visited then.
+     */
+    private void readRowsInBlocks(MappedByteBuffer buffer, long bufferOffset, int limit, CSVRow row,
+                                  RowHandler handler) {
+        ByteBuffer words = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+        long delimiters = (delimiter & 0xFF) * ONES;
+
+        int rowStart = 0;
+        int fieldStart = 0;
+        row.reset(buffer, bufferOffset, rowStart);
+        for (int blockStart = 0; blockStart < limit; blockStart += BLOCK_SIZE) {
+            long delimiterBits = 0;
+            long newlineBits = 0;
+            if (limit - blockStart >= BLOCK_SIZE) {
+                for (int i = 0; i < BLOCK_SIZE; i += Long.BYTES) {
+                    long word = words.getLong(blockStart + i);
+                    delimiterBits |= zeroBytes(word ^ delimiters) << i;
+                    newlineBits |= zeroBytes(word ^ NEWLINES) << i;
+                }
+            } else {
+                for (int i = 0; i < limit - blockStart; i++) {
+                    byte b = buffer.get(blockStart + i);
+                    if (b == delimiter) {
+                        delimiterBits |= 1L << i;
+                    } else if (b == '\n') {
+                        newlineBits |= 1L << i;
+                    }
+                }
+            }
+
+            long boundaries = delimiterBits | newlineBits;
+            while (boundaries != 0) {
+                long bit = boundaries & -boundaries;
+                int position = blockStart + Long.numberOfTrailingZeros(bit);
+                if ((newlineBits & bit) != 0) {
+                    endRow(buffer, position, fieldStart, row);
+                    handler.handle(row);
+                    rowStart = position + 1;
+                    fieldStart = rowStart;
+                    row.reset(buffer, bufferOffset, rowStart);
+                } else if (row.getFieldCount() < CSVRow.MAX_FIELDS) {
+                    row.addField(fieldStart, position);
+                    fieldStart = position + 1;
+                }
+                boundaries ^= bit;
+            }
+        }
+
+        if (rowStart < limit) {
+            endRow(buffer, limit, fieldStart, row);
+            handler.handle(row);
+        }
+    }
+
+    /**
+     * Adds the last field of the row which ends at the line separator or the end of the buffer at {@code position}.
+     */
+    private static void endRow(ByteBuffer buffer, int position, int fieldStart, CSVRow row) {
+        int rowEnd = position;
+        if (rowEnd > fieldStart && buffer.get(rowEnd - 1) == '\r') {
+            rowEnd--;
+        }
+        if (row.getFieldCount() < CSVRow.MAX_FIELDS) {
+            row.addField(fieldStart, Math.max(fieldStart, rowEnd));
+        }
+        row.end(rowEnd);
+    }
+
+    /**
+     * @return bitmap of the zero bytes of the word, bit {@code i} standing for the byte {@code i} in little-endian
+     * order. The high bit of every zero byte is set without carries between bytes, then the high bits are gathered
+     * into the lowest byte by a multiplication.
+     */
+    private static long zeroBytes(long word) {
+        long highBits = ~(((word & LOW_BITS) + LOW_BITS) | word | LOW_BITS);
+        return ((highBits >>> 7) * 0x0102040810204080L) >>> 56;
+    }
+
+    private static int lastNewline(MappedByteBuffer buffer, int limit) {
+        for (int i = limit - 1; i >= 0; i--) {
+            if (buffer.get(i) == '\n') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long nextRowStart(FileChannel channel, long position, long size, ByteBuffer buffer) throws IOException {
+        long offset = position - 1;
+        while (offset < size) {
+            buffer.clear();
+            int read = channel.read(buffer, offset);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (buffer.get(i) == '\n') {
+                    return offset + i + 1;
+                }
+            }
+            offset += read;
+        }
+        return size;
+    }
+}
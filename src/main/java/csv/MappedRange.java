@@ -0,0 +1,52 @@
+package csv;
+
+import java.nio.MappedByteBuffer;
+import java.util.List;
+
+/**
+ * {@link FileRange} mapped into memory by {@link MappedCSVReader#map(FileRange)}, so that it can be loaded by one
+ * thread and parsed by another. Windows end after a line separator, except for the last one.
+ */
+public final class MappedRange {
+
+    private final FileRange range;
+
+    private final List<Window> windows;
+
+    MappedRange(FileRange range, List<Window> windows) {
+        this.range = range;
+        this.windows = windows;
+    }
+
+    public FileRange getRange() {
+        return range;
+    }
+
+    /**
+     * Reads the whole range into physical memory, so that parsing it later does not wait for the disk.
+     */
+    public void load() {
+        for (Window window : windows) {
+            window.buffer.load();
+        }
+    }
+
+    List<Window> getWindows() {
+        return windows;
+    }
+
+    static final class Window {
+
+        final MappedByteBuffer buffer;
+
+        final long offset;
+
+        final int limit;
+
+        Window(MappedByteBuffer buffer, long offset, int limit) {
+            this.buffer = buffer;
+            this.offset = offset;
+            this.limit = limit;
+        }
+    }
+}
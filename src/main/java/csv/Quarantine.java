@@ -0,0 +1,121 @@
+package csv;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * CSV file of rejected rows: path of the file, line number, reason and the row itself, one line per row. Rows are
+ * collected per file by any number of threads and written once the file is read, line numbers of rows collected
+ * by their position are counted then, so reading a file never counts its lines.
+ */
+public final class Quarantine implements Closeable {
+
+    private final CSVOutput output;
+
+    /**
+     * @param path overwritten if it exists
+     */
+    public Quarantine(Path path) throws IOException {
+        this.output = new CSVWriter(true, ',', true).open(path);
+    }
+
+    public FileRejects startFile(Path path) {
+        return new FileRejects(path);
+    }
+
+    /**
+     * Writes the rejected rows of the file in the order of their lines.
+     *
+     * @param mapped true if the rows are collected by their position in the file, false if by their line number
+     */
+    public void write(FileRejects rejects, boolean mapped, char delimiter) throws IOException {
+        List<Reject> rows;
+        synchronized (rejects) {
+            rows = new ArrayList<>(rejects.rows);
+        }
+        if (rows.isEmpty()) {
+            return;
+        }
+        rows.sort(Comparator.comparingLong(Reject::getPosition));
+        long[] lines = new long[rows.size()];
+        if (mapped) {
+            long[] offsets = rows.stream().mapToLong(Reject::getPosition).toArray();
+            lines = new MappedCSVReader(rejects.path, delimiter).lineNumbers(offsets);
+        } else {
+            for (int i = 0; i < lines.length; i++) {
+                lines[i] = rows.get(i).getPosition();
+            }
+        }
+
+        String path = rejects.path.toString();
+        synchronized (output) {
+            for (int i = 0; i < rows.size(); i++) {
+                Reject row = rows.get(i);
+                output.field(path);
+                output.field(lines[i]);
+                output.field(row.status.getDescription());
+                output.field(row.line);
+                output.endLine();
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (output) {
+            output.close();
+        }
+    }
+
+    /**
+     * Rejected rows of one file, thread-safe.
+     */
+    public static final class FileRejects {
+
+        private final Path path;
+
+        private final List<Reject> rows = new ArrayList<>();
+
+        private FileRejects(Path path) {
+            this.path = path;
+        }
+
+        public synchronized void addAll(List<Reject> rejects) {
+            rows.addAll(rejects);
+        }
+    }
+
+    /**
+     * Rejected row with its position in the file, either its offset or its line number.
+     */
+    public static final class Reject {
+
+        private final long position;
+
+        private final RowStatus status;
+
+        private final String line;
+
+        public Reject(long position, RowStatus status, String line) {
+            this.position = position;
+            this.status = status;
+            this.line = line;
+        }
+
+        public long getPosition() {
+            return position;
+        }
+
+        public RowStatus getStatus() {
+            return status;
+        }
+
+        public String getLine() {
+            return line;
+        }
+    }
+}
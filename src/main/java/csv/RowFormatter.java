@@ -0,0 +1,15 @@
+package csv;
+
+import java.io.IOException;
+
+/**
+ * Writes the fields of one value as a line of a {@link CSVOutput}.
+ */
+@FunctionalInterface
+public interface RowFormatter<T> {
+
+    /**
+     * Writes the fields of the value, the line is ended by the caller.
+     */
+    void format(T value, CSVOutput output) throws IOException;
+}
@@ -0,0 +1,7 @@
+package csv;
+
+@FunctionalInterface
+public interface RowHandler {
+
+    void handle(CSVRow row);
+}
@@ -0,0 +1,22 @@
+package csv;
+
+/**
+ * Outcome of the validation of a product row, anything but {@link #VALID} is a reason to reject the row.
+ */
+public enum RowStatus {
+
+    VALID("valid"),
+    WRONG_FIELD_COUNT("wrong field count"),
+    MALFORMED_ID("malformed id"),
+    MALFORMED_PRICE("malformed price");
+
+    private final String description;
+
+    RowStatus(String description) {
+        this.description = description;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -0,0 +1,17 @@
+package csv;
+
+/**
+ * How {@link MappedCSVReader} finds the delimiters and line separators of the mapped bytes.
+ */
+public enum Tokenizer {
+
+    /**
+     * Compares the bytes one at a time.
+     */
+    SCALAR,
+    /**
+     * Compares eight bytes at a time within a long and collects the positions of delimiters and line separators of
+     * every 64 bytes into bitmaps, so the fields of a row are cut at the set bits without looking at other bytes.
+     */
+    BLOCK
+}
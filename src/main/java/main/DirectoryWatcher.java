@@ -0,0 +1,221 @@
+package main;
+
+import csv.CSVWriter;
+import product.Product;
+import product.RunningCheapestProducts;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Long-running mode which keeps the cheapest products of a directory up to date. New CSV files are folded into the
+ * result once their size and modification time stay the same for a whole watch interval, so files which are still
+ * being written are not read too early. Files are expected to be immutable once complete, later changes of a file
+ * which is already folded are ignored.
+ * <p>
+ * A file which fails to be processed, e.g. because it is unreadable, is reported and skipped until it changes, the
+ * other files are folded without it. Results which fail to be written are written again on the next watch interval.
+ */
+final class DirectoryWatcher {
+
+    private final Params params;
+
+    private final Path directory;
+
+    private final Set<Path> outputFiles = new HashSet<>();
+
+    private final FileDiscovery discovery;
+
+    private final RunningCheapestProducts products;
+
+    private final Map<Path, FileState> pendingFiles = new HashMap<>();
+
+    private final Set<Path> foldedFiles = new HashSet<>();
+
+    private final Map<Path, FileState> failedFiles = new HashMap<>();
+
+    private boolean unwrittenResults;
+
+    DirectoryWatcher(Params params, FileDiscovery discovery) {
+        this.params = params;
+        this.discovery = discovery;
+        this.directory = Paths.get(params.getDirectoryPath()).toAbsolutePath().normalize();
+        for (Query query : params.getQueries()) {
+            outputFiles.add(Paths.get(query.getOutputFile()).toAbsolutePath().normalize());
+        }
+        this.products = new RunningCheapestProducts(params);
+    }
+
+    void run(List<Path> initialFiles) throws IOException, InterruptedException {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+            initialFiles.forEach(this::track);
+
+            System.out.println(String.format("%s - Watching %s...", now(), directory));
+            while (true) {
+                WatchKey key = watchService.poll(params.getWatchInterval(), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                            discovery.list().forEach(this::track);
+                        } else {
+                            track(directory.resolve((Path) event.context()));
+                        }
+                    }
+                    if (!key.reset()) {
+                        System.err.println("Directory is no longer accessible: " + directory);
+                        return;
+                    }
+                }
+
+                foldCompleteFiles();
+            }
+        }
+    }
+
+    private void track(Path file) {
+        Path path = file.toAbsolutePath().normalize();
+        if (!discovery.matches(path) || outputFiles.contains(path) || pendingFiles.containsKey(path)) {
+            return;
+        }
+        if (foldedFiles.contains(path)) {
+            System.err.println(String.format("File %s is changed after it was processed, ignoring...", path));
+            return;
+        }
+        FileState state = FileState.of(path);
+        FileState failed = failedFiles.get(path);
+        if (failed != null) {
+            if (state == null || state.sameContent(failed)) {
+                return;
+            }
+            failedFiles.remove(path);
+        }
+        if (state != null) {
+            pendingFiles.put(path, state);
+        }
+    }
+
+    private void foldCompleteFiles() {
+        long now = System.currentTimeMillis();
+        List<Path> completeFiles = new ArrayList<>();
+
+        Iterator<Map.Entry<Path, FileState>> iterator = pendingFiles.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, FileState> entry = iterator.next();
+            FileState state = FileState.of(entry.getKey());
+            if (state == null) { // deleted or renamed before it was complete
+                iterator.remove();
+            } else if (!state.sameContent(entry.getValue())) {
+                entry.setValue(state);
+            } else if (now - entry.getValue().observedAt >= params.getWatchInterval()) {
+                completeFiles.add(entry.getKey());
+                iterator.remove();
+            }
+        }
+
+        if (!completeFiles.isEmpty() && fold(completeFiles)) {
+            unwrittenResults = true;
+        }
+        if (unwrittenResults) {
+            writeResults();
+        }
+    }
+
+    /**
+     * Folds the files into the results. If they fail, every file is folded on its own, so only the files which fail by
+     * themselves are skipped.
+     *
+     * @return true if any of the files is folded
+     */
+    private boolean fold(List<Path> files) {
+        try {
+            products.addFiles(files);
+            foldedFiles.addAll(files);
+            return true;
+        } catch (RuntimeException e) {
+            if (files.size() > 1) {
+                boolean folded = false;
+                for (Path file : files) {
+                    folded |= fold(List.of(file));
+                }
+                return folded;
+            }
+            Path file = files.get(0);
+            System.err.println(String.format("%s - Failed to process %s, skipping it until it changes: %s", now(), file,
+                    e.getCause() != null ? e.getCause() : e));
+            FileState state = FileState.of(file);
+            if (state != null) {
+                failedFiles.put(file, state);
+            }
+            return false;
+        }
+    }
+
+    private void writeResults() {
+        unwrittenResults = false;
+        List<Query> queries = params.getQueries();
+        for (int i = 0; i < queries.size(); i++) {
+            Path outputFile = Paths.get(queries.get(i).getOutputFile());
+            try {
+                writeResult(i, outputFile);
+            } catch (IOException | RuntimeException e) {
+                System.err.println(String.format("%s - Failed to write result to %s, retrying: %s", now(), outputFile,
+                        e));
+                unwrittenResults = true;
+            }
+        }
+    }
+
+    /**
+     * The result is written to a temporary file first, so readers of the output file never see a partial result.
+     */
+    private void writeResult(int query, Path outputFile) throws IOException {
+        Path temp = outputFile.resolveSibling(outputFile.getFileName() + ".tmp");
+        new CSVWriter(true, params.getDelimiter(), params.isQuoteOutput())
+                .write(temp, products.getProducts(query).iterator(), Product::writeTo);
+        Files.move(temp, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        System.out.println(String.format("%s - Result of %s CSV files written to %s", now(), products.getFilesCount(), outputFile));
+    }
+
+    private static String now() {
+        return LocalDateTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss.SSS"));
+    }
+
+    private static final class FileState {
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final long observedAt;
+
+        private FileState(long size, long lastModified, long observedAt) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.observedAt = observedAt;
+        }
+
+        private static FileState of(Path path) {
+            try {
+                BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                if (!attributes.isRegularFile()) {
+                    return null;
+                }
+                return new FileState(attributes.size(), attributes.lastModifiedTime().toMillis(), System.currentTimeMillis());
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        private boolean sameContent(FileState other) {
+            return size == other.size && lastModified == other.lastModified;
+        }
+    }
+}
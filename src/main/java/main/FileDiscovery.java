@@ -0,0 +1,210 @@
+package main;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Discovers the CSV files of the directory of the params, optionally in its subdirectories too. Subdirectories are
+ * listed in parallel by {@link Params#getIoThreads()} threads, one task per directory, and every file is handed over
+ * with the attributes read by the listing as soon as it is found, so processing does not wait for the whole tree.
+ * <p>
+ * A glob without a '/' is matched against the file name, otherwise against the path relative to the directory.
+ * Subdirectories matched by the exclude glob are not listed at all. Symbolic links to files are followed, links to
+ * directories are not, so the traversal never runs into a cycle.
+ */
+public final class FileDiscovery {
+
+    private final Path root;
+
+    private final boolean recursive;
+
+    private final Glob include;
+
+    private final Glob exclude;
+
+    private final int parallelism;
+
+    private final AtomicInteger filesCount = new AtomicInteger();
+
+    public FileDiscovery(Params params) {
+        this.root = Paths.get(params.getDirectoryPath());
+        this.recursive = params.isRecursive();
+        this.include = new Glob(params.getInclude());
+        this.exclude = params.getExclude() == null ? null : new Glob(params.getExclude());
+        this.parallelism = params.getIoThreads();
+    }
+
+    /**
+     * Lists the directory and hands over every matching file as soon as it is found, returns once all files are
+     * handed over. Subdirectories which can not be listed are reported and skipped.
+     *
+     * @param consumer called by the listing threads concurrently, must be thread-safe
+     * @throws UncheckedIOException if the directory itself can not be listed
+     */
+    public void discover(BiConsumer<Path, BasicFileAttributes> consumer) {
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            pool.invoke(new DirectoryTask(root, consumer));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * @return all matching files ordered by their path
+     */
+    public List<Path> list() {
+        List<Path> files = new ArrayList<>();
+        discover((path, attributes) -> {
+            synchronized (files) {
+                files.add(path);
+            }
+        });
+        files.sort(Comparator.naturalOrder());
+        return files;
+    }
+
+    /**
+     * @return number of the files handed over so far
+     */
+    public int getFilesCount() {
+        return filesCount.get();
+    }
+
+    /**
+     * @param file path of a file in the directory or in one of its subdirectories
+     * @return true if the file would be discovered
+     */
+    public boolean matches(Path file) {
+        Path relative = root.toAbsolutePath().normalize().relativize(file.toAbsolutePath().normalize());
+        if (!recursive && relative.getNameCount() > 1) {
+            return false;
+        }
+        for (Path parent = relative.getParent(); parent != null; parent = parent.getParent()) {
+            if (isExcluded(parent)) {
+                return false;
+            }
+        }
+        return include.matches(relative) && !isExcluded(relative);
+    }
+
+    private boolean isExcluded(Path relative) {
+        return exclude != null && exclude.matches(relative);
+    }
+
+    /**
+     * Lists one directory, forks a task for every subdirectory and waits for them.
+     */
+    private final class DirectoryTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Path directory;
+
+        private final BiConsumer<Path, BasicFileAttributes> consumer;
+
+        private DirectoryTask(Path directory, BiConsumer<Path, BasicFileAttributes> consumer) {
+            this.directory = directory;
+            this.consumer = consumer;
+        }
+
+        @Override
+        protected void compute() {
+            List<DirectoryTask> subdirectories = new ArrayList<>();
+            try {
+                Files.walkFileTree(directory, EnumSet.noneOf(FileVisitOption.class), 1, new SimpleFileVisitor<>() {
+                    @Override
+                    public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) throws IOException {
+                        Path relative = root.relativize(file);
+                        if (isExcluded(relative)) {
+                            return FileVisitResult.CONTINUE;
+                        }
+                        if (attributes.isDirectory()) {
+                            if (recursive) {
+                                DirectoryTask task = new DirectoryTask(file, consumer);
+                                task.fork();
+                                subdirectories.add(task);
+                            }
+                        } else if (include.matches(relative)) {
+                            if (attributes.isSymbolicLink()) {
+                                attributes = targetAttributes(file);
+                            }
+                            if (attributes != null && attributes.isRegularFile()) {
+                                filesCount.incrementAndGet();
+                                consumer.accept(file, attributes);
+                            }
+                        }
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                        return failed(file, e);
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                        return e == null ? FileVisitResult.CONTINUE : failed(dir, e);
+                    }
+                });
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            for (DirectoryTask task : subdirectories) {
+                task.join();
+            }
+        }
+
+        private FileVisitResult failed(Path path, IOException e) throws IOException {
+            if (path.equals(root)) {
+                throw e;
+            }
+            System.err.println(String.format("Failed to list %s: %s", path, e));
+            return FileVisitResult.CONTINUE;
+        }
+
+        /**
+         * @return attributes of the target of the link, null if the link is broken
+         */
+        private BasicFileAttributes targetAttributes(Path link) {
+            try {
+                return Files.readAttributes(link, BasicFileAttributes.class);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+    }
+
+    private static final class Glob {
+
+        private final PathMatcher matcher;
+
+        private final boolean relative;
+
+        private Glob(String pattern) {
+            this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            this.relative = pattern.contains("/");
+        }
+
+        private boolean matches(Path path) {
+            return matcher.matches(relative ? path : path.getFileName());
+        }
+    }
+}
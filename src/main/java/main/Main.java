@@ -1,63 +1,147 @@
 package main;
 
 import csv.CSVWriter;
+import csv.Tokenizer;
 import product.Product;
 import product.ProductService;
+import product.ResultStream;
+import product.ShardCoordinator;
+import product.ShardWorker;
+import query.Column;
+import query.Filter;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
-import java.util.stream.Stream;
-
-import static java.util.stream.Collectors.toList;
 
 public class Main {
 
+    private static final List<String> WORKER_ARGUMENTS = List.of("workers", "localWorkers", "workerHeap",
+            "workerTimeout");
+
     public static void main(String[] args) throws IOException {
+        Map<String, String> arguments;
         Params params;
         try {
-            params = resolveParams(args);
+            arguments = resolveArguments(args);
+            if (arguments.containsKey(ShardWorker.PORT_ARGUMENT)) {
+                serveShards(arguments.get(ShardWorker.PORT_ARGUMENT));
+                return;
+            }
+            params = resolveParams(arguments);
         } catch (IllegalArgumentException e) {
             System.err.println(e.getMessage());
             return;
         }
 
-        List<Path> csvFiles = getCSVFiles(params.getDirectoryPath());
-        if (csvFiles.isEmpty()) {
-            System.err.println(String.format("No CSV files were found in the directory: %s", params.getDirectoryPath()));
+        FileDiscovery discovery = new FileDiscovery(params);
+
+        if (params.isIngest()) {
+            List<Path> csvFiles = discovery.list();
+            int written = new ProductService().ingest(csvFiles, params);
+            System.out.println(String.format("%s of %s CSV files converted into segments in %s",
+                    written, csvFiles.size(), params.getSegmentDirectory()));
+            return;
+        }
+
+        if (params.isServer()) {
+            try {
+                new QueryServer(params, discovery).run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return;
+        }
+
+        if (params.isWatch()) {
+            try {
+                new DirectoryWatcher(params, discovery).run(discovery.list());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
             return;
         }
 
         String startTime = LocalDateTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss.SSS"));
-        System.out.println(String.format("%s - Starting process of %s CSV files...", startTime, csvFiles.size()));
+        System.out.println(String.format("%s - Starting process of CSV files in %s...", startTime,
+                params.getDirectoryPath()));
 
         ProductService productService = new ProductService();
 
-        List<Product> cheapestProducts = productService.getCheapestProducts(csvFiles, params);
+        List<ResultStream> results;
+        if (params.isSharded()) {
+            Map<String, String> workerArguments = new HashMap<>(arguments);
+            workerArguments.keySet().removeAll(WORKER_ARGUMENTS);
+            results = new ShardCoordinator(params, workerArguments).execute(discovery.list());
+        } else {
+            results = productService.streamQueryResults(discovery, params);
+        }
 
         String endTime = LocalDateTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss.SSS"));
-        System.out.println(String.format("%s - Process end", endTime));
+        System.out.println(String.format("%s - Process end, %s CSV files processed", endTime,
+                discovery.getFilesCount()));
+        if (!results.isEmpty() && results.get(0).isPartial()) {
+            System.out.println(String.format("Budget is spent, results are partial: %s",
+                    results.get(0).getCoverage().describe()));
+        }
 
-        List<String[]> rawData = cheapestProducts.stream().map(Product::toRaw).collect(toList());
+        try {
+            if (discovery.getFilesCount() == 0) {
+                System.err.println(String.format("No CSV files were found in the directory: %s",
+                        params.getDirectoryPath()));
+                return;
+            }
+            for (int i = 0; i < results.size(); i++) {
+                String outputFile = params.getQueries().get(i).getOutputFile();
 
-        writeProductsToCSVFile(rawData, params.getDelimiter());
+                if (outputFile != null) {
+                    Path path = Path.of(outputFile);
+                    new CSVWriter(true, params.getDelimiter(), params.isQuoteOutput())
+                            .write(path, results.get(i), Product::writeTo);
+                    System.out.println("Output file: " + path.toAbsolutePath());
+                } else {
+                    writeProductsToCSVFile(results.get(i), params);
+                }
+            }
+        } finally {
+            for (ResultStream result : results) {
+                result.close();
+            }
+        }
+    }
+
+
+    /**
+     * Serves the shards of coordinators until the process is stopped.
+     */
+    private static void serveShards(String port) throws IOException {
+        int portNumber;
+        try {
+            portNumber = Integer.parseInt(port);
+        } catch (NumberFormatException ignored) {
+            throw new IllegalArgumentException(ShardWorker.PORT_ARGUMENT + " should be number");
+        }
+        try (ShardWorker worker = new ShardWorker(portNumber, Main::resolveParams)) {
+            worker.serve();
+        }
     }
 
-    private static Params resolveParams(String[] args) {
+    private static Map<String, String> resolveArguments(String[] args) {
         if (args.length == 0) {
             throw new IllegalArgumentException("no args found!");
         }
 
         Map<String, String> paramsMap = new HashMap<>();
         for (String arg : args) {
-            String[] strings = arg.split("=");
+            String[] strings = arg.split("=", 2);
             if (strings.length == 2) {
                 String key = strings[0];
                 String value = strings[1];
@@ -67,7 +151,10 @@ public class Main {
                 System.err.println(String.format("Invalid argument %s, ignoring...", arg));
             }
         }
+        return paramsMap;
+    }
 
+    private static Params resolveParams(Map<String, String> paramsMap) {
         String directoryPath = paramsMap.get("directoryPath");
         if (directoryPath == null) {
             throw new IllegalArgumentException("Directory path is mandatory");
@@ -78,6 +165,47 @@ public class Main {
         String delimiter = paramsMap.get("delimiter");
         String productResultRowsCount = paramsMap.get("productResultRowsCount");
         String duplicateProductsMaxCount = paramsMap.get("duplicateProductsMaxCount");
+        String readerMode = paramsMap.get("readerMode");
+        String rangeSize = paramsMap.get("rangeSize");
+        String lateMaterialization = paramsMap.get("lateMaterialization");
+        String cacheDirectory = paramsMap.get("cacheDirectory");
+        String cacheMaxSize = paramsMap.get("cacheMaxSize");
+        String cacheContentHash = paramsMap.get("cacheContentHash");
+        String watch = paramsMap.get("watch");
+        String outputFile = paramsMap.get("outputFile");
+        String watchInterval = paramsMap.get("watchInterval");
+        String metricsFile = paramsMap.get("metricsFile");
+        String progress = paramsMap.get("progress");
+        String ioThreads = paramsMap.get("ioThreads");
+        String cpuThreads = paramsMap.get("cpuThreads");
+        String queries = paramsMap.get("queries");
+        String filter = paramsMap.get("filter");
+        String sortBy = paramsMap.get("sortBy");
+        String sortOrder = paramsMap.get("sortOrder");
+        String limitBy = paramsMap.get("limitBy");
+        String segmentDirectory = paramsMap.get("segmentDirectory");
+        String ingest = paramsMap.get("ingest");
+        String spillDirectory = paramsMap.get("spillDirectory");
+        String spillRunRows = paramsMap.get("spillRunRows");
+        String quoteOutput = paramsMap.get("quoteOutput");
+        String quarantineFile = paramsMap.get("quarantineFile");
+        String recursive = paramsMap.get("recursive");
+        String include = paramsMap.get("include");
+        String exclude = paramsMap.get("exclude");
+        String checkpointFile = paramsMap.get("checkpointFile");
+        String checkpointInterval = paramsMap.get("checkpointInterval");
+        String tokenizer = paramsMap.get("tokenizer");
+        String workers = paramsMap.get("workers");
+        String localWorkers = paramsMap.get("localWorkers");
+        String workerHeap = paramsMap.get("workerHeap");
+        String workerTimeout = paramsMap.get("workerTimeout");
+        String serverPort = paramsMap.get("serverPort");
+        String serverThreads = paramsMap.get("serverThreads");
+        String serverCacheMaxSize = paramsMap.get("serverCacheMaxSize");
+        String snapshotDirectory = paramsMap.get("snapshotDirectory");
+        String snapshotInterval = paramsMap.get("snapshotInterval");
+        String timeBudget = paramsMap.get("timeBudget");
+        String byteBudget = paramsMap.get("byteBudget");
 
         if (delimiter != null) {
             if (delimiter.length() != 1) {
@@ -103,10 +231,246 @@ public class Main {
             }
         }
 
+        if (readerMode != null) {
+            try {
+                builder.readerMode(Params.ReaderMode.valueOf(readerMode.toUpperCase()));
+            } catch (IllegalArgumentException ignored) {
+                throw new IllegalArgumentException("readerMode should be one of: stream, mapped");
+            }
+        }
+
+        if (rangeSize != null) {
+            try {
+                builder.rangeSize(Long.parseLong(rangeSize));
+            } catch (NumberFormatException ignored) {
+                throw new IllegalArgumentException("rangeSize should be number");
+            }
+        }
+
+        if (lateMaterialization != null) {
+            builder.lateMaterialization(Boolean.parseBoolean(lateMaterialization));
+        }
+
+        if (cacheDirectory != null) {
+            builder.cacheDirectory(cacheDirectory);
+        }
+
+        if (cacheMaxSize != null) {
+            try {
+                builder.cacheMaxSize(Long.parseLong(cacheMaxSize));
+            } catch (NumberFormatException ignored) {
+                throw new IllegalArgumentException("cacheMaxSize should be number");
+            }
+        }
+
+        if (cacheContentHash != null) {
+            builder.cacheContentHash(Boolean.parseBoolean(cacheContentHash));
+        }
+
+        if (watch != null) {
+            builder.watch(Boolean.parseBoolean(watch));
+        }
+
+        if (outputFile != null) {
+            builder.outputFile(outputFile);
+        }
+
+        if (watchInterval != null) {
+            try {
+                builder.watchInterval(Long.parseLong(watchInterval));
+            } catch (NumberFormatException ignored) {
+                throw new IllegalArgumentException("watchInterval should be number");
+            }
+        }
+
+        if (metricsFile != null) {
+            builder.metricsFile(metricsFile);
+        }
+
+        if (progress != null) {
+            builder.progress(Boolean.parseBoolean(progress));
+        }
+
+        if (ioThreads != null) {
+            try {
+                builder.ioThreads(Integer.parseInt(ioThreads));
+            } catch (NumberFormatException ignored) {
+                throw new IllegalArgumentException("ioThreads should be number");
+            }
+        }
+
+        if (cpuThreads != null) {
+            try {
+                builder.cpuThreads(Integer.parseInt(cpuThreads));
+            } catch (NumberFormatException ignored) {
+                throw new IllegalArgumentException("cpuThreads should be number");
+            }
+        }
+
+        if (filter != null) {
+            builder.filter(Filter.parse(filter));
+        }
+
+        if (sortBy != null) {
+            builder.sortColumn(Column.of(sortBy));
+        }
+
+        if (sortOrder != null) {
+            builder.descending(Query.parseDescending(sortOrder));
+        }
+
+        if (limitBy != null) {
+            builder.limitColumn(Query.parseLimitColumn(limitBy));
+        }
+
+        if (segmentDirectory != null) {
+            builder.segmentDirectory(segmentDirectory);
+        }
+
+        if (ingest != null) {
+            builder.ingest(Boolean.parseBoolean(ingest));
+        }
+
+        if (spillDirectory != null) {
+            builder.spillDirectory(spillDirectory);
+        }
+
+        if (spillRunRows != null) {
+            try {
+                builder.spillRunRows(Integer.parseInt(spillRunRows));
+            } catch (NumberFormatException ignored) {
+                throw new IllegalArgumentException("spillRunRows should be number");
+            }
+        }
+
+        if (quoteOutput != null) {
+            builder.quoteOutput(Boolean.parseBoolean(quoteOutput));
+        }
+
+        if (quarantineFile != null) {
+            builder.quarantineFile(quarantineFile);
+        }
+
+        if (recursive != null) {
+            builder.recursive(Boolean.parseBoolean(recursive));
+        }
+
+        if (include != null) {
+            builder.include(include);
+        }
+
+        if (exclude != null) {
+            builder.exclude(exclude);
+        }
+
+        if (checkpointFile != null) {
+            builder.checkpointFile(checkpointFile);
+        }
+
+        if (checkpointInterval != null) {
+            try {
+                builder.checkpointInterval(Long.parseLong(checkpointInterval));
+            } catch (NumberFormatException ignored) {
+                throw new IllegalArgumentException("checkpointInterval should be number");
+            }
+        }
+
+        if (tokenizer != null) {
+            try {
+                builder.tokenizer(Tokenizer.valueOf(tokenizer.toUpperCase()));
+            } catch (IllegalArgumentException ignored) {
+                throw new IllegalArgumentException("tokenizer should be one of: scalar, block");
+            }
+        }
+
+        if (workers != null) {
+            builder.workers(List.of(workers.split(",")));
+        }
+
+        if (localWorkers != null) {
+            try {
+                builder.localWorkers(Integer.parseInt(localWorkers));
+            } catch (NumberFormatException ignored) {
+                throw new IllegalArgumentException("localWorkers should be number");
+            }
+        }
+
+        if (workerHeap != null) {
+            builder.workerHeap(workerHeap);
+        }
+
+        if (workerTimeout != null) {
+            try {
+                builder.workerTimeout(Long.parseLong(workerTimeout));
+            } catch (NumberFormatException ignored) {
+                throw new IllegalArgumentException("workerTimeout should be number");
+            }
+        }
+
+        if (serverPort != null) {
+            try {
+                builder.serverPort(Integer.parseInt(serverPort));
+            } catch (NumberFormatException ignored) {
+                throw new IllegalArgumentException("serverPort should be number");
+            }
+        }
+
+        if (serverThreads != null) {
+            try {
+                builder.serverThreads(Integer.parseInt(serverThreads));
+            } catch (NumberFormatException ignored) {
+                throw new IllegalArgumentException("serverThreads should be number");
+            }
+        }
+
+        if (serverCacheMaxSize != null) {
+            try {
+                builder.serverCacheMaxSize(Long.parseLong(serverCacheMaxSize));
+            } catch (NumberFormatException ignored) {
+                throw new IllegalArgumentException("serverCacheMaxSize should be number");
+            }
+        }
+
+        if (snapshotDirectory != null) {
+            builder.snapshotDirectory(snapshotDirectory);
+        }
+
+        if (snapshotInterval != null) {
+            try {
+                builder.snapshotInterval(Long.parseLong(snapshotInterval));
+            } catch (NumberFormatException ignored) {
+                throw new IllegalArgumentException("snapshotInterval should be number");
+            }
+        }
+
+        if (timeBudget != null) {
+            try {
+                builder.timeBudget(Long.parseLong(timeBudget));
+            } catch (NumberFormatException ignored) {
+                throw new IllegalArgumentException("timeBudget should be number");
+            }
+        }
+
+        if (byteBudget != null) {
+            try {
+                builder.byteBudget(Long.parseLong(byteBudget));
+            } catch (NumberFormatException ignored) {
+                throw new IllegalArgumentException("byteBudget should be number");
+            }
+        }
+
+        if (queries != null) {
+            List<Query> queryList = new ArrayList<>();
+            for (String query : Query.split(queries, ';')) {
+                queryList.add(Query.parse(query));
+            }
+            builder.queries(queryList);
+        }
+
         return builder.build();
     }
 
-    private static void writeProductsToCSVFile(List<String[]> data, char delimiter) throws IOException {
+    private static void writeProductsToCSVFile(Iterator<Product> products, Params params) throws IOException {
         Scanner scanner = new Scanner(System.in);
         System.out.print("Specify output file: ");
         String filePath = scanner.nextLine();
@@ -125,26 +489,18 @@ public class Main {
             switch (answer.toLowerCase()) {
                 case "y":
                 case "yes":
-                    writer = new CSVWriter(true, delimiter);
+                    writer = new CSVWriter(true, params.getDelimiter(), params.isQuoteOutput());
                     break;
                 default:
                     System.out.println("Goodbye!");
                     return;
             }
         } else {
-            writer = new CSVWriter(false, delimiter);
+            writer = new CSVWriter(false, params.getDelimiter(), params.isQuoteOutput());
         }
 
-        writer.write(path, data);
+        writer.write(path, products, Product::writeTo);
 
         System.out.println("Output file: " + path.toAbsolutePath());
     }
-
-    private static List<Path> getCSVFiles(String directoryPath) {
-        try (Stream<Path> files = Files.walk(Paths.get(directoryPath), 1)) {
-            return files.filter(path -> Files.isRegularFile(path)).filter(file -> file.toString().endsWith(".csv")).collect(toList());
-        } catch (IOException e) {
-            throw new RuntimeException("See cause.", e);
-        }
-    }
 }
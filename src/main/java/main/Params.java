@@ -1,6 +1,13 @@
 package main;
 
+import csv.Tokenizer;
+import query.Column;
+import query.Filter;
+
+import java.nio.file.FileSystems;
+import java.util.List;
 import java.util.Objects;
+import java.util.regex.PatternSyntaxException;
 
 public final class Params {
 
@@ -12,11 +19,146 @@ public final class Params {
 
     private final String directoryPath;
 
-    public Params(int duplicateProductsMaxCount, int productResultRowsCount, char delimiter, String directoryPath) {
+    private final ReaderMode readerMode;
+
+    private final long rangeSize;
+
+    private final boolean lateMaterialization;
+
+    private final String cacheDirectory;
+
+    private final long cacheMaxSize;
+
+    private final boolean cacheContentHash;
+
+    private final boolean watch;
+
+    private final String outputFile;
+
+    private final long watchInterval;
+
+    private final String metricsFile;
+
+    private final boolean progress;
+
+    private final int ioThreads;
+
+    private final int cpuThreads;
+
+    private final Filter filter;
+
+    private final Column sortColumn;
+
+    private final boolean descending;
+
+    private final Column limitColumn;
+
+    private final String segmentDirectory;
+
+    private final boolean ingest;
+
+    private final String spillDirectory;
+
+    private final int spillRunRows;
+
+    private final boolean quoteOutput;
+
+    private final String quarantineFile;
+
+    private final boolean recursive;
+
+    private final String include;
+
+    private final String exclude;
+
+    private final String checkpointFile;
+
+    private final long checkpointInterval;
+
+    private final Tokenizer tokenizer;
+
+    private final List<String> workers;
+
+    private final int localWorkers;
+
+    private final String workerHeap;
+
+    private final long workerTimeout;
+
+    private final int serverPort;
+
+    private final int serverThreads;
+
+    private final long serverCacheMaxSize;
+
+    private final String snapshotDirectory;
+
+    private final long snapshotInterval;
+
+    private final long timeBudget;
+
+    private final long byteBudget;
+
+    private final List<Query> queries;
+
+    public Params(int duplicateProductsMaxCount, int productResultRowsCount, char delimiter, String directoryPath,
+                  ReaderMode readerMode, long rangeSize, boolean lateMaterialization, String cacheDirectory, long cacheMaxSize,
+                  boolean cacheContentHash, boolean watch, String outputFile, long watchInterval,
+                  String metricsFile, boolean progress, int ioThreads, int cpuThreads, Filter filter, Column sortColumn,
+                  boolean descending, Column limitColumn, String segmentDirectory, boolean ingest,
+                  String spillDirectory, int spillRunRows, boolean quoteOutput, String quarantineFile,
+                  boolean recursive, String include, String exclude, String checkpointFile, long checkpointInterval,
+                  Tokenizer tokenizer, List<String> workers, int localWorkers, String workerHeap,
+                  long workerTimeout, int serverPort, int serverThreads, long serverCacheMaxSize, String snapshotDirectory, long snapshotInterval,
+                  long timeBudget, long byteBudget, List<Query> queries) {
         this.duplicateProductsMaxCount = duplicateProductsMaxCount;
         this.productResultRowsCount = productResultRowsCount;
         this.delimiter = delimiter;
         this.directoryPath = directoryPath;
+        this.readerMode = readerMode;
+        this.rangeSize = rangeSize;
+        this.lateMaterialization = lateMaterialization;
+        this.cacheDirectory = cacheDirectory;
+        this.cacheMaxSize = cacheMaxSize;
+        this.cacheContentHash = cacheContentHash;
+        this.watch = watch;
+        this.outputFile = outputFile;
+        this.watchInterval = watchInterval;
+        this.metricsFile = metricsFile;
+        this.progress = progress;
+        this.ioThreads = ioThreads;
+        this.cpuThreads = cpuThreads;
+        this.filter = filter;
+        this.sortColumn = sortColumn;
+        this.descending = descending;
+        this.limitColumn = limitColumn;
+        this.segmentDirectory = segmentDirectory;
+        this.ingest = ingest;
+        this.spillDirectory = spillDirectory;
+        this.spillRunRows = spillRunRows;
+        this.quoteOutput = quoteOutput;
+        this.quarantineFile = quarantineFile;
+        this.recursive = recursive;
+        this.include = include;
+        this.exclude = exclude;
+        this.checkpointFile = checkpointFile;
+        this.checkpointInterval = checkpointInterval;
+        this.tokenizer = tokenizer;
+        this.workers = List.copyOf(workers);
+        this.localWorkers = localWorkers;
+        this.workerHeap = workerHeap;
+        this.workerTimeout = workerTimeout;
+        this.serverPort = serverPort;
+        this.serverThreads = serverThreads;
+        this.serverCacheMaxSize = serverCacheMaxSize;
+        this.snapshotDirectory = snapshotDirectory;
+        this.snapshotInterval = snapshotInterval;
+        this.timeBudget = timeBudget;
+        this.byteBudget = byteBudget;
+        this.queries = queries.isEmpty()
+                ? List.of(new Query(productResultRowsCount, duplicateProductsMaxCount, outputFile, filter, sortColumn,
+                descending, limitColumn))
+                : List.copyOf(queries);
     }
 
     public int getDuplicateProductsMaxCount() {
@@ -35,6 +177,317 @@ public final class Params {
         return directoryPath;
     }
 
+    public ReaderMode getReaderMode() {
+        return readerMode;
+    }
+
+    /**
+     * @return approximate size in bytes of the ranges large files are split into, used by {@link ReaderMode#MAPPED}
+     */
+    public long getRangeSize() {
+        return rangeSize;
+    }
+
+    /**
+     * @return true if workers keep only id, price and row location of candidates and the text columns of the result
+     * are re-read from the files at the end, requires {@link ReaderMode#MAPPED}
+     */
+    public boolean isLateMaterialization() {
+        return lateMaterialization;
+    }
+
+    /**
+     * @return directory of the per-file partial results cache, null if caching is disabled
+     */
+    public String getCacheDirectory() {
+        return cacheDirectory;
+    }
+
+    public long getCacheMaxSize() {
+        return cacheMaxSize;
+    }
+
+    /**
+     * @return true if cache entries are validated by a checksum of the file content in addition to its size and mtime
+     */
+    public boolean isCacheContentHash() {
+        return cacheContentHash;
+    }
+
+    /**
+     * @return true if the directory is watched for new files and the result is rewritten on every change
+     */
+    public boolean isWatch() {
+        return watch;
+    }
+
+    /**
+     * @return path of the result file, null if it is asked for interactively
+     */
+    public String getOutputFile() {
+        return outputFile;
+    }
+
+    /**
+     * @return milliseconds a new file must keep its size to be considered complete, also the minimal delay
+     * between two result updates in watch mode and between two refreshes of the query server
+     */
+    public long getWatchInterval() {
+        return watchInterval;
+    }
+
+    /**
+     * @return path of the JSON summary of run metrics, null if it is not written
+     */
+    public String getMetricsFile() {
+        return metricsFile;
+    }
+
+    /**
+     * @return true if the progress of a run is printed to stderr every second
+     */
+    public boolean isProgress() {
+        return progress;
+    }
+
+    /**
+     * @return number of threads which map and load file ranges ahead of parsing
+     */
+    public int getIoThreads() {
+        return ioThreads;
+    }
+
+    /**
+     * @return number of threads which parse loaded ranges and merge partial results
+     */
+    public int getCpuThreads() {
+        return cpuThreads;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    public Column getSortColumn() {
+        return sortColumn;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * @return null if the result is not limited per value of a column
+     */
+    public Column getLimitColumn() {
+        return limitColumn;
+    }
+
+    /**
+     * @return directory of the binary segments of the CSV files, null if files are always read from the CSV
+     */
+    public String getSegmentDirectory() {
+        return segmentDirectory;
+    }
+
+    /**
+     * @return true if the CSV files are converted into segments instead of being queried
+     */
+    public boolean isIngest() {
+        return ingest;
+    }
+
+    /**
+     * @return directory of the temporary sorted runs of results bigger than {@link #getSpillRunRows()}, null if all
+     * results are kept in memory
+     */
+    public String getSpillDirectory() {
+        return spillDirectory;
+    }
+
+    /**
+     * @return rows of a sorted run which are collected in memory before the run is spilled
+     */
+    public int getSpillRunRows() {
+        return spillRunRows;
+    }
+
+    /**
+     * @return true if the result of the query is merged from spilled runs instead of being kept in memory
+     */
+    public boolean isSpilled(Query query) {
+        return spillDirectory != null && query.getProductResultRowsCount() > spillRunRows;
+    }
+
+    /**
+     * @return true if output fields which contain the delimiter, a quote or a line break are quoted
+     */
+    public boolean isQuoteOutput() {
+        return quoteOutput;
+    }
+
+    /**
+     * @return file which rejected rows are written to with their file, line number and reason, null if they are only
+     * counted
+     */
+    public String getQuarantineFile() {
+        return quarantineFile;
+    }
+
+    /**
+     * @return true if files are discovered in the subdirectories of the directory too
+     */
+    public boolean isRecursive() {
+        return recursive;
+    }
+
+    /**
+     * @return glob of the discovered files, matched against the file name, or against the path relative to the
+     * directory if it contains a '/'
+     */
+    public String getInclude() {
+        return include;
+    }
+
+    /**
+     * @return glob of the files and subdirectories which are skipped, matched as {@link #getInclude()}, null if none
+     */
+    public String getExclude() {
+        return exclude;
+    }
+
+    /**
+     * @return file of the completed files and merged results of a run, which a restarted run resumes, null if runs
+     * are not checkpointed
+     */
+    public String getCheckpointFile() {
+        return checkpointFile;
+    }
+
+    /**
+     * @return milliseconds between two checkpoint writes
+     */
+    public long getCheckpointInterval() {
+        return checkpointInterval;
+    }
+
+    /**
+     * @return how fields are found by the mapped reader
+     */
+    public Tokenizer getTokenizer() {
+        return tokenizer;
+    }
+
+    /**
+     * @return {@code host:port} addresses of running worker processes which the files are sharded to
+     */
+    public List<String> getWorkers() {
+        return workers;
+    }
+
+    /**
+     * @return number of worker processes started on this machine for the run, in addition to {@link #getWorkers()}
+     */
+    public int getLocalWorkers() {
+        return localWorkers;
+    }
+
+    /**
+     * @return maximum heap of the started worker processes, e.g. {@code 512m}, null for the JVM default
+     */
+    public String getWorkerHeap() {
+        return workerHeap;
+    }
+
+    /**
+     * @return milliseconds a worker may take to start, to accept the connection or between two heartbeats or reads of
+     * its answer before the run fails
+     */
+    public long getWorkerTimeout() {
+        return workerTimeout;
+    }
+
+    /**
+     * @return true if the files are sharded to worker processes and their results merged by this process
+     */
+    public boolean isSharded() {
+        return !workers.isEmpty() || localWorkers > 0;
+    }
+
+    /**
+     * @return true if the files are kept in memory and queries are answered over HTTP on {@link #getServerPort()}
+     */
+    public boolean isServer() {
+        return serverPort >= 0;
+    }
+
+    /**
+     * @return port of the query server, 0 for any free port, -1 if there is no server
+     */
+    public int getServerPort() {
+        return serverPort;
+    }
+
+    /**
+     * @return number of queries the server answers concurrently
+     */
+    public int getServerThreads() {
+        return serverThreads;
+    }
+
+    /**
+     * @return maximum size in bytes of the recent results cached by the server
+     */
+    public long getServerCacheMaxSize() {
+        return serverCacheMaxSize;
+    }
+
+    /**
+     * @return directory which snapshots of the results over the completed files are written to while the run goes on,
+     * null if no snapshots are written
+     */
+    public String getSnapshotDirectory() {
+        return snapshotDirectory;
+    }
+
+    /**
+     * @return milliseconds between two snapshots
+     */
+    public long getSnapshotInterval() {
+        return snapshotInterval;
+    }
+
+    /**
+     * @return milliseconds after which the run stops and returns the results over the files completed so far, 0 for
+     * no limit
+     */
+    public long getTimeBudget() {
+        return timeBudget;
+    }
+
+    /**
+     * @return bytes read after which the run stops and returns the results over the files completed so far, 0 for no
+     * limit
+     */
+    public long getByteBudget() {
+        return byteBudget;
+    }
+
+    /**
+     * @return true if results over the completed files are published while the run goes on or the run may stop early
+     */
+    public boolean isAnytime() {
+        return snapshotDirectory != null || timeBudget > 0 || byteBudget > 0;
+    }
+
+    /**
+     * @return queries answered by one scan of the files, a single query of the result size, duplicate cap, output
+     * file, filter, sort and limit columns of the params unless queries are given explicitly
+     */
+    public List<Query> getQueries() {
+        return queries;
+    }
+
     public static Builder builder(String directoryPath) {
         return new Builder(directoryPath);
     }
@@ -46,6 +499,88 @@ public final class Params {
 
         private char delimiter = ',';
 
+        private ReaderMode readerMode = ReaderMode.MAPPED;
+
+        private long rangeSize = 64 * 1024 * 1024;
+
+        private boolean lateMaterialization;
+
+        private String cacheDirectory;
+
+        private long cacheMaxSize = 1024L * 1024 * 1024;
+
+        private boolean cacheContentHash;
+
+        private boolean watch;
+
+        private String outputFile;
+
+        private long watchInterval = 5000;
+
+        private String metricsFile;
+
+        private boolean progress;
+
+        private int ioThreads = 4;
+
+        private int cpuThreads = Runtime.getRuntime().availableProcessors();
+
+        private Filter filter = Filter.ALL;
+
+        private Column sortColumn = Column.PRICE;
+
+        private boolean descending;
+
+        private Column limitColumn = Column.ID;
+
+        private String segmentDirectory;
+
+        private boolean ingest;
+
+        private String spillDirectory;
+
+        private int spillRunRows = 256 * 1024;
+
+        private boolean quoteOutput;
+
+        private String quarantineFile;
+
+        private boolean recursive;
+
+        private String include = "*.csv";
+
+        private String exclude;
+
+        private String checkpointFile;
+
+        private long checkpointInterval = 60_000;
+
+        private Tokenizer tokenizer = Tokenizer.BLOCK;
+
+        private List<String> workers = List.of();
+
+        private int localWorkers;
+
+        private String workerHeap;
+
+        private long workerTimeout = 60_000;
+
+        private int serverPort = -1;
+
+        private int serverThreads = Runtime.getRuntime().availableProcessors();
+
+        private long serverCacheMaxSize = 64L * 1024 * 1024;
+
+        private String snapshotDirectory;
+
+        private long snapshotInterval = 10_000;
+
+        private long timeBudget;
+
+        private long byteBudget;
+
+        private List<Query> queries = List.of();
+
         private final String directoryPath;
 
         private Builder(String directoryPath) {
@@ -68,8 +603,358 @@ public final class Params {
             return this;
         }
 
+        public Builder readerMode(ReaderMode value) {
+            this.readerMode = Objects.requireNonNull(value);
+            return this;
+        }
+
+        public Builder rangeSize(long value) {
+            if (value <= 0) {
+                throw new IllegalArgumentException("rangeSize must be positive");
+            }
+            this.rangeSize = value;
+            return this;
+        }
+
+        public Builder lateMaterialization(boolean value) {
+            this.lateMaterialization = value;
+            return this;
+        }
+
+        public Builder cacheDirectory(String value) {
+            this.cacheDirectory = value;
+            return this;
+        }
+
+        public Builder cacheMaxSize(long value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("cacheMaxSize must not be negative");
+            }
+            this.cacheMaxSize = value;
+            return this;
+        }
+
+        public Builder cacheContentHash(boolean value) {
+            this.cacheContentHash = value;
+            return this;
+        }
+
+        public Builder watch(boolean value) {
+            this.watch = value;
+            return this;
+        }
+
+        public Builder outputFile(String value) {
+            this.outputFile = value;
+            return this;
+        }
+
+        public Builder watchInterval(long value) {
+            if (value <= 0) {
+                throw new IllegalArgumentException("watchInterval must be positive");
+            }
+            this.watchInterval = value;
+            return this;
+        }
+
+        public Builder metricsFile(String value) {
+            this.metricsFile = value;
+            return this;
+        }
+
+        public Builder progress(boolean value) {
+            this.progress = value;
+            return this;
+        }
+
+        public Builder ioThreads(int value) {
+            if (value <= 0) {
+                throw new IllegalArgumentException("ioThreads must be positive");
+            }
+            this.ioThreads = value;
+            return this;
+        }
+
+        public Builder cpuThreads(int value) {
+            if (value <= 0) {
+                throw new IllegalArgumentException("cpuThreads must be positive");
+            }
+            this.cpuThreads = value;
+            return this;
+        }
+
+        public Builder filter(Filter value) {
+            this.filter = Objects.requireNonNull(value);
+            return this;
+        }
+
+        public Builder sortColumn(Column value) {
+            this.sortColumn = Objects.requireNonNull(value);
+            return this;
+        }
+
+        public Builder descending(boolean value) {
+            this.descending = value;
+            return this;
+        }
+
+        /**
+         * @param value null for no limit
+         */
+        public Builder limitColumn(Column value) {
+            this.limitColumn = value;
+            return this;
+        }
+
+        public Builder segmentDirectory(String value) {
+            this.segmentDirectory = value;
+            return this;
+        }
+
+        public Builder ingest(boolean value) {
+            this.ingest = value;
+            return this;
+        }
+
+        public Builder spillDirectory(String value) {
+            this.spillDirectory = value;
+            return this;
+        }
+
+        public Builder spillRunRows(int value) {
+            if (value <= 0) {
+                throw new IllegalArgumentException("spillRunRows must be positive");
+            }
+            this.spillRunRows = value;
+            return this;
+        }
+
+        public Builder quoteOutput(boolean value) {
+            this.quoteOutput = value;
+            return this;
+        }
+
+        public Builder quarantineFile(String value) {
+            this.quarantineFile = value;
+            return this;
+        }
+
+        public Builder recursive(boolean value) {
+            this.recursive = value;
+            return this;
+        }
+
+        public Builder include(String value) {
+            this.include = Objects.requireNonNull(value);
+            return this;
+        }
+
+        public Builder exclude(String value) {
+            this.exclude = value;
+            return this;
+        }
+
+        public Builder checkpointFile(String value) {
+            this.checkpointFile = value;
+            return this;
+        }
+
+        public Builder checkpointInterval(long value) {
+            if (value <= 0) {
+                throw new IllegalArgumentException("checkpointInterval must be positive");
+            }
+            this.checkpointInterval = value;
+            return this;
+        }
+
+        public Builder tokenizer(Tokenizer value) {
+            this.tokenizer = Objects.requireNonNull(value);
+            return this;
+        }
+
+        public Builder workers(List<String> value) {
+            for (String address : value) {
+                int separator = address.lastIndexOf(':');
+                if (separator <= 0 || !isPort(address.substring(separator + 1))) {
+                    throw new IllegalArgumentException("workers should be list of host:port");
+                }
+            }
+            this.workers = List.copyOf(value);
+            return this;
+        }
+
+        public Builder localWorkers(int value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("localWorkers must not be negative");
+            }
+            this.localWorkers = value;
+            return this;
+        }
+
+        public Builder workerHeap(String value) {
+            if (!value.matches("\\d+[kKmMgG]?")) {
+                throw new IllegalArgumentException("workerHeap should be size, e.g. 512m");
+            }
+            this.workerHeap = value;
+            return this;
+        }
+
+        public Builder workerTimeout(long value) {
+            if (value <= 0) {
+                throw new IllegalArgumentException("workerTimeout must be positive");
+            }
+            this.workerTimeout = value;
+            return this;
+        }
+
+        public Builder serverPort(int value) {
+            if (value < 0 || value > 65535) {
+                throw new IllegalArgumentException("serverPort should be between 0 and 65535");
+            }
+            this.serverPort = value;
+            return this;
+        }
+
+        public Builder serverThreads(int value) {
+            if (value <= 0) {
+                throw new IllegalArgumentException("serverThreads must be positive");
+            }
+            this.serverThreads = value;
+            return this;
+        }
+
+        public Builder serverCacheMaxSize(long value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("serverCacheMaxSize must not be negative");
+            }
+            this.serverCacheMaxSize = value;
+            return this;
+        }
+
+        public Builder snapshotDirectory(String value) {
+            this.snapshotDirectory = value;
+            return this;
+        }
+
+        public Builder snapshotInterval(long value) {
+            if (value <= 0) {
+                throw new IllegalArgumentException("snapshotInterval must be positive");
+            }
+            this.snapshotInterval = value;
+            return this;
+        }
+
+        public Builder timeBudget(long value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("timeBudget must not be negative");
+            }
+            this.timeBudget = value;
+            return this;
+        }
+
+        public Builder byteBudget(long value) {
+            if (value < 0) {
+                throw new IllegalArgumentException("byteBudget must not be negative");
+            }
+            this.byteBudget = value;
+            return this;
+        }
+
+        public Builder queries(List<Query> value) {
+            this.queries = List.copyOf(value);
+            return this;
+        }
+
         public Params build() {
-            return new Params(duplicateProductsMaxCount, productResultRowsCount, delimiter, directoryPath);
+            for (Query query : queries) {
+                if (query.getOutputFile() == null) {
+                    throw new IllegalArgumentException("every query requires an output file");
+                }
+            }
+            if (watch && outputFile == null && queries.isEmpty()) {
+                throw new IllegalArgumentException("watch mode requires outputFile");
+            }
+            if (ingest && segmentDirectory == null) {
+                throw new IllegalArgumentException("ingest requires segmentDirectory");
+            }
+            if (lateMaterialization && readerMode != ReaderMode.MAPPED) {
+                throw new IllegalArgumentException("lateMaterialization requires mapped readerMode");
+            }
+            if (lateMaterialization && watch) {
+                throw new IllegalArgumentException("lateMaterialization is not supported with watch");
+            }
+            if (quarantineFile != null && watch) {
+                throw new IllegalArgumentException("quarantineFile is not supported with watch");
+            }
+            if (spillDirectory != null && (watch || cacheDirectory != null || lateMaterialization)) {
+                throw new IllegalArgumentException("spillDirectory is not supported with watch, cacheDirectory or "
+                        + "lateMaterialization");
+            }
+            if (checkpointFile != null && (watch || spillDirectory != null || lateMaterialization)) {
+                throw new IllegalArgumentException("checkpointFile is not supported with watch, spillDirectory or "
+                        + "lateMaterialization");
+            }
+            if (recursive && watch) {
+                throw new IllegalArgumentException("recursive is not supported with watch");
+            }
+            if ((!workers.isEmpty() || localWorkers > 0)
+                    && (watch || ingest || checkpointFile != null || quarantineFile != null || metricsFile != null)) {
+                throw new IllegalArgumentException("workers are not supported with watch, ingest, checkpointFile, "
+                        + "quarantineFile or metricsFile");
+            }
+            if (serverPort >= 0 && segmentDirectory == null) {
+                throw new IllegalArgumentException("serverPort requires segmentDirectory");
+            }
+            if (serverPort >= 0 && (watch || ingest || !workers.isEmpty() || localWorkers > 0
+                    || lateMaterialization || spillDirectory != null || checkpointFile != null)) {
+                throw new IllegalArgumentException("serverPort is not supported with watch, ingest, workers, "
+                        + "lateMaterialization, spillDirectory or checkpointFile");
+            }
+            if ((snapshotDirectory != null || timeBudget > 0 || byteBudget > 0) && (watch || ingest
+                    || !workers.isEmpty() || localWorkers > 0 || serverPort >= 0 || spillDirectory != null
+                    || checkpointFile != null)) {
+                throw new IllegalArgumentException("snapshotDirectory, timeBudget and byteBudget are not supported "
+                        + "with watch, ingest, workers, serverPort, spillDirectory or checkpointFile");
+            }
+            checkGlob("include", include);
+            if (exclude != null) {
+                checkGlob("exclude", exclude);
+            }
+            return new Params(duplicateProductsMaxCount, productResultRowsCount, delimiter, directoryPath, readerMode, rangeSize,
+                    lateMaterialization, cacheDirectory, cacheMaxSize, cacheContentHash, watch, outputFile, watchInterval,
+                    metricsFile, progress, ioThreads, cpuThreads, filter, sortColumn, descending, limitColumn,
+                    segmentDirectory, ingest, spillDirectory, spillRunRows, quoteOutput,
+                    quarantineFile, recursive, include, exclude, checkpointFile, checkpointInterval, tokenizer,
+                    workers, localWorkers, workerHeap, workerTimeout, serverPort, serverThreads, serverCacheMaxSize, snapshotDirectory,
+                    snapshotInterval, timeBudget, byteBudget, queries);
+        }
+
+        private static boolean isPort(String value) {
+            try {
+                int port = Integer.parseInt(value);
+                return port > 0 && port <= 65535;
+            } catch (NumberFormatException ignored) {
+                return false;
+            }
         }
+
+        private static void checkGlob(String name, String glob) {
+            try {
+                FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            } catch (PatternSyntaxException ignored) {
+                throw new IllegalArgumentException(name + " should be glob pattern");
+            }
+        }
+    }
+
+    public enum ReaderMode {
+        /**
+         * {@link csv.CSVReader} over a {@link java.io.Reader}, rows are split into strings.
+         */
+        STREAM,
+        /**
+         * {@link csv.MappedCSVReader}, rows are parsed directly from the memory-mapped file.
+         */
+        MAPPED
     }
 }
@@ -0,0 +1,221 @@
+package main;
+
+import query.Column;
+import query.Filter;
+import query.TextDictionary;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * One top-N query: rows matching the filter, sorted by a numeric column, with no more than
+ * {@code duplicateProductsMaxCount} rows per value of the limit column. Any number of queries is answered by a single
+ * scan of the files.
+ */
+public final class Query {
+
+    private final int productResultRowsCount;
+
+    private final int duplicateProductsMaxCount;
+
+    private final String outputFile;
+
+    private final Filter filter;
+
+    private final Column sortColumn;
+
+    private final boolean descending;
+
+    private final Column limitColumn;
+
+    private final TextDictionary limitDictionary;
+
+    /**
+     * Cheapest products with no more than {@code duplicateProductsMaxCount} products per id.
+     *
+     * @param outputFile path of the result file, null if it is asked for interactively
+     */
+    public Query(int productResultRowsCount, int duplicateProductsMaxCount, String outputFile) {
+        this(productResultRowsCount, duplicateProductsMaxCount, outputFile, Filter.ALL, Column.PRICE, false, Column.ID);
+    }
+
+    /**
+     * @param sortColumn  numeric column
+     * @param limitColumn column whose values are limited to {@code duplicateProductsMaxCount} rows, null for no limit
+     * @throws IllegalArgumentException if the sort or limit column is not supported
+     */
+    public Query(int productResultRowsCount, int duplicateProductsMaxCount, String outputFile, Filter filter,
+                 Column sortColumn, boolean descending, Column limitColumn) {
+        if (!sortColumn.isNumeric()) {
+            throw new IllegalArgumentException("sort column should be id or price");
+        }
+        if (limitColumn == Column.PRICE) {
+            throw new IllegalArgumentException("limit column should be one of: id, name, condition, state, none");
+        }
+        this.productResultRowsCount = productResultRowsCount;
+        this.duplicateProductsMaxCount = duplicateProductsMaxCount;
+        this.outputFile = outputFile;
+        this.filter = Objects.requireNonNull(filter);
+        this.sortColumn = sortColumn;
+        this.descending = descending;
+        this.limitColumn = limitColumn;
+        this.limitDictionary = limitColumn != null && !limitColumn.isNumeric() ? new TextDictionary() : null;
+    }
+
+    /**
+     * Parses {@code productResultRowsCount:duplicateProductsMaxCount:outputFile} optionally followed by
+     * {@code @filter=...}, {@code @sortBy=id|price}, {@code @sortOrder=asc|desc} and
+     * {@code @limitBy=id|name|condition|state|none}. An {@code @} inside a quoted literal of the filter does not
+     * separate options.
+     *
+     * @throws IllegalArgumentException if the query is incorrect
+     */
+    public static Query parse(String value) {
+        List<String> options = split(value, '@');
+        String[] parts = options.get(0).split(":", 3);
+        if (parts.length != 3 || parts[2].isEmpty()) {
+            throw new IllegalArgumentException("query should be productResultRowsCount:duplicateProductsMaxCount:outputFile");
+        }
+
+        int productResultRowsCount;
+        int duplicateProductsMaxCount;
+        try {
+            productResultRowsCount = Integer.parseInt(parts[0]);
+            duplicateProductsMaxCount = Integer.parseInt(parts[1]);
+        } catch (NumberFormatException ignored) {
+            throw new IllegalArgumentException("productResultRowsCount and duplicateProductsMaxCount of a query should be numbers");
+        }
+
+        Filter filter = Filter.ALL;
+        Column sortColumn = Column.PRICE;
+        boolean descending = false;
+        Column limitColumn = Column.ID;
+        for (String entry : options.subList(1, options.size())) {
+            String[] option = entry.split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("query option should be name=value: " + entry);
+            }
+            switch (option[0]) {
+                case "filter":
+                    filter = Filter.parse(option[1]);
+                    break;
+                case "sortBy":
+                    sortColumn = Column.of(option[1]);
+                    break;
+                case "sortOrder":
+                    descending = parseDescending(option[1]);
+                    break;
+                case "limitBy":
+                    limitColumn = parseLimitColumn(option[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown query option: " + option[0]);
+            }
+        }
+        return new Query(productResultRowsCount, duplicateProductsMaxCount, parts[2], filter, sortColumn, descending,
+                limitColumn);
+    }
+
+    /**
+     * Splits the value at the separators which are not inside a quoted literal of a filter, quotes inside quoted
+     * literals are doubled as {@link Filter#parse(String)} expects them.
+     */
+    public static List<String> split(String value, char separator) {
+        List<String> parts = new ArrayList<>();
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (c == separator && !quoted) {
+                parts.add(value.substring(start, i));
+                start = i + 1;
+            }
+        }
+        parts.add(value.substring(start));
+        return parts;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is neither asc nor desc
+     */
+    public static boolean parseDescending(String value) {
+        switch (value.toLowerCase(Locale.ROOT)) {
+            case "asc":
+                return false;
+            case "desc":
+                return true;
+            default:
+                throw new IllegalArgumentException("sortOrder should be one of: asc, desc");
+        }
+    }
+
+    /**
+     * @return null for none
+     * @throws IllegalArgumentException if the value is not a column or none
+     */
+    public static Column parseLimitColumn(String value) {
+        return value.equalsIgnoreCase("none") ? null : Column.of(value);
+    }
+
+    public int getProductResultRowsCount() {
+        return productResultRowsCount;
+    }
+
+    public int getDuplicateProductsMaxCount() {
+        return duplicateProductsMaxCount;
+    }
+
+    public String getOutputFile() {
+        return outputFile;
+    }
+
+    public Filter getFilter() {
+        return filter;
+    }
+
+    public Column getSortColumn() {
+        return sortColumn;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    /**
+     * @return null if the result is not limited per value of a column
+     */
+    public Column getLimitColumn() {
+        return limitColumn;
+    }
+
+    /**
+     * @return maximal number of rows per value of the limit column, {@link Integer#MAX_VALUE} if there is none
+     */
+    public int getGroupMaxCount() {
+        return limitColumn == null ? Integer.MAX_VALUE : duplicateProductsMaxCount;
+    }
+
+    /**
+     * @return dictionary of the values of a text limit column, shared by all runs of this query, null otherwise
+     */
+    public TextDictionary getLimitDictionary() {
+        return limitDictionary;
+    }
+
+    /**
+     * @return everything which defines the result of the query except for the output file
+     */
+    public String describe() {
+        return String.format("%s:%s:%s:%s:%s:%s", productResultRowsCount, duplicateProductsMaxCount, filter, sortColumn,
+                descending ? "desc" : "asc", limitColumn == null ? "none" : limitColumn);
+    }
+
+    @Override
+    public String toString() {
+        return describe() + ":" + outputFile;
+    }
+}
@@ -0,0 +1,271 @@
+package main;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import csv.CSVOutput;
+import csv.CSVWriter;
+import product.Product;
+import product.ResidentProducts;
+import query.Column;
+import query.Filter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-running mode which keeps the rows of the directory in memory and answers queries over HTTP, e.g.
+ * {@code GET /products?n=100&cap=5&sortOrder=desc&limitBy=state&filter=condition%20%3D%20'new'} returns the result as
+ * CSV. Parameters which are left out default to the query of the params. The directory is refreshed every watch
+ * interval: new and changed files are loaded, removed ones are dropped.
+ * <p>
+ * Queries run on {@link Params#getServerThreads()} threads, requests which find the queue of waiting queries full are
+ * answered with 503 right away. Results of recent queries are cached up to {@link Params#getServerCacheMaxSize()}
+ * bytes and dropped whenever a refresh changes the rows.
+ */
+final class QueryServer {
+
+    private static final int MAX_QUEUED_QUERIES = 256;
+
+    private final Params params;
+
+    private final FileDiscovery discovery;
+
+    private final ResidentProducts products;
+
+    private final ResultCache cache;
+
+    private final ThreadPoolExecutor executor;
+
+    private HttpServer server;
+
+    QueryServer(Params params, FileDiscovery discovery) {
+        this.params = params;
+        this.discovery = discovery;
+        this.products = new ResidentProducts(params);
+        this.cache = new ResultCache(params.getServerCacheMaxSize());
+        this.executor = new ThreadPoolExecutor(params.getServerThreads(), params.getServerThreads(), 0,
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_QUEUED_QUERIES));
+    }
+
+    void run() throws IOException, InterruptedException {
+        start();
+        try {
+            while (true) {
+                Thread.sleep(params.getWatchInterval());
+                if (products.refresh(discovery.list())) {
+                    cache.clear();
+                    System.out.println(String.format("%s - Refreshed, serving %s rows of %s CSV files", now(),
+                            products.getRowsCount(), products.getFilesCount()));
+                }
+            }
+        } finally {
+            stop();
+        }
+    }
+
+    /**
+     * Loads the rows of the directory and starts answering queries, the directory is not refreshed.
+     *
+     * @return port the server listens on, picked by the system if the server port is 0
+     */
+    int start() throws IOException {
+        products.refresh(discovery.list());
+        server = HttpServer.create(new InetSocketAddress(params.getServerPort()), 0);
+        server.createContext("/products", this::handle);
+        server.start();
+        int port = server.getAddress().getPort();
+        System.out.println(String.format("%s - Serving %s rows of %s CSV files on port %s...", now(),
+                products.getRowsCount(), products.getFilesCount(), port));
+        return port;
+    }
+
+    void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            executor.execute(() -> answer(exchange));
+        } catch (RejectedExecutionException e) {
+            try {
+                respond(exchange, 503, "Too many queries, retry later");
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    private void answer(HttpExchange exchange) {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, "Only GET is supported");
+                return;
+            }
+            Query query;
+            try {
+                query = parseQuery(exchange.getRequestURI().getRawQuery());
+            } catch (IllegalArgumentException e) {
+                respond(exchange, 400, e.getMessage());
+                return;
+            }
+
+            byte[] result;
+            try {
+                String key = products.getVersion() + ":" + query.describe();
+                result = cache.get(key);
+                if (result == null) {
+                    result = toCSV(products.query(query));
+                    cache.put(key, result);
+                }
+            } catch (RuntimeException e) {
+                respond(exchange, 500, String.valueOf(e));
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "text/csv; charset=utf-8");
+            exchange.sendResponseHeaders(200, result.length == 0 ? -1 : result.length);
+            exchange.getResponseBody().write(result);
+        } catch (IOException e) {
+            System.err.println("Failed to answer query: " + e);
+        } finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * @throws IllegalArgumentException if a parameter is unknown or incorrect
+     */
+    private Query parseQuery(String queryString) {
+        Map<String, String> parameters = new HashMap<>();
+        if (queryString != null) {
+            for (String parameter : queryString.split("&")) {
+                String[] strings = parameter.split("=", 2);
+                parameters.put(URLDecoder.decode(strings[0], StandardCharsets.UTF_8),
+                        strings.length == 2 ? URLDecoder.decode(strings[1], StandardCharsets.UTF_8) : "");
+            }
+        }
+
+        Query defaults = params.getQueries().get(0);
+        int count = defaults.getProductResultRowsCount();
+        int cap = defaults.getDuplicateProductsMaxCount();
+        Filter filter = defaults.getFilter();
+        Column sortColumn = defaults.getSortColumn();
+        boolean descending = defaults.isDescending();
+        Column limitColumn = defaults.getLimitColumn();
+        for (Map.Entry<String, String> parameter : parameters.entrySet()) {
+            String value = parameter.getValue();
+            switch (parameter.getKey()) {
+                case "n":
+                    count = parsePositive("n", value);
+                    break;
+                case "cap":
+                    cap = parsePositive("cap", value);
+                    break;
+                case "filter":
+                    filter = Filter.parse(value);
+                    break;
+                case "sortBy":
+                    sortColumn = Column.of(value);
+                    break;
+                case "sortOrder":
+                    descending = Query.parseDescending(value);
+                    break;
+                case "limitBy":
+                    limitColumn = Query.parseLimitColumn(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown parameter " + parameter.getKey()
+                            + ", expected one of: n, cap, filter, sortBy, sortOrder, limitBy");
+            }
+        }
+        return new Query(count, cap, null, filter, sortColumn, descending, limitColumn);
+    }
+
+    private static int parsePositive(String name, String value) {
+        int number;
+        try {
+            number = Integer.parseInt(value);
+        } catch (NumberFormatException ignored) {
+            throw new IllegalArgumentException(name + " should be number");
+        }
+        if (number <= 0) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+        return number;
+    }
+
+    private byte[] toCSV(List<Product> result) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (CSVOutput output = new CSVWriter(true, params.getDelimiter(), params.isQuoteOutput()).open(bytes)) {
+            for (Product product : result) {
+                product.writeTo(output);
+                output.endLine();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    private static String now() {
+        return LocalDateTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss.SSS"));
+    }
+
+    /**
+     * Results of recent queries by their description, the least recently used ones are evicted once the results
+     * exceed the maximum size. Thread-safe.
+     */
+    private static final class ResultCache {
+
+        private final long maxSize;
+
+        private final LinkedHashMap<String, byte[]> results = new LinkedHashMap<>(16, 0.75f, true);
+
+        private long size;
+
+        private ResultCache(long maxSize) {
+            this.maxSize = maxSize;
+        }
+
+        private synchronized byte[] get(String key) {
+            return results.get(key);
+        }
+
+        private synchronized void put(String key, byte[] result) {
+            if (result.length > maxSize) {
+                return;
+            }
+            byte[] previous = results.put(key, result);
+            size += result.length - (previous == null ? 0 : previous.length);
+            Iterator<byte[]> eldest = results.values().iterator();
+            while (size > maxSize) {
+                size -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+
+        private synchronized void clear() {
+            results.clear();
+            size = 0;
+        }
+    }
+}
@@ -0,0 +1,163 @@
+package metrics;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Metrics of one file, its ranges may be read by several worker threads at the same time.
+ */
+public final class FileMetrics {
+
+    private final RunMetrics run;
+
+    private final Path path;
+
+    private final FileProcessedEvent event = new FileProcessedEvent();
+
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicLong bytesRead = new AtomicLong();
+
+    private final AtomicInteger ranges = new AtomicInteger();
+
+    private final AtomicLong rowsParsed = new AtomicLong();
+
+    private final AtomicLong rowsRejected = new AtomicLong();
+
+    private final AtomicLong rowsPruned = new AtomicLong();
+
+    private final AtomicLong rowsFiltered = new AtomicLong();
+
+    private volatile boolean cached;
+
+    private volatile boolean segment;
+
+    private volatile long durationNanos;
+
+    FileMetrics(RunMetrics run, Path path) {
+        this.run = run;
+        this.path = path;
+        event.begin();
+    }
+
+    /**
+     * @param event         begun before the range is read
+     * @param prefetchNanos time of mapping and loading the range ahead of parsing
+     * @param readNanos     time of parsing and collecting the range, including its sort and merge time
+     * @param counters      counters of the range
+     * @param queueDepth    tasks waiting for a worker thread
+     */
+    public void rangeRead(RangeReadEvent event, long start, long bytes, long prefetchNanos, long readNanos,
+                          RangeCounters counters, int queueDepth) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = path.toString();
+            event.start = start;
+            event.bytes = bytes;
+            event.rowsParsed = counters.getRowsParsed();
+            event.rowsRejected = counters.getRowsRejected();
+            event.rowsPruned = counters.getRowsPruned();
+            event.rowsFiltered = counters.getRowsFiltered();
+            event.prefetchTime = prefetchNanos;
+            event.sortTime = counters.getSortNanos();
+            event.mergeTime = counters.getMergeNanos();
+            event.queueDepth = queueDepth;
+            event.commit();
+        }
+
+        bytesRead.addAndGet(bytes);
+        ranges.incrementAndGet();
+        rowsParsed.addAndGet(counters.getRowsParsed());
+        rowsRejected.addAndGet(counters.getRowsRejected());
+        rowsPruned.addAndGet(counters.getRowsPruned());
+        rowsFiltered.addAndGet(counters.getRowsFiltered());
+        run.rangeRead(bytes, prefetchNanos, readNanos, counters, queueDepth);
+    }
+
+    /**
+     * Merge of partial results of two ranges of this file.
+     */
+    public void merged(PartialMergeEvent event, int firstSize, int secondSize, int resultSize, long nanos) {
+        run.merged(event, path, firstSize, secondSize, resultSize, nanos);
+    }
+
+    public void cached() {
+        cached = true;
+    }
+
+    /**
+     * The file is read from its segment instead of the CSV.
+     *
+     * @param rowsRejected rows of the CSV which were rejected when the segment was written
+     */
+    public void segment(long rowsRejected) {
+        segment = true;
+        this.rowsRejected.addAndGet(rowsRejected);
+        run.rowsRejected(rowsRejected);
+    }
+
+    /**
+     * Called once the partial result of the file is merged into the run result.
+     */
+    public void completed() {
+        durationNanos = System.nanoTime() - startNanos;
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = path.toString();
+            event.bytes = bytesRead.get();
+            event.ranges = ranges.get();
+            event.rowsParsed = rowsParsed.get();
+            event.rowsRejected = rowsRejected.get();
+            event.rowsPruned = rowsPruned.get();
+            event.rowsFiltered = rowsFiltered.get();
+            event.cached = cached;
+            event.commit();
+        }
+        run.fileCompleted(this);
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public long getBytesRead() {
+        return bytesRead.get();
+    }
+
+    public int getRanges() {
+        return ranges.get();
+    }
+
+    public long getRowsParsed() {
+        return rowsParsed.get();
+    }
+
+    public long getRowsRejected() {
+        return rowsRejected.get();
+    }
+
+    public long getRowsPruned() {
+        return rowsPruned.get();
+    }
+
+    public long getRowsFiltered() {
+        return rowsFiltered.get();
+    }
+
+    public boolean isCached() {
+        return cached;
+    }
+
+    public boolean isSegment() {
+        return segment;
+    }
+
+    /**
+     * @return nanoseconds from the start of the file processing until its completion, including the time
+     * its ranges waited for worker threads
+     */
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+}
@@ -0,0 +1,36 @@
+package metrics;
+
+import jdk.jfr.*;
+
+@Name("csv.FileProcessed")
+@Label("File Processed")
+@Description("File from the start of its processing until its partial result is merged into the run result")
+@Category({"CSV Data Handler", "Processing"})
+public final class FileProcessedEvent extends Event {
+
+    @Label("Path")
+    String path;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Ranges")
+    int ranges;
+
+    @Label("Rows Parsed")
+    long rowsParsed;
+
+    @Label("Rows Rejected")
+    long rowsRejected;
+
+    @Label("Rows Pruned")
+    long rowsPruned;
+
+    @Label("Rows Filtered")
+    long rowsFiltered;
+
+    @Label("Cached")
+    @Description("Partial result is read from the cache instead of the file")
+    boolean cached;
+}
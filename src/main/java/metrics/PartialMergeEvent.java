@@ -0,0 +1,23 @@
+package metrics;
+
+import jdk.jfr.*;
+
+@Name("csv.PartialMerge")
+@Label("Partial Merge")
+@Description("Merge of two partial results, of ranges of one file or of different files")
+@Category({"CSV Data Handler", "Processing"})
+public final class PartialMergeEvent extends Event {
+
+    @Label("Path")
+    @Description("File whose ranges are merged, null for merges of different files")
+    String path;
+
+    @Label("First Size")
+    int firstSize;
+
+    @Label("Second Size")
+    int secondSize;
+
+    @Label("Result Size")
+    int resultSize;
+}
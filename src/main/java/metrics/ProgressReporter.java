@@ -0,0 +1,57 @@
+package metrics;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Prints the progress of a run to stderr every second: completed files, throughput since the previous line
+ * and the number of tasks waiting for a worker thread.
+ */
+public final class ProgressReporter implements AutoCloseable {
+
+    private static final long INTERVAL_MILLIS = 1000;
+
+    private final RunMetrics metrics;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "progress-reporter");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long lastNanos;
+
+    private long lastRows;
+
+    private long lastBytes;
+
+    public ProgressReporter(RunMetrics metrics) {
+        this.metrics = metrics;
+        this.lastNanos = metrics.getElapsedNanos();
+        scheduler.scheduleAtFixedRate(this::report, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    private void report() {
+        long nanos = metrics.getElapsedNanos();
+        long rows = metrics.getRowsParsed();
+        long bytes = metrics.getBytesRead();
+        double seconds = Math.max(nanos - lastNanos, 1) / 1e9;
+
+        System.err.println(String.format("%s - Files %s/%s, %.0f rows/s, %.1f MB/s, queue %s",
+                LocalDateTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss.SSS")),
+                metrics.getCompletedFiles(), metrics.getFilesCount(),
+                (rows - lastRows) / seconds, (bytes - lastBytes) / seconds / (1024 * 1024), metrics.getQueueDepth()));
+
+        lastNanos = nanos;
+        lastRows = rows;
+        lastBytes = bytes;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,119 @@
+package metrics;
+
+/**
+ * Counters of the range which is being read by one worker thread. Plain fields, so counting costs nothing but an
+ * increment per row, they are added to the shared {@link FileMetrics} once the range is read.
+ */
+public final class RangeCounters {
+
+    private long rowsParsed;
+
+    private long rowsRejected;
+
+    private long rowsPruned;
+
+    private long rowsFiltered;
+
+    private long blocksRead;
+
+    private long blocksSkipped;
+
+    private long bytesSkipped;
+
+    private long sortNanos;
+
+    private long mergeNanos;
+
+    public void rowParsed() {
+        rowsParsed++;
+    }
+
+    /**
+     * Row with an unexpected number of columns or a malformed id or price.
+     */
+    public void rowRejected() {
+        rowsRejected++;
+    }
+
+    /**
+     * Valid row whose sort key is beyond the current threshold of every query.
+     */
+    public void rowPruned() {
+        rowsPruned++;
+    }
+
+    /**
+     * Valid row which could reach the result but does not match the filter of any query.
+     */
+    public void rowFiltered() {
+        rowsFiltered++;
+    }
+
+    public void blockRead() {
+        blocksRead++;
+    }
+
+    /**
+     * Segment block which is not read, because none of its rows can reach the result.
+     */
+    public void blockSkipped(long bytes) {
+        blocksSkipped++;
+        bytesSkipped += bytes;
+    }
+
+    public void addSortNanos(long nanos) {
+        sortNanos += nanos;
+    }
+
+    public void addMergeNanos(long nanos) {
+        mergeNanos += nanos;
+    }
+
+    public long getRowsParsed() {
+        return rowsParsed;
+    }
+
+    public long getRowsRejected() {
+        return rowsRejected;
+    }
+
+    public long getRowsPruned() {
+        return rowsPruned;
+    }
+
+    public long getRowsFiltered() {
+        return rowsFiltered;
+    }
+
+    public long getBlocksRead() {
+        return blocksRead;
+    }
+
+    public long getBlocksSkipped() {
+        return blocksSkipped;
+    }
+
+    public long getBytesSkipped() {
+        return bytesSkipped;
+    }
+
+    public long getSortNanos() {
+        return sortNanos;
+    }
+
+    public long getMergeNanos() {
+        return mergeNanos;
+    }
+
+    public void clear() {
+        rowsParsed = 0;
+        rowsRejected = 0;
+        rowsPruned = 0;
+        rowsFiltered = 0;
+        blocksRead = 0;
+        blocksSkipped = 0;
+        bytesSkipped = 0;
+        sortNanos = 0;
+        mergeNanos = 0;
+    }
+}
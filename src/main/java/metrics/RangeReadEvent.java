@@ -0,0 +1,50 @@
+package metrics;
+
+import jdk.jfr.*;
+
+@Name("csv.RangeRead")
+@Label("Range Read")
+@Description("Rows of a file range parsed and collected by a worker thread")
+@Category({"CSV Data Handler", "Processing"})
+public final class RangeReadEvent extends Event {
+
+    @Label("Path")
+    String path;
+
+    @Label("Start")
+    @DataAmount
+    long start;
+
+    @Label("Bytes")
+    @DataAmount
+    long bytes;
+
+    @Label("Rows Parsed")
+    long rowsParsed;
+
+    @Label("Rows Rejected")
+    long rowsRejected;
+
+    @Label("Rows Pruned")
+    long rowsPruned;
+
+    @Label("Rows Filtered")
+    long rowsFiltered;
+
+    @Label("Prefetch Time")
+    @Description("Time the range was mapped and loaded by a reader thread before parsing")
+    @Timespan
+    long prefetchTime;
+
+    @Label("Sort Time")
+    @Timespan
+    long sortTime;
+
+    @Label("Merge Time")
+    @Timespan
+    long mergeTime;
+
+    @Label("Queue Depth")
+    @Description("Tasks waiting for a worker thread when the range was read")
+    int queueDepth;
+}
@@ -0,0 +1,251 @@
+package metrics;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+/**
+ * Metrics of one processing run: totals of all stages, updated by worker threads once per range or merge,
+ * and the metrics of completed files.
+ */
+public final class RunMetrics {
+
+    private static final int SLOWEST_FILES_COUNT = 10;
+
+    private final AtomicInteger filesCount;
+
+    private final long startNanos = System.nanoTime();
+
+    private final AtomicInteger completedFiles = new AtomicInteger();
+
+    private final AtomicInteger cachedFiles = new AtomicInteger();
+
+    private final AtomicInteger segmentFiles = new AtomicInteger();
+
+    private final LongAdder bytesRead = new LongAdder();
+
+    private final LongAdder rowsParsed = new LongAdder();
+
+    private final LongAdder rowsRejected = new LongAdder();
+
+    private final LongAdder rowsPruned = new LongAdder();
+
+    private final LongAdder rowsFiltered = new LongAdder();
+
+    private final LongAdder blocksRead = new LongAdder();
+
+    private final LongAdder blocksSkipped = new LongAdder();
+
+    private final LongAdder prefetchNanos = new LongAdder();
+
+    private final LongAdder readNanos = new LongAdder();
+
+    private final LongAdder sortNanos = new LongAdder();
+
+    private final LongAdder mergeNanos = new LongAdder();
+
+    private final LongAccumulator maxQueueDepth = new LongAccumulator(Math::max, 0);
+
+    private final Queue<FileMetrics> files = new ConcurrentLinkedQueue<>();
+
+    private volatile IntSupplier queueDepth = () -> 0;
+
+    private volatile long materializeNanos;
+
+    private volatile long durationNanos;
+
+    public RunMetrics(int filesCount) {
+        this.filesCount = new AtomicInteger(filesCount);
+    }
+
+    /**
+     * Counts files which are added to the run while it is running, e.g. discovered while others are processed.
+     */
+    public void addFiles(int count) {
+        filesCount.addAndGet(count);
+    }
+
+    public FileMetrics startFile(Path path) {
+        return new FileMetrics(this, path);
+    }
+
+    /**
+     * @param queueDepth number of tasks waiting for a worker thread
+     */
+    public void setQueueDepth(IntSupplier queueDepth) {
+        this.queueDepth = queueDepth;
+    }
+
+    public int getQueueDepth() {
+        return queueDepth.getAsInt();
+    }
+
+    /**
+     * Merge of partial results of different files.
+     */
+    public void merged(PartialMergeEvent event, int firstSize, int secondSize, int resultSize, long nanos) {
+        merged(event, null, firstSize, secondSize, resultSize, nanos);
+    }
+
+    void merged(PartialMergeEvent event, Path path, int firstSize, int secondSize, int resultSize, long nanos) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.path = path == null ? null : path.toString();
+            event.firstSize = firstSize;
+            event.secondSize = secondSize;
+            event.resultSize = resultSize;
+            event.commit();
+        }
+        mergeNanos.add(nanos);
+    }
+
+    void rangeRead(long bytes, long prefetchNanos, long readNanos, RangeCounters counters, int queueDepth) {
+        bytesRead.add(bytes);
+        this.prefetchNanos.add(prefetchNanos);
+        this.readNanos.add(readNanos);
+        rowsParsed.add(counters.getRowsParsed());
+        rowsRejected.add(counters.getRowsRejected());
+        rowsPruned.add(counters.getRowsPruned());
+        rowsFiltered.add(counters.getRowsFiltered());
+        blocksRead.add(counters.getBlocksRead());
+        blocksSkipped.add(counters.getBlocksSkipped());
+        sortNanos.add(counters.getSortNanos());
+        mergeNanos.add(counters.getMergeNanos());
+        maxQueueDepth.accumulate(queueDepth);
+    }
+
+    void rowsRejected(long rows) {
+        rowsRejected.add(rows);
+    }
+
+    void fileCompleted(FileMetrics file) {
+        if (file.isCached()) {
+            cachedFiles.incrementAndGet();
+        }
+        if (file.isSegment()) {
+            segmentFiles.incrementAndGet();
+        }
+        files.add(file);
+        completedFiles.incrementAndGet();
+    }
+
+    public void addMaterializeNanos(long nanos) {
+        materializeNanos += nanos;
+    }
+
+    public void finish() {
+        durationNanos = System.nanoTime() - startNanos;
+    }
+
+    public int getFilesCount() {
+        return filesCount.get();
+    }
+
+    public int getCompletedFiles() {
+        return completedFiles.get();
+    }
+
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    public long getRowsParsed() {
+        return rowsParsed.sum();
+    }
+
+    public long getElapsedNanos() {
+        return System.nanoTime() - startNanos;
+    }
+
+    /**
+     * Summary of a finished run. Stage times are summed over all worker threads, so they may exceed the wall time,
+     * the slowest files point at stragglers and the rejected files at dirty feeds.
+     */
+    public String toJson() {
+        long wallNanos = durationNanos;
+        double seconds = Math.max(wallNanos, 1) / 1e9;
+
+        List<FileMetrics> slowestFiles = new ArrayList<>(files);
+        slowestFiles.sort(Comparator.comparingLong(FileMetrics::getDurationNanos).reversed());
+
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"files\": ").append(filesCount.get()).append(",\n");
+        json.append("  \"completedFiles\": ").append(completedFiles.get()).append(",\n");
+        json.append("  \"cachedFiles\": ").append(cachedFiles.get()).append(",\n");
+        json.append("  \"bytesRead\": ").append(bytesRead.sum()).append(",\n");
+        json.append("  \"rowsParsed\": ").append(rowsParsed.sum()).append(",\n");
+        json.append("  \"rowsRejected\": ").append(rowsRejected.sum()).append(",\n");
+        json.append("  \"rowsPruned\": ").append(rowsPruned.sum()).append(",\n");
+        json.append("  \"rowsFiltered\": ").append(rowsFiltered.sum()).append(",\n");
+        json.append("  \"segmentFiles\": ").append(segmentFiles.get()).append(",\n");
+        json.append("  \"blocksRead\": ").append(blocksRead.sum()).append(",\n");
+        json.append("  \"blocksSkipped\": ").append(blocksSkipped.sum()).append(",\n");
+        json.append("  \"wallMillis\": ").append(millis(wallNanos)).append(",\n");
+        json.append("  \"prefetchMillis\": ").append(millis(prefetchNanos.sum())).append(",\n");
+        json.append("  \"readMillis\": ").append(millis(readNanos.sum())).append(",\n");
+        json.append("  \"sortMillis\": ").append(millis(sortNanos.sum())).append(",\n");
+        json.append("  \"mergeMillis\": ").append(millis(mergeNanos.sum())).append(",\n");
+        json.append("  \"materializeMillis\": ").append(millis(materializeNanos)).append(",\n");
+        json.append("  \"maxQueueDepth\": ").append(maxQueueDepth.get()).append(",\n");
+        json.append("  \"rowsPerSecond\": ").append(Math.round(rowsParsed.sum() / seconds)).append(",\n");
+        json.append("  \"bytesPerSecond\": ").append(Math.round(bytesRead.sum() / seconds)).append(",\n");
+        json.append("  \"slowestFiles\": [");
+        for (int i = 0; i < Math.min(SLOWEST_FILES_COUNT, slowestFiles.size()); i++) {
+            FileMetrics file = slowestFiles.get(i);
+            json.append(i == 0 ? "\n" : ",\n");
+            json.append("    {\"path\": ").append(quote(file.getPath().toString()))
+                    .append(", \"millis\": ").append(millis(file.getDurationNanos()))
+                    .append(", \"bytes\": ").append(file.getBytesRead())
+                    .append(", \"ranges\": ").append(file.getRanges())
+                    .append(", \"rowsParsed\": ").append(file.getRowsParsed())
+                    .append(", \"rowsRejected\": ").append(file.getRowsRejected())
+                    .append(", \"rowsPruned\": ").append(file.getRowsPruned())
+                    .append(", \"rowsFiltered\": ").append(file.getRowsFiltered())
+                    .append(", \"cached\": ").append(file.isCached())
+                    .append('}');
+        }
+        json.append(slowestFiles.isEmpty() ? "],\n" : "\n  ],\n");
+
+        json.append("  \"rejectedFiles\": [");
+        boolean first = true;
+        for (FileMetrics file : files) {
+            if (file.getRowsRejected() == 0) {
+                continue;
+            }
+            json.append(first ? "\n" : ",\n");
+            json.append("    {\"path\": ").append(quote(file.getPath().toString()))
+                    .append(", \"rowsRejected\": ").append(file.getRowsRejected())
+                    .append('}');
+            first = false;
+        }
+        json.append(first ? "]\n" : "\n  ]\n");
+        return json.append("}\n").toString();
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < 0x20) {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
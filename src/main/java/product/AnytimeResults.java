@@ -0,0 +1,244 @@
+package product;
+
+import csv.CSVWriter;
+import main.Params;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Results of a run which are available before the run ends. Worker threads only queue the partial results of the
+ * files they complete, a scheduler thread merges the queued results into the results over all completed files every
+ * snapshot interval and writes them to the snapshot directory, so a snapshot never waits for a worker and workers
+ * never wait for a snapshot.
+ * <p>
+ * Once the time or the byte budget of the run is spent the run is stopped, its results are the merged results of the
+ * files completed by then. Snapshots and results carry the {@link ResultCoverage} of the files they are merged from.
+ */
+final class AnytimeResults implements Closeable {
+
+    private final Params params;
+
+    private final Checkpoint.Merge merge;
+
+    private final Runnable stop;
+
+    private final Supplier<List<Path>> files;
+
+    private final Queue<CompletedFile> completed = new ConcurrentLinkedQueue<>();
+
+    private final ProductBatch[] results;
+
+    private final AtomicInteger filesCount = new AtomicInteger();
+
+    private final AtomicLong bytes = new AtomicLong();
+
+    private final AtomicBoolean stopped = new AtomicBoolean();
+
+    private final long startNanos = System.nanoTime();
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "anytime-results");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private int completedFiles;
+
+    private long completedBytes;
+
+    private boolean changed;
+
+    private boolean finished;
+
+    private Path currentSnapshot;
+
+    private Path previousSnapshot;
+
+    /**
+     * @param merge merges partial results of the same query
+     * @param stop  stops the run, called once when a budget is spent
+     * @param files files of the run, which late materialization reads the rows of the snapshots from
+     */
+    AnytimeResults(Params params, Checkpoint.Merge merge, Runnable stop, Supplier<List<Path>> files) {
+        this.params = params;
+        this.merge = merge;
+        this.stop = stop;
+        this.files = files;
+        this.results = new ProductBatch[params.getQueries().size()];
+        scheduler.scheduleWithFixedDelay(this::snapshotQuietly, params.getSnapshotInterval(),
+                params.getSnapshotInterval(), TimeUnit.MILLISECONDS);
+        if (params.getTimeBudget() > 0) {
+            scheduler.schedule(this::spend, params.getTimeBudget(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Counts a file of the run, whether it is going to be read or not.
+     */
+    void addFile(long size) {
+        filesCount.incrementAndGet();
+        bytes.addAndGet(size);
+    }
+
+    /**
+     * Queues the partial results of a completed file, they are merged by the next snapshot.
+     */
+    void complete(ProductBatch[] partials, long size) {
+        completed.add(new CompletedFile(partials, size));
+    }
+
+    /**
+     * @param bytesRead bytes read by the run so far
+     */
+    void bytesRead(long bytesRead) {
+        if (params.getByteBudget() > 0 && bytesRead >= params.getByteBudget()) {
+            spend();
+        }
+    }
+
+    /**
+     * @return true if a budget is spent and the run is stopped
+     */
+    boolean isStopped() {
+        return stopped.get();
+    }
+
+    /**
+     * Merges the remaining partial results and writes the last snapshot, must be called once every completed file
+     * has been queued.
+     *
+     * @return merged partial results of the completed files for every query, nulls if no file has been completed
+     */
+    ProductBatch[] finish() {
+        scheduler.shutdownNow();
+        synchronized (this) {
+            merge();
+            finished = true;
+            changed = true; // the last snapshot is written even if nothing has been completed since the previous one
+        }
+        snapshotQuietly();
+        synchronized (this) {
+            return results.clone();
+        }
+    }
+
+    synchronized ResultCoverage getCoverage() {
+        return new ResultCoverage(filesCount.get(), completedFiles, bytes.get(), completedBytes,
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos),
+                !finished || completedFiles < filesCount.get());
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void spend() {
+        if (stopped.compareAndSet(false, true)) {
+            stop.run();
+        }
+    }
+
+    private synchronized void merge() {
+        CompletedFile file;
+        while ((file = completed.poll()) != null) {
+            for (int i = 0; i < results.length; i++) {
+                results[i] = results[i] == null ? file.partials[i] : merge.apply(i, results[i], file.partials[i]);
+            }
+            completedFiles++;
+            completedBytes += file.size;
+            changed = true;
+        }
+    }
+
+    private void snapshotQuietly() {
+        try {
+            snapshot();
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to write snapshot: " + e);
+        }
+    }
+
+    /**
+     * Merges the queued partial results and writes the results of every query to {@code query-<n>.csv} of a new
+     * directory in the snapshot directory, unless nothing has been completed since the last snapshot. Once they are
+     * written {@code snapshot.json} of the snapshot directory is replaced by a rename with the coverage and the name of
+     * the new directory, so readers who follow it never see a partially written snapshot or mix two snapshots. The
+     * directory of the previous snapshot is kept for readers still reading it, older ones are deleted.
+     */
+    private synchronized void snapshot() throws IOException {
+        merge();
+        if (!changed || params.getSnapshotDirectory() == null) {
+            return;
+        }
+        Path directory = Files.createDirectories(Path.of(params.getSnapshotDirectory()));
+        Path snapshot = Files.createTempDirectory(directory, "snapshot-");
+        ResultCoverage coverage = getCoverage();
+        try {
+            for (int i = 0; i < results.length; i++) {
+                List<Product> products = ProductService.toProducts(results[i], files.get(), params);
+                new CSVWriter(true, params.getDelimiter(), params.isQuoteOutput())
+                        .write(snapshot.resolve("query-" + (i + 1) + ".csv"), products.iterator(), Product::writeTo);
+            }
+            Path temp = Files.createTempFile(directory, "snapshot", ".tmp");
+            try {
+                Files.writeString(temp, coverage.toJson(snapshot.getFileName().toString()), StandardCharsets.UTF_8);
+                Files.move(temp, directory.resolve("snapshot.json"), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException | RuntimeException e) {
+            delete(snapshot);
+            throw e;
+        }
+        if (previousSnapshot != null) {
+            delete(previousSnapshot);
+        }
+        previousSnapshot = currentSnapshot;
+        currentSnapshot = snapshot;
+        changed = false;
+        System.out.println(String.format("%s - Snapshot of %s written to %s",
+                LocalDateTime.now().format(DateTimeFormatter.ofPattern("HH:mm:ss.SSS")), coverage.describe(),
+                snapshot.toAbsolutePath()));
+    }
+
+    private static void delete(Path snapshot) throws IOException {
+        try (Stream<Path> files = Files.list(snapshot)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(snapshot);
+    }
+
+    private static final class CompletedFile {
+
+        private final ProductBatch[] partials;
+
+        private final long size;
+
+        private CompletedFile(ProductBatch[] partials, long size) {
+            this.partials = partials;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,300 @@
+package product;
+
+import csv.CSVRow;
+import main.Query;
+import metrics.RangeCounters;
+import query.Column;
+import query.Filter;
+import query.TextDictionary;
+import segment.Segment;
+import segment.SegmentBlock;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Collects the top products of one query in one range. Instances are reused by a worker thread for all of its
+ * ranges, so in steady state reading a range allocates nothing but the returned batch.
+ * <p>
+ * A query with spill runs keeps no result in memory: every full chunk is sorted and spilled as a run, the partial
+ * results are empty and the result is merged from the runs once the scan is complete.
+ */
+final class CheapestProductsCollector {
+
+    private final boolean candidatesOnly;
+
+    private final Filter filter;
+
+    private final boolean sortById;
+
+    private final double keySign;
+
+    private final Column limitColumn;
+
+    private final TextDictionary limitDictionary;
+
+    private final DictionaryCache limitCodes;
+
+    private final DictionaryCache conditionCodes;
+
+    private final DictionaryCache stateCodes;
+
+    private final RangeCounters counters;
+
+    private final ProductMerger merger;
+
+    private final ProductBatch chunk;
+
+    private final int[] chunkOrder;
+
+    private final double[] sortKeys;
+
+    private final SpillRuns spill;
+
+    private final int[] spillScratch;
+
+    private ProductBatch result;
+
+    private ProductBatch spare;
+
+    private ProductBatch mergeSpare;
+
+    private int fileId;
+
+    private SortKeyThreshold threshold;
+
+    /**
+     * @param counters counters of the scan the collector belongs to, sort and merge time is added to them
+     * @param spill    null if the result is collected in memory
+     */
+    CheapestProductsCollector(Query query, boolean candidatesOnly, RangeCounters counters, SpillRuns spill) {
+        int resultSize = query.getProductResultRowsCount();
+        this.candidatesOnly = candidatesOnly;
+        this.filter = query.getFilter();
+        this.sortById = query.getSortColumn() == Column.ID;
+        this.keySign = query.isDescending() ? -1 : 1;
+        this.limitColumn = query.getLimitColumn();
+        this.limitDictionary = query.getLimitDictionary();
+        this.limitCodes = limitDictionary == null ? null : new DictionaryCache(limitDictionary, Integer.MAX_VALUE);
+        this.conditionCodes = new DictionaryCache(ProductBatch.CONDITIONS, ProductBatch.MAX_DICTIONARY_SIZE);
+        this.stateCodes = new DictionaryCache(ProductBatch.STATES, ProductBatch.MAX_DICTIONARY_SIZE);
+        this.counters = counters;
+        this.merger = new ProductMerger(resultSize, query.getGroupMaxCount());
+        this.spill = spill;
+        int chunkSize = spill == null ? resultSize : spill.getRunRows();
+        int resultCapacity = spill == null ? resultSize : 0;
+        this.chunk = new ProductBatch(chunkSize);
+        this.chunkOrder = new int[chunkSize];
+        this.sortKeys = new double[chunkSize];
+        this.spillScratch = spill != null && spill.isGroupOrdered() ? new int[chunkSize] : null;
+        this.result = new ProductBatch(resultCapacity);
+        this.spare = new ProductBatch(resultCapacity);
+        this.mergeSpare = new ProductBatch(resultCapacity);
+    }
+
+    boolean isSortedById() {
+        return sortById;
+    }
+
+    /**
+     * @return key which the rows are sorted by ascending, descending orders are negated
+     */
+    double key(int id, double price) {
+        return keySign * (sortById ? id : price);
+    }
+
+    /**
+     * @return false if rows of the key can not reach the result, their text columns are never copied then
+     */
+    boolean accepts(double key) {
+        return chunk.capacity() > 0 && !threshold.rejects(key);
+    }
+
+    /**
+     * @param row   row with 5 fields
+     * @param price parsed price of the row
+     */
+    boolean matches(CSVRow row, double price) {
+        return filter.test(row, price);
+    }
+
+    /**
+     * Adds an accepted and matching row.
+     */
+    void add(int id, double price, double key, CSVRow row) {
+        int group;
+        if (limitColumn == null) {
+            group = 0;
+        } else if (limitColumn == Column.ID) {
+            group = id;
+        } else {
+            group = limitCodes.code(row, limitColumn.getIndex());
+        }
+
+        if (candidatesOnly) {
+            chunk.addCandidate(id, price, key, group, fileId, row.getOffset());
+        } else {
+            chunk.add(id, price, key, group, row, conditionCodes.code(row, 2), stateCodes.code(row, 3));
+        }
+        if (chunk.isFull()) {
+            flush();
+        }
+    }
+
+    /**
+     * @return false if no row of the block can reach the result, judged by the block's range of sort keys
+     */
+    boolean accepts(Segment.Block block) {
+        return accepts(minKey(block));
+    }
+
+    /**
+     * @return smallest sort key of the rows of the block, judged by its zone map
+     */
+    double minKey(Segment.Block block) {
+        if (sortById) {
+            return keySign > 0 ? block.getMinId() : -block.getMaxId();
+        }
+        return keySign > 0 ? block.getMinPrice() : -block.getMaxPrice();
+    }
+
+    boolean matches(SegmentBlock block, int row) {
+        return filter.test(block, row);
+    }
+
+    /**
+     * Adds an accepted and matching row of a segment block, candidates point at the row in the source CSV file.
+     */
+    void add(int id, double price, double key, SegmentBlock block, int row) {
+        int group;
+        if (limitColumn == null) {
+            group = 0;
+        } else if (limitColumn == Column.ID) {
+            group = id;
+        } else {
+            group = limitCodes.code(block, limitColumn.getIndex(), row);
+        }
+
+        if (candidatesOnly) {
+            chunk.addCandidate(id, price, key, group, fileId, block.getSourceOffset(row));
+        } else {
+            chunk.add(id, price, key, group, block, row, conditionCodes.code(block, 2, row),
+                    stateCodes.code(block, 3, row));
+        }
+        if (chunk.isFull()) {
+            flush();
+        }
+    }
+
+    /**
+     * @return false if the product does not match the filter or can not reach the result
+     */
+    boolean add(Product product) {
+        double key = key(product.getProductId(), product.getPrice());
+        if (!accepts(key) || !filter.test(product)) {
+            return false;
+        }
+        chunk.add(product, key, group(product));
+        if (chunk.isFull()) {
+            flush();
+        }
+        return true;
+    }
+
+    private int group(Product product) {
+        if (limitColumn == null) {
+            return 0;
+        }
+        switch (limitColumn) {
+            case ID:
+                return product.getProductId();
+            case NAME:
+                return textCode(product.getName());
+            case CONDITION:
+                return textCode(product.getCondition());
+            case STATE:
+                return textCode(product.getState());
+            default:
+                throw new IllegalStateException("Unsupported limit column: " + limitColumn);
+        }
+    }
+
+    private int textCode(String value) {
+        return limitDictionary.code(value == null ? "" : value);
+    }
+
+    /**
+     * @param threshold shared between the ranges whose partial results are merged with each other
+     */
+    void reset(int fileId, SortKeyThreshold threshold) {
+        this.fileId = fileId;
+        this.threshold = threshold;
+        chunk.clear();
+        result.clear();
+    }
+
+    ProductBatch finish() {
+        if (chunk.size() > 0) {
+            flush();
+        }
+        return result.compact();
+    }
+
+    /**
+     * Merges partial results of any ranges. The returned batch is handed over to the caller, one of the merged
+     * batches is kept as the next merge target if it is big enough.
+     */
+    ProductBatch mergePartials(ProductBatch first, ProductBatch second, SortKeyThreshold threshold) {
+        if (spill != null) {
+            return first; // partial results are empty, the rows are in the spill runs
+        }
+        ProductBatch merged = mergeSpare;
+        merger.merge(first, null, second, null, merged);
+        threshold.publish(merged, merger.getResultSize());
+
+        if (first.capacity() >= merger.getResultSize()) {
+            mergeSpare = first;
+        } else if (second.capacity() >= merger.getResultSize()) {
+            mergeSpare = second;
+        } else {
+            mergeSpare = new ProductBatch(merger.getResultSize());
+        }
+        return merged;
+    }
+
+    private void flush() {
+        if (spill != null) {
+            flushToSpill();
+            return;
+        }
+        long start = System.nanoTime();
+        chunk.sortByKey(chunkOrder, sortKeys);
+        long sorted = System.nanoTime();
+        merger.merge(result, null, chunk, chunkOrder, spare);
+        counters.addSortNanos(sorted - start);
+        counters.addMergeNanos(System.nanoTime() - sorted);
+
+        ProductBatch temp = result;
+        result = spare;
+        spare = temp;
+        chunk.clear();
+
+        threshold.publish(result, merger.getResultSize());
+    }
+
+    private void flushToSpill() {
+        long start = System.nanoTime();
+        if (spillScratch != null) {
+            chunk.sortByGroupAndKey(chunkOrder, spillScratch);
+        } else {
+            chunk.sortByKey(chunkOrder, sortKeys);
+        }
+        counters.addSortNanos(System.nanoTime() - start);
+        try {
+            spill.spill(chunk, chunkOrder);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        chunk.clear();
+    }
+}
@@ -0,0 +1,314 @@
+package product;
+
+import main.Params;
+import main.Query;
+import query.TextDictionary;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * Checkpoint of a long run: the completed files and the merged partial results of every query over them. It is
+ * written every checkpoint interval and once more when the run ends, so a restarted run skips the completed files
+ * and starts from their merged results. A checkpoint is written to a temporary file which then replaces the previous
+ * one by a rename, so a crash never leaves a partial checkpoint behind.
+ * <p>
+ * Partial results of completed files are reduced together with the files they cover by a
+ * {@link PartialResultReducer}, on the worker threads and without a lock, so results always cover exactly the files
+ * they are recorded with. A write takes the reduced part out of the reducer for as long as it is written, so it is
+ * never merged meanwhile, and offers it again afterwards. A checkpoint is only resumed with the same queries and
+ * delimiter, a completed file which has changed since fails the run.
+ */
+final class Checkpoint implements Closeable {
+
+    private static final int MAGIC = 0x43484B50;
+
+    private static final int VERSION = 1;
+
+    private final Path path;
+
+    private final List<Query> queries;
+
+    private final char delimiter;
+
+    /**
+     * Files completed by the resumed checkpoint, not changed once it is read.
+     */
+    private final Map<String, FileState> resumedFiles = new HashMap<>();
+
+    private final ProductBatch[] resumedResults;
+
+    private final PartialResultReducer<Part> reducer;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "checkpoint-writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private volatile Merge merge;
+
+    private int writtenFilesCount;
+
+    private boolean deleted;
+
+    /**
+     * Resumes the checkpoint of the params if its file exists, starts an empty one otherwise.
+     *
+     * @throws IllegalStateException if the checkpoint was written for other queries or another delimiter
+     */
+    Checkpoint(Params params) throws IOException {
+        this.path = Path.of(params.getCheckpointFile());
+        this.queries = params.getQueries();
+        this.delimiter = params.getDelimiter();
+        this.resumedResults = new ProductBatch[queries.size()];
+        if (Files.exists(path)) {
+            read();
+        }
+        this.reducer = new PartialResultReducer<>(new Part(resumedResults.clone(), new HashMap<>(resumedFiles)));
+        this.writtenFilesCount = resumedFiles.size();
+        scheduler.scheduleWithFixedDelay(this::writeQuietly, params.getCheckpointInterval(),
+                params.getCheckpointInterval(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return number of the files completed by the resumed checkpoint
+     */
+    int getCompletedCount() {
+        return resumedFiles.size();
+    }
+
+    /**
+     * @param attributes current attributes of the file
+     * @throws IllegalStateException if the file is completed but has changed since
+     */
+    boolean isCompleted(Path file, BasicFileAttributes attributes) {
+        FileState state = resumedFiles.get(key(file));
+        if (state == null) {
+            return false;
+        }
+        if (state.size != attributes.size() || state.lastModified != attributes.lastModifiedTime().toMillis()) {
+            throw new IllegalStateException(String.format("File %s has changed since checkpoint %s, delete the "
+                    + "checkpoint to start over", file, path));
+        }
+        return true;
+    }
+
+    /**
+     * Tightens the thresholds by the resumed results, so rows which can not beat them are pruned right away.
+     */
+    void publish(SortKeyThreshold[] thresholds) {
+        for (int i = 0; i < resumedResults.length; i++) {
+            if (resumedResults[i] != null) {
+                thresholds[i].publish(resumedResults[i], queries.get(i).getProductResultRowsCount());
+            }
+        }
+    }
+
+    /**
+     * Merges the partial results of a processed file into the checkpoint results and marks the file completed.
+     */
+    void complete(Path file, BasicFileAttributes attributes, ProductBatch[] partials, Merge merge) {
+        this.merge = merge;
+        Map<String, FileState> files = new HashMap<>();
+        files.put(key(file), new FileState(attributes.size(), attributes.lastModifiedTime().toMillis()));
+        reducer.offer(new Part(partials, files), this::merge);
+    }
+
+    /**
+     * Stops the periodic writes, must be called once every completed file has been merged.
+     *
+     * @return merged results of all completed files, including the resumed ones, nulls if there are none
+     */
+    synchronized ProductBatch[] getResults() {
+        scheduler.shutdownNow();
+        return reducer.getResult().results.clone();
+    }
+
+    /**
+     * Writes the checkpoint unless nothing has been completed since the last write. Files which are being merged
+     * while it is written are left for the next write.
+     */
+    synchronized void write() throws IOException {
+        if (deleted) {
+            return;
+        }
+        Part part = reducer.take();
+        if (part == null) {
+            return;
+        }
+        try {
+            if (part.files.size() != writtenFilesCount) {
+                write(part);
+                writtenFilesCount = part.files.size();
+            }
+        } finally {
+            reducer.offer(part, this::merge);
+        }
+    }
+
+    private void write(Part part) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, "checkpoint", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeChar(delimiter);
+                out.writeUTF(describeQueries());
+                out.writeInt(part.files.size());
+                for (Map.Entry<String, FileState> entry : part.files.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue().size);
+                    out.writeLong(entry.getValue().lastModified);
+                }
+                for (int i = 0; i < part.results.length; i++) {
+                    ProductBatch batch = part.results[i] == null ? new ProductBatch(0) : part.results[i];
+                    batch.writeTo(out);
+                    TextDictionary dictionary = queries.get(i).getLimitDictionary();
+                    if (dictionary != null) {
+                        for (int row = 0; row < batch.size(); row++) {
+                            out.writeUTF(dictionary.value(batch.getGroup(row)));
+                        }
+                    }
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Deletes the checkpoint once the run it belongs to has succeeded.
+     */
+    synchronized void delete() throws IOException {
+        scheduler.shutdownNow();
+        deleted = true;
+        Files.deleteIfExists(path);
+    }
+
+    /**
+     * Stops the periodic writes and writes the final checkpoint.
+     */
+    @Override
+    public void close() throws IOException {
+        scheduler.shutdownNow();
+        write();
+    }
+
+    private void writeQuietly() {
+        try {
+            write();
+        } catch (IOException e) {
+            System.err.println("Failed to write checkpoint: " + e);
+        }
+    }
+
+    private void read() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IllegalStateException(String.format("%s is not a checkpoint", path));
+            }
+            char checkpointDelimiter = in.readChar();
+            String description = in.readUTF();
+            if (checkpointDelimiter != delimiter || !description.equals(describeQueries())) {
+                throw new IllegalStateException(String.format("Checkpoint %s was written for delimiter '%s' and "
+                        + "queries %s, delete it to start over", path, checkpointDelimiter, description));
+            }
+            int filesCount = in.readInt();
+            for (int i = 0; i < filesCount; i++) {
+                resumedFiles.put(in.readUTF(), new FileState(in.readLong(), in.readLong()));
+            }
+            for (int i = 0; i < resumedResults.length; i++) {
+                ProductBatch batch = ProductBatch.readFrom(in);
+                TextDictionary dictionary = queries.get(i).getLimitDictionary();
+                if (dictionary != null) {
+                    for (int row = 0; row < batch.size(); row++) {
+                        batch.setGroup(row, dictionary.code(in.readUTF()));
+                    }
+                }
+                resumedResults[i] = filesCount == 0 ? null : batch;
+            }
+        }
+    }
+
+    /**
+     * @return result size, duplicate cap, filter, sort and limit columns of every query
+     */
+    private String describeQueries() {
+        return queries.stream().map(Query::describe).collect(Collectors.joining(";"));
+    }
+
+    /**
+     * Merges the results of two parts query by query and the files of the smaller part into the files of the larger
+     * one.
+     */
+    private Part merge(Part first, Part second) {
+        ProductBatch[] results = new ProductBatch[first.results.length];
+        for (int i = 0; i < results.length; i++) {
+            if (first.results[i] == null || second.results[i] == null) {
+                results[i] = first.results[i] == null ? second.results[i] : first.results[i];
+            } else {
+                results[i] = merge.apply(i, first.results[i], second.results[i]);
+            }
+        }
+        Map<String, FileState> files = first.files.size() >= second.files.size() ? first.files : second.files;
+        files.putAll(files == first.files ? second.files : first.files);
+        return new Part(results, files);
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    /**
+     * Merge of two partial results of a query.
+     */
+    interface Merge {
+        ProductBatch apply(int query, ProductBatch first, ProductBatch second);
+    }
+
+    /**
+     * Merged results of every query together with the files they are merged from.
+     */
+    private static final class Part {
+
+        private final ProductBatch[] results;
+
+        private final Map<String, FileState> files;
+
+        private Part(ProductBatch[] results, Map<String, FileState> files) {
+            this.results = results;
+            this.files = files;
+        }
+    }
+
+    private static final class FileState {
+
+        private final long size;
+
+        private final long lastModified;
+
+        private FileState(long size, long lastModified) {
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+    }
+}
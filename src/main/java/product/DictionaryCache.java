@@ -0,0 +1,113 @@
+package product;
+
+import csv.CSVRow;
+import query.TextDictionary;
+import segment.SegmentBlock;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Cache of one worker in front of a shared {@link TextDictionary}: codes of the values the worker has seen are
+ * looked up by their raw bytes in an open-addressing table, so a repeated value costs a hash and a compare of a few
+ * bytes instead of a string and a lookup in the shared map. Not thread-safe.
+ */
+final class DictionaryCache {
+
+    private static final int MAX_ENTRIES = 1 << 12;
+
+    private final TextDictionary dictionary;
+
+    private final int maxSize;
+
+    private byte[][] keys = new byte[64][];
+
+    private int[] codes = new int[64];
+
+    private int entries;
+
+    private byte[] scratch = new byte[64];
+
+    /**
+     * @param maxSize number of values after which the dictionary takes no new values, see
+     *                {@link TextDictionary#code(String, int)}
+     */
+    DictionaryCache(TextDictionary dictionary, int maxSize) {
+        this.dictionary = dictionary;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @return code of the field, -1 if the dictionary is full
+     */
+    int code(CSVRow row, int column) {
+        int length = row.getFieldLength(column);
+        ensureScratch(length);
+        row.copyField(column, scratch, 0);
+        return code(length);
+    }
+
+    /**
+     * @return code of the field, -1 if the dictionary is full
+     */
+    int code(SegmentBlock block, int column, int row) {
+        int length = block.getFieldLength(column, row);
+        ensureScratch(length);
+        block.copyField(column, row, scratch, 0);
+        return code(length);
+    }
+
+    private int code(int length) {
+        int hash = hash(scratch, length);
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        for (byte[] key = keys[slot]; key != null; key = keys[slot]) {
+            if (Arrays.equals(key, 0, key.length, scratch, 0, length)) {
+                return codes[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        int code = dictionary.code(new String(scratch, 0, length, StandardCharsets.UTF_8), maxSize);
+        if (code >= 0 && entries < MAX_ENTRIES) { // values beyond the cache size keep going to the dictionary
+            keys[slot] = Arrays.copyOf(scratch, length);
+            codes[slot] = code;
+            if (++entries * 2 > keys.length) {
+                grow();
+            }
+        }
+        return code;
+    }
+
+    private void grow() {
+        byte[][] oldKeys = keys;
+        int[] oldCodes = codes;
+        keys = new byte[oldKeys.length * 2][];
+        codes = new int[oldCodes.length * 2];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = hash(oldKeys[i], oldKeys[i].length) & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                codes[slot] = oldCodes[i];
+            }
+        }
+    }
+
+    private void ensureScratch(int length) {
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+    }
+
+    private static int hash(byte[] value, int length) {
+        int hash = 0;
+        for (int i = 0; i < length; i++) {
+            hash = 31 * hash + value[i];
+        }
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,115 @@
+package product;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing {@code int -> int} counter without boxing. Clearing only advances a generation stamp,
+ * so a single instance can be reused for every merge without touching its tables.
+ */
+public final class IntIntCounter {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys;
+
+    private int[] counts;
+
+    private int[] generations;
+
+    private int generation = 1;
+
+    private int size;
+
+    private int mask;
+
+    public IntIntCounter(int expectedSize) {
+        allocate(tableSizeFor(expectedSize));
+    }
+
+    public int get(int key) {
+        int index = indexOf(key);
+        return generations[index] == generation ? counts[index] : 0;
+    }
+
+    /**
+     * Increments the count of the key unless it has already reached the limit.
+     *
+     * @return true if the count was incremented
+     */
+    public boolean incrementIfBelow(int key, int limit) {
+        int index = indexOf(key);
+        if (generations[index] == generation) {
+            if (counts[index] >= limit) {
+                return false;
+            }
+            counts[index]++;
+            return true;
+        }
+
+        if (limit <= 0) {
+            return false;
+        }
+        keys[index] = key;
+        counts[index] = 1;
+        generations[index] = generation;
+        if (++size > (mask + 1) >>> 1) {
+            rehash();
+        }
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        size = 0;
+        if (++generation == Integer.MAX_VALUE) {
+            Arrays.fill(generations, 0);
+            generation = 1;
+        }
+    }
+
+    private int indexOf(int key) {
+        int index = mix(key) & mask;
+        while (generations[index] == generation && keys[index] != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    private void rehash() {
+        int[] oldKeys = keys;
+        int[] oldCounts = counts;
+        int[] oldGenerations = generations;
+        int oldGeneration = generation;
+
+        allocate((mask + 1) << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldGenerations[i] == oldGeneration) {
+                int index = indexOf(oldKeys[i]);
+                keys[index] = oldKeys[i];
+                counts[index] = oldCounts[i];
+                generations[index] = generation;
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        counts = new int[capacity];
+        generations = new int[capacity];
+        generation = 1;
+        mask = capacity - 1;
+    }
+
+    private static int tableSizeFor(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(MIN_CAPACITY, expectedSize * 2 - 1)) << 1;
+        return capacity > 0 ? capacity : 1 << 30;
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,246 @@
+package product;
+
+import main.Params;
+import main.Query;
+import query.TextDictionary;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static java.util.stream.Collectors.toList;
+
+/**
+ * On-disk cache of per-file partial results, one entry per file and query. An entry is valid for the same file path,
+ * size, last-modified time and optionally content checksum, and for the same query, delimiter and materialization
+ * mode. Stale entries are deleted on lookup, the least recently used ones are evicted once the cache exceeds its
+ * size. Groups of text limit columns are dictionary codes of one process, entries store their values instead.
+ */
+public final class PartialResultCache {
+
+    private static final int MAGIC = 0x43535643;
+
+    private static final int VERSION = 2;
+
+    private static final String ENTRY_SUFFIX = ".partial";
+
+    private static final int HASH_BUFFER_SIZE = 1 << 20;
+
+    private final Path directory;
+
+    private final long maxSize;
+
+    private final boolean contentHash;
+
+    public PartialResultCache(Path directory, long maxSize, boolean contentHash) {
+        this.directory = directory;
+        this.maxSize = maxSize;
+        this.contentHash = contentHash;
+    }
+
+    /**
+     * Captures the file state which identifies cache entries, must be called before the file is processed.
+     *
+     * @param attributes attributes of the file read before it is processed
+     * @return keys of the file's entries of the queries, in the order of the queries
+     */
+    public List<Key> keys(Path file, BasicFileAttributes attributes, List<Query> queries, Params params)
+            throws IOException {
+        long checksum = contentHash ? checksum(file) : 0;
+        String path = file.toAbsolutePath().normalize().toString();
+
+        List<Key> keys = new ArrayList<>(queries.size());
+        for (Query query : queries) {
+            String queryKey = String.format("%s:%s:%s", query.describe(), (int) params.getDelimiter(),
+                    params.isLateMaterialization());
+            keys.add(new Key(path, queryKey, attributes.size(), attributes.lastModifiedTime().toMillis(), checksum));
+        }
+        return keys;
+    }
+
+    /**
+     * @param dictionary dictionary of the query's text limit column, null if the query has none
+     * @return cached partial result or null if there is no valid entry
+     */
+    public ProductBatch get(Key key, TextDictionary dictionary) {
+        Path entry = entryPath(key);
+        if (!Files.exists(entry)) {
+            return null;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(entry)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(Key.readFrom(in))) {
+                delete(entry);
+                return null;
+            }
+            ProductBatch batch = ProductBatch.readFrom(in);
+            if (dictionary != null) {
+                for (int i = 0; i < batch.size(); i++) {
+                    batch.setGroup(i, dictionary.code(in.readUTF()));
+                }
+            }
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+            return batch;
+        } catch (IOException e) {
+            delete(entry);
+            return null;
+        }
+    }
+
+    /**
+     * @param dictionary dictionary of the query's text limit column, null if the query has none
+     */
+    public void put(Key key, ProductBatch batch, TextDictionary dictionary) throws IOException {
+        Files.createDirectories(directory);
+        Path entry = entryPath(key);
+        Path temp = Files.createTempFile(directory, "entry", ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                key.writeTo(out);
+                batch.writeTo(out);
+                if (dictionary != null) {
+                    for (int i = 0; i < batch.size(); i++) {
+                        out.writeUTF(dictionary.value(batch.getGroup(i)));
+                    }
+                }
+            }
+            Files.move(temp, entry, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Deletes least recently used entries until the cache fits into its size.
+     */
+    public void evict() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+
+        List<Path> entries;
+        try (Stream<Path> files = Files.list(directory)) {
+            entries = files.filter(path -> path.toString().endsWith(ENTRY_SUFFIX)).collect(toList());
+        }
+
+        List<BasicFileAttributes> attributes = new ArrayList<>(entries.size());
+        long totalSize = 0;
+        for (Path entry : entries) {
+            BasicFileAttributes entryAttributes = Files.readAttributes(entry, BasicFileAttributes.class);
+            attributes.add(entryAttributes);
+            totalSize += entryAttributes.size();
+        }
+
+        List<Integer> order = new ArrayList<>(entries.size());
+        for (int i = 0; i < entries.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparing(i -> attributes.get(i).lastModifiedTime()));
+
+        for (int i = 0; i < order.size() && totalSize > maxSize; i++) {
+            int index = order.get(i);
+            delete(entries.get(index));
+            totalSize -= attributes.get(index).size();
+        }
+    }
+
+    private Path entryPath(Key key) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest((key.path + '\n' + key.query).getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                name.append(String.format("%02x", hash[i]));
+            }
+            return directory.resolve(name.append(ENTRY_SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static long checksum(Path file) throws IOException {
+        CRC32C crc = new CRC32C();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(HASH_BUFFER_SIZE);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            while (channel.read(buffer) > 0) {
+                buffer.flip();
+                crc.update(buffer);
+                buffer.clear();
+            }
+        }
+        return crc.getValue();
+    }
+
+    private static void delete(Path entry) {
+        try {
+            Files.deleteIfExists(entry);
+        } catch (IOException ignored) {
+        }
+    }
+
+    public static final class Key {
+
+        private final String path;
+
+        private final String query;
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final long checksum;
+
+        private Key(String path, String query, long size, long lastModified, long checksum) {
+            this.path = path;
+            this.query = query;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.checksum = checksum;
+        }
+
+        private void writeTo(DataOutput out) throws IOException {
+            out.writeUTF(path);
+            out.writeUTF(query);
+            out.writeLong(size);
+            out.writeLong(lastModified);
+            out.writeLong(checksum);
+        }
+
+        private static Key readFrom(DataInput in) throws IOException {
+            return new Key(in.readUTF(), in.readUTF(), in.readLong(), in.readLong(), in.readLong());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (o == null || getClass() != o.getClass())
+                return false;
+            Key key = (Key) o;
+            return size == key.size
+                    && lastModified == key.lastModified
+                    && checksum == key.checksum
+                    && path.equals(key.path)
+                    && query.equals(key.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(path, query, size, lastModified, checksum);
+        }
+    }
+}
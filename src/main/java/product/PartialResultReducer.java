@@ -0,0 +1,52 @@
+package product;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BinaryOperator;
+
+/**
+ * Lock-free pairwise reduction of partial results. A partial result is either parked until another one arrives
+ * or merged with the parked one on the offering thread, so merges run on the worker threads as soon as two
+ * partial results are available and never wait for each other.
+ */
+final class PartialResultReducer<T> {
+
+    private final AtomicReference<T> pending = new AtomicReference<>();
+
+    PartialResultReducer() {
+    }
+
+    /**
+     * @param initial partial result which is parked from the start
+     */
+    PartialResultReducer(T initial) {
+        pending.set(initial);
+    }
+
+    void offer(T partial, BinaryOperator<T> merge) {
+        T current = partial;
+        while (true) {
+            T other = pending.getAndSet(null);
+            if (other != null) {
+                current = merge.apply(current, other);
+            } else if (pending.compareAndSet(null, current)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Takes the parked partial result out, so no merge touches it until the caller offers it again.
+     *
+     * @return null if no partial result is parked, e.g. all of them are being merged
+     */
+    T take() {
+        return pending.getAndSet(null);
+    }
+
+    /**
+     * @return merge of all offered partial results once every offer has returned
+     */
+    T getResult() {
+        return pending.get();
+    }
+}
@@ -0,0 +1,646 @@
+package product;
+
+import csv.CSVReader;
+import csv.FileRange;
+import csv.MappedCSVReader;
+import csv.MappedRange;
+import csv.Quarantine;
+import main.FileDiscovery;
+import main.Params;
+import main.Query;
+import metrics.FileMetrics;
+import metrics.PartialMergeEvent;
+import metrics.RangeReadEvent;
+import metrics.RunMetrics;
+import segment.Segment;
+import segment.SegmentStore;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * One execution of the cheapest products queries over a list of files, all queries share a single scan and every
+ * query has its own thresholds and partial results. Large files in mapped mode are split into ranges, the partial
+ * results of ranges are reduced per file first, so that the partial result of a whole file can be cached before it
+ * is reduced with the partial results of other files.
+ * <p>
+ * Files are scheduled largest first, so the run does not end with a single thread reading the biggest file.
+ * Files of a {@link FileDiscovery} are scheduled as soon as they are discovered, so that they are read while
+ * the directory tree is still being listed, largest first among the files which are waiting.
+ * Reader threads look up the cache, split files and map and load their ranges ahead of parsing, processor threads
+ * parse loaded ranges and merge partial results. A range counts as loaded from the moment a reader starts to load it
+ * until a processor has parsed it, there are never more loaded ranges than processor threads, whether they are being
+ * loaded, wait for a processor or are being parsed. Readers block until a processor has parsed one, so no more than
+ * {@code cpuThreads} ranges are held in memory at a time.
+ * <p>
+ * Cached partial results must not depend on other files, so with the cache enabled rows are pruned by a threshold
+ * of their own file instead of the threshold shared by the whole run.
+ * <p>
+ * Files with a valid segment are read from the segment instead, split into ranges of whole blocks. Segment blocks
+ * are read by the processor threads themselves, so blocks which are skipped by their zone maps are never read.
+ * <p>
+ * With a {@link Checkpoint} files completed by an earlier run are skipped, the partial results of the other files are
+ * merged into the checkpoint as they complete.
+ * <p>
+ * In {@link Params#isAnytime() anytime} mode the partial results of completed files are handed to
+ * {@link AnytimeResults} instead, which publishes snapshots of them while the run goes on. A run which is stopped by
+ * its budget finishes the ranges being read and skips all other work, its results cover the completed files only.
+ */
+final class ProcessingRun {
+
+    private final List<Path> files;
+
+    private final int firstFileId;
+
+    private final Params params;
+
+    private final List<Query> queries;
+
+    private final PartialResultCache cache;
+
+    private final SegmentStore segments;
+
+    private final ThreadPoolExecutor readers;
+
+    private final ThreadPoolExecutor processors;
+
+    private final Semaphore loadedRanges;
+
+    private final SortKeyThreshold[] thresholds;
+
+    private final List<PartialResultReducer<ProductBatch>> reducers = new ArrayList<>();
+
+    private final ThreadLocal<ScanCollector> collectors;
+
+    private final AtomicReference<Throwable> failure = new AtomicReference<>();
+
+    /**
+     * Files which are scheduled and not processed yet, plus one while files are being scheduled.
+     */
+    private final AtomicInteger pendingFiles = new AtomicInteger(1);
+
+    private final CountDownLatch processedFiles = new CountDownLatch(1);
+
+    private final RunMetrics metrics;
+
+    private final Quarantine quarantine;
+
+    private final Checkpoint checkpoint;
+
+    private final AnytimeResults anytime;
+
+    private volatile boolean stopped;
+
+    /**
+     * @param files       files of the run, their indexes are the file ids of the run's batches
+     * @param firstFileId files before this index are skipped, e.g. processed by an earlier run
+     * @param cache       may be null
+     * @param thresholds  thresholds which rows are pruned by in the order of {@link Params#getQueries()}, may be
+     *                    tightened already by earlier results
+     * @param spills      spill runs in the order of {@link Params#getQueries()}, null for queries collected in memory
+     * @param quarantine  file of the rejected rows of the files read from the CSV, may be null
+     * @param checkpoint  checkpoint which completed files are merged into instead of the reducers of the run, files
+     *                    completed by it already are skipped, may be null
+     */
+    ProcessingRun(List<Path> files, int firstFileId, Params params, PartialResultCache cache,
+                  SortKeyThreshold[] thresholds, SpillRuns[] spills, RunMetrics metrics, Quarantine quarantine,
+                  Checkpoint checkpoint) {
+        this.files = Collections.synchronizedList(new ArrayList<>(files));
+        this.firstFileId = firstFileId;
+        this.params = params;
+        this.queries = params.getQueries();
+        this.cache = cache;
+        this.segments = ProductService.createSegmentStore(params);
+        this.thresholds = thresholds;
+        for (int i = 0; i < queries.size(); i++) {
+            reducers.add(new PartialResultReducer<>());
+        }
+        this.readers = new ThreadPoolExecutor(params.getIoThreads(), params.getIoThreads(), 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<>());
+        this.processors = (ThreadPoolExecutor) Executors.newFixedThreadPool(params.getCpuThreads());
+        this.loadedRanges = new Semaphore(params.getCpuThreads());
+        this.collectors = ThreadLocal.withInitial(() -> new ScanCollector(queries, params, spills,
+                quarantine != null));
+        this.metrics = metrics;
+        this.quarantine = quarantine;
+        this.checkpoint = checkpoint;
+        metrics.setQueueDepth(() -> processors.getQueue().size());
+        this.anytime = params.isAnytime() ? new AnytimeResults(params,
+                (query, first, second) -> merge(query, first, second, thresholds[query], null), this::stop,
+                this::getFiles) : null;
+    }
+
+    /**
+     * @return merged partial results of all files for every query, nulls if there are no files to process
+     */
+    ProductBatch[] execute() {
+        try {
+            List<ReadTask> planTasks = new ArrayList<>(files.size() - firstFileId);
+            for (int fileId = firstFileId; fileId < files.size(); fileId++) {
+                BasicFileAttributes attributes = attributesOf(files.get(fileId));
+                if (anytime != null) {
+                    anytime.addFile(attributes == null ? 0 : attributes.size());
+                }
+                if (!isCompleted(files.get(fileId), attributes)) {
+                    planTasks.add(planTask(fileId, attributes));
+                }
+            }
+            planTasks.sort(Comparator.naturalOrder()); // the first tasks go to new threads without passing the queue
+            pendingFiles.addAndGet(planTasks.size());
+            planTasks.forEach(readers::execute);
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+        return awaitResults();
+    }
+
+    /**
+     * Appends the files of the discovery to the files of the run while they are discovered.
+     *
+     * @return merged partial results of all files for every query, nulls if there are no files to process
+     */
+    ProductBatch[] execute(FileDiscovery discovery) {
+        try {
+            discovery.discover(this::schedule);
+        } catch (RuntimeException e) {
+            failure.compareAndSet(null, e);
+        }
+        return awaitResults();
+    }
+
+    /**
+     * @return files and bytes which the results cover, null unless the run is in anytime mode
+     */
+    ResultCoverage getCoverage() {
+        return anytime == null ? null : anytime.getCoverage();
+    }
+
+    /**
+     * @return files of the run, including the discovered files, their indexes are the file ids
+     */
+    List<Path> getFiles() {
+        synchronized (files) {
+            return List.copyOf(files);
+        }
+    }
+
+    private void schedule(Path path, BasicFileAttributes attributes) {
+        if (isCompleted(path, attributes)) {
+            return;
+        }
+        if (anytime != null) {
+            anytime.addFile(attributes.size());
+        }
+        if (stopped) {
+            return;
+        }
+        int fileId;
+        synchronized (files) {
+            fileId = files.size();
+            files.add(path);
+        }
+        metrics.addFiles(1);
+        pendingFiles.incrementAndGet();
+        readers.execute(planTask(fileId, attributes));
+    }
+
+    /**
+     * @param attributes null if they could not be read
+     * @return true if the checkpoint has completed the file already
+     */
+    private boolean isCompleted(Path path, BasicFileAttributes attributes) {
+        return checkpoint != null && attributes != null && checkpoint.isCompleted(path, attributes);
+    }
+
+    private ReadTask planTask(int fileId, BasicFileAttributes attributes) {
+        return new ReadTask(attributes == null ? 0 : attributes.size(), fileId, -1, () -> planFile(fileId, attributes));
+    }
+
+    /**
+     * Stops the run: ranges being read are finished, files and ranges which have not been started are skipped.
+     */
+    private void stop() {
+        stopped = true;
+    }
+
+    private ProductBatch[] awaitResults() {
+        fileProcessed(); // all files are scheduled
+        try {
+            processedFiles.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            readers.shutdown();
+            processors.shutdown();
+            if (anytime != null && failure.get() != null) {
+                anytime.close();
+            }
+        }
+
+        if (failure.get() != null) {
+            throw new IllegalStateException("Products processing failed", failure.get());
+        }
+        if (anytime != null) {
+            return anytime.finish();
+        }
+        if (checkpoint != null) {
+            return checkpoint.getResults();
+        }
+        ProductBatch[] results = new ProductBatch[reducers.size()];
+        Arrays.setAll(results, i -> reducers.get(i).getResult());
+        return results;
+    }
+
+    /**
+     * @param attributes attributes of the file read by the listing, null if they have to be read
+     */
+    private void planFile(int fileId, BasicFileAttributes attributes) {
+        if (stopped) {
+            fileProcessed();
+            return;
+        }
+        Path path = files.get(fileId);
+        FileMetrics fileMetrics = metrics.startFile(path);
+        try {
+            List<PartialResultCache.Key> cacheKeys = null;
+            BasicFileAttributes fileAttributes = attributes != null ? attributes
+                    : Files.readAttributes(path, BasicFileAttributes.class);
+            if (cache != null) {
+                cacheKeys = cache.keys(path, fileAttributes, queries, params);
+                ProductBatch[] cached = getCached(cacheKeys, fileId);
+                if (cached != null) {
+                    fileMetrics.cached();
+                    processors.execute(() -> completeFile(fileId, fileAttributes, cached, fileMetrics));
+                    return;
+                }
+            }
+
+            long size = fileAttributes.size();
+            Segment segment = segments == null ? null : segments.open(path, fileAttributes, params.getDelimiter());
+            List<FileRange> ranges;
+            if (segment != null) {
+                fileMetrics.segment(segment.getRowsRejected());
+                ranges = segment.split(params.getRangeSize());
+            } else if (params.getReaderMode() == Params.ReaderMode.MAPPED && size > params.getRangeSize()) {
+                ranges = new MappedCSVReader(path, params.getDelimiter()).split(params.getRangeSize());
+            } else {
+                ranges = List.of(new FileRange(path, 0, size));
+            }
+
+            SortKeyThreshold[] fileThresholds = thresholds;
+            if (cache != null) {
+                fileThresholds = new SortKeyThreshold[queries.size()];
+                Arrays.setAll(fileThresholds, i -> new SortKeyThreshold());
+            }
+            Quarantine.FileRejects rejects = quarantine == null || segment != null ? null : quarantine.startFile(path);
+            FileResult fileResult = new FileResult(fileId, fileAttributes, ranges.size(), cacheKeys, segment,
+                    fileThresholds, fileMetrics, rejects);
+            for (FileRange range : ranges) {
+                readers.execute(new ReadTask(size, fileId, range.getStart(), () -> prefetchRange(fileResult, range)));
+            }
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+            fileProcessed();
+        }
+    }
+
+    /**
+     * Maps and loads the range on a reader thread and hands it over to a processor thread.
+     */
+    private void prefetchRange(FileResult fileResult, FileRange range) {
+        if (stopped) {
+            rangeSkipped(fileResult, range);
+            return;
+        }
+        try {
+            loadedRanges.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rangeFailed(fileResult, range, e);
+            return;
+        }
+
+        try {
+            long start = System.nanoTime();
+            MappedRange mapped = null;
+            if (fileResult.segment == null && params.getReaderMode() == Params.ReaderMode.MAPPED) {
+                mapped = new MappedCSVReader(range.getPath(), params.getDelimiter()).map(range);
+                mapped.load();
+            }
+            long prefetchNanos = System.nanoTime() - start;
+
+            MappedRange loaded = mapped;
+            processors.execute(() -> processRange(fileResult, range, loaded, prefetchNanos));
+        } catch (Throwable e) {
+            loadedRanges.release();
+            rangeFailed(fileResult, range, e);
+        }
+    }
+
+    /**
+     * @param mapped loaded range, null in stream mode and for segments
+     */
+    private void processRange(FileResult fileResult, FileRange range, MappedRange mapped, long prefetchNanos) {
+        if (stopped) {
+            loadedRanges.release();
+            rangeSkipped(fileResult, range);
+            return;
+        }
+        try {
+            ScanCollector collector = collectors.get();
+            RangeReadEvent event = new RangeReadEvent();
+            event.begin();
+            int queueDepth = processors.getQueue().size();
+            long start = System.nanoTime();
+            ProductBatch[] partials = readRange(fileResult, range, mapped, collector);
+            long readNanos = System.nanoTime() - start;
+            long bytes = range.getSize() - collector.getCounters().getBytesSkipped();
+            fileResult.metrics.rangeRead(event, range.getStart(), bytes, prefetchNanos, readNanos,
+                    collector.getCounters(), queueDepth);
+            if (anytime != null) {
+                anytime.bytesRead(metrics.getBytesRead());
+            }
+            if (fileResult.rejects != null) {
+                fileResult.rejects.addAll(collector.getRejects());
+            }
+
+            if (fileResult.rangesCount == 1) {
+                fileResult.partials = partials;
+            } else {
+                for (int i = 0; i < partials.length; i++) {
+                    int query = i;
+                    fileResult.reducers.get(query).offer(partials[query], (first, second) ->
+                            merge(query, first, second, fileResult.thresholds[query], fileResult.metrics));
+                }
+            }
+        } catch (Throwable e) {
+            fileResult.failed = true;
+            failure.compareAndSet(null, e);
+        } finally {
+            loadedRanges.release();
+        }
+        rangeCompleted(fileResult, range);
+    }
+
+    private void rangeFailed(FileResult fileResult, FileRange range, Throwable e) {
+        fileResult.failed = true;
+        failure.compareAndSet(null, e);
+        rangeCompleted(fileResult, range);
+    }
+
+    private void rangeSkipped(FileResult fileResult, FileRange range) {
+        fileResult.skipped = true;
+        rangeCompleted(fileResult, range);
+    }
+
+    private void rangeCompleted(FileResult fileResult, FileRange range) {
+        if (fileResult.remainingRanges.decrementAndGet() == 0) {
+            if (fileResult.segment != null) {
+                try {
+                    fileResult.segment.close();
+                } catch (IOException ignored) {
+                }
+            }
+            if (fileResult.failed || fileResult.skipped) {
+                fileProcessed();
+                return;
+            }
+            if (fileResult.rejects != null) {
+                try {
+                    quarantine.write(fileResult.rejects, params.getReaderMode() == Params.ReaderMode.MAPPED,
+                            params.getDelimiter());
+                } catch (IOException e) {
+                    System.err.println(String.format("Failed to quarantine rows of %s: %s", range.getPath(), e));
+                }
+            }
+
+            ProductBatch[] partials = fileResult.partials;
+            if (fileResult.rangesCount > 1) {
+                partials = new ProductBatch[queries.size()];
+                Arrays.setAll(partials, i -> fileResult.reducers.get(i).getResult());
+            }
+            if (cache != null) {
+                try {
+                    for (int i = 0; i < partials.length; i++) {
+                        cache.put(fileResult.cacheKeys.get(i), partials[i], queries.get(i).getLimitDictionary());
+                    }
+                } catch (IOException e) {
+                    System.err.println(String.format("Failed to cache partial result of %s: %s", range.getPath(), e));
+                }
+            }
+            completeFile(fileResult.fileId, fileResult.attributes, partials, fileResult.metrics);
+        }
+    }
+
+    /**
+     * @return cached partial results of all queries, null unless every query has a valid entry
+     */
+    private ProductBatch[] getCached(List<PartialResultCache.Key> cacheKeys, int fileId) {
+        ProductBatch[] cached = new ProductBatch[cacheKeys.size()];
+        for (int i = 0; i < cached.length; i++) {
+            cached[i] = cache.get(cacheKeys.get(i), queries.get(i).getLimitDictionary());
+            if (cached[i] == null) {
+                return null;
+            }
+            cached[i].assignFileId(fileId);
+        }
+        return cached;
+    }
+
+    private void completeFile(int fileId, BasicFileAttributes attributes, ProductBatch[] partials,
+                              FileMetrics fileMetrics) {
+        try {
+            if (anytime != null) {
+                anytime.complete(partials, attributes.size());
+                fileMetrics.completed();
+                return;
+            }
+            if (checkpoint != null) {
+                checkpoint.complete(files.get(fileId), attributes, partials,
+                        (query, first, second) -> merge(query, first, second, thresholds[query], null));
+                fileMetrics.completed();
+                return;
+            }
+            for (int i = 0; i < partials.length; i++) {
+                int query = i;
+                reducers.get(query).offer(partials[query], (first, second) -> merge(query, first, second, thresholds[query], null));
+            }
+            fileMetrics.completed();
+        } catch (Throwable e) {
+            failure.compareAndSet(null, e);
+        } finally {
+            fileProcessed();
+        }
+    }
+
+    private void fileProcessed() {
+        if (pendingFiles.decrementAndGet() == 0) {
+            processedFiles.countDown();
+        }
+    }
+
+    /**
+     * @param fileMetrics metrics of the file whose ranges are merged, null for merges of different files
+     */
+    private ProductBatch merge(int query, ProductBatch first, ProductBatch second, SortKeyThreshold threshold,
+                               FileMetrics fileMetrics) {
+        PartialMergeEvent event = new PartialMergeEvent();
+        event.begin();
+        int firstSize = first.size();
+        int secondSize = second.size();
+        long start = System.nanoTime();
+        ProductBatch merged = collectors.get().getCollector(query).mergePartials(first, second, threshold);
+        long nanos = System.nanoTime() - start;
+        if (fileMetrics != null) {
+            fileMetrics.merged(event, firstSize, secondSize, merged.size(), nanos);
+        } else {
+            metrics.merged(event, firstSize, secondSize, merged.size(), nanos);
+        }
+        return merged;
+    }
+
+    private ProductBatch[] readRange(FileResult fileResult, FileRange range, MappedRange mapped,
+                                     ScanCollector collector) throws IOException {
+        collector.reset(fileResult.fileId, fileResult.thresholds);
+        if (fileResult.segment != null) {
+            collector.read(fileResult.segment, range);
+            return collector.finish();
+        }
+        switch (params.getReaderMode()) {
+            case STREAM:
+                readStreamFile(range.getPath(), collector);
+                break;
+            case MAPPED:
+                new MappedCSVReader(range.getPath(), params.getDelimiter(), params.getTokenizer()).read(mapped,
+                        collector);
+                break;
+            default:
+                throw new IllegalStateException("Unknown reader mode: " + params.getReaderMode());
+        }
+        return collector.finish();
+    }
+
+    private void readStreamFile(Path path, ScanCollector collector) throws IOException {
+        try (FileReader reader = new FileReader(path.toString())) {
+            CSVReader parser = new CSVReader(reader, params.getDelimiter(), params.getProductResultRowsCount());
+            long line = 0;
+            for (List<String[]> rows : parser) {
+                for (String[] row : rows) {
+                    collector.handle(row, ++line, params.getDelimiter());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return null if the file is not readable, the error is reported once the file is processed
+     */
+    private static BasicFileAttributes attributesOf(Path path) {
+        try {
+            return Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reader task ordered by the size of its file descending, ranges of the same file by their position.
+     */
+    private static final class ReadTask implements Runnable, Comparable<ReadTask> {
+
+        private static final Comparator<ReadTask> ORDER = Comparator.<ReadTask>comparingLong(task -> -task.fileSize)
+                .thenComparingInt(task -> task.fileId)
+                .thenComparingLong(task -> task.position);
+
+        private final long fileSize;
+
+        private final int fileId;
+
+        private final long position;
+
+        private final Runnable action;
+
+        private ReadTask(long fileSize, int fileId, long position, Runnable action) {
+            this.fileSize = fileSize;
+            this.fileId = fileId;
+            this.position = position;
+            this.action = action;
+        }
+
+        @Override
+        public void run() {
+            action.run();
+        }
+
+        @Override
+        public int compareTo(ReadTask other) {
+            return ORDER.compare(this, other);
+        }
+    }
+
+    private static final class FileResult {
+
+        private final int fileId;
+
+        private final BasicFileAttributes attributes;
+
+        private final int rangesCount;
+
+        private final List<PartialResultCache.Key> cacheKeys;
+
+        private final Segment segment;
+
+        private final SortKeyThreshold[] thresholds;
+
+        private final FileMetrics metrics;
+
+        private final List<PartialResultReducer<ProductBatch>> reducers = new ArrayList<>();
+
+        private final Quarantine.FileRejects rejects;
+
+        private final AtomicInteger remainingRanges;
+
+        private volatile ProductBatch[] partials;
+
+        private volatile boolean failed;
+
+        private volatile boolean skipped;
+
+        /**
+         * @param segment segment the file is read from, null if it is read from the CSV
+         * @param rejects rejected rows of the file, null if they are not quarantined
+         */
+        private FileResult(int fileId, BasicFileAttributes attributes, int rangesCount,
+                           List<PartialResultCache.Key> cacheKeys, Segment segment, SortKeyThreshold[] thresholds,
+                           FileMetrics metrics, Quarantine.FileRejects rejects) {
+            this.fileId = fileId;
+            this.attributes = attributes;
+            this.rangesCount = rangesCount;
+            this.cacheKeys = cacheKeys;
+            this.segment = segment;
+            this.thresholds = thresholds;
+            this.metrics = metrics;
+            this.rejects = rejects;
+            for (int i = 0; i < thresholds.length; i++) {
+                reducers.add(new PartialResultReducer<>());
+            }
+            this.remainingRanges = new AtomicInteger(rangesCount);
+        }
+    }
+}
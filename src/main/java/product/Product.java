@@ -1,5 +1,11 @@
 package product;
 
+import csv.CSVOutput;
+import csv.CSVRow;
+import csv.FieldParser;
+import csv.RowStatus;
+
+import java.io.IOException;
 import java.util.List;
 import java.util.Objects;
 
@@ -66,47 +72,67 @@ public final class Product {
      * @throws IllegalArgumentException if data is incorrect
      */
     public static Product fromRaw(String[] data) {
-        if (data.length != 5) {
-            throw new IllegalArgumentException("data length must be 5");
-        }
-        int productId;
-        try {
-            productId = Integer.parseInt(checkNull(data[0]));
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException(e);
+        RowStatus status = validate(data);
+        if (status != RowStatus.VALID) {
+            throw new IllegalArgumentException(status.getDescription());
         }
-        String name = checkNull(data[1]);
-        String condition = data[2];
-        String state = data[3];
-        double price;
-        try {
-            price = Double.parseDouble(checkNull(data[4]));
-        } catch (NumberFormatException e) {
-            throw new IllegalArgumentException(e);
-        }
-
-        return new Product(productId, name, condition, state, price);
+        return fromValidRaw(data);
     }
 
+    /**
+     * @param ignoreInvalidRow true if an invalid row leaves a null in its place, false if it throws
+     * @throws IllegalArgumentException if a row is incorrect and invalid rows are not ignored
+     */
     public static Product[] fromRaw(List<String[]> data, boolean ignoreInvalidRow) {
         Product[] products = new Product[data.size()];
-
-        if (ignoreInvalidRow) {
-            try {
-                for (int i = 0; i < data.size(); i++) {
-                    products[i] = fromRaw(data.get(i));
-                }
-            } catch (IllegalArgumentException ignored) {
-            }
-        } else {
-            for (int i = 0; i < data.size(); i++) {
-                products[i] = fromRaw(data.get(i));
+        for (int i = 0; i < data.size(); i++) {
+            String[] row = data.get(i);
+            if (!ignoreInvalidRow) {
+                products[i] = fromRaw(row);
+            } else if (validate(row) == RowStatus.VALID) {
+                products[i] = fromValidRaw(row);
             }
         }
-
         return products;
     }
 
+    /**
+     * Checks the fields of a raw row without throwing, a valid row is converted by {@link #fromValidRaw(String[])}.
+     */
+    public static RowStatus validate(String[] data) {
+        if (data.length != 5 || data[1] == null || data[4] == null) {
+            return RowStatus.WRONG_FIELD_COUNT;
+        }
+        if (FieldParser.parseInt(data[0]) == FieldParser.NOT_AN_INT) {
+            return RowStatus.MALFORMED_ID;
+        }
+        if (!FieldParser.isDecimal(data[4])) {
+            return RowStatus.MALFORMED_PRICE;
+        }
+        return RowStatus.VALID;
+    }
+
+    /**
+     * @param data row which is {@link RowStatus#VALID}
+     */
+    public static Product fromValidRaw(String[] data) {
+        return new Product((int) FieldParser.parseInt(data[0]), data[1], data[2], data[3],
+                Double.parseDouble(data[4]));
+    }
+
+    /**
+     * @throws IllegalArgumentException if row is incorrect
+     */
+    public static Product fromRow(CSVRow row) {
+        if (row.getFieldCount() != 5) {
+            throw new IllegalArgumentException("row must have 5 fields");
+        }
+        int productId = row.parseInt(0);
+        double price = row.parseDouble(4);
+
+        return new Product(productId, row.getString(1), row.getString(2), row.getString(3), price);
+    }
+
     public String[] toRaw() {
         String[] data = new String[5];
         data[0] = String.valueOf(this.productId);
@@ -117,11 +143,14 @@ public final class Product {
         return data;
     }
 
-    private static <T> T checkNull(T o) {
-        if (o == null) {
-            throw new IllegalArgumentException();
-        }
-
-        return o;
+    /**
+     * Writes the fields of the product in the order of {@link #toRaw()} without creating their strings.
+     */
+    public void writeTo(CSVOutput output) throws IOException {
+        output.field(productId);
+        output.field(name);
+        output.field(condition);
+        output.field(state);
+        output.field(price);
     }
 }
@@ -0,0 +1,605 @@
+package product;
+
+import csv.CSVRow;
+import query.TextDictionary;
+import segment.SegmentBlock;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Struct-of-arrays block of products: ids and prices are kept in primitive arrays and the text columns as UTF-8 bytes
+ * in one shared buffer, so a batch is a handful of arrays regardless of the number of rows.
+ * Rows are turned into {@link Product} only by {@link #toProduct(int)}.
+ * <p>
+ * Conditions and states have few distinct values, so rows keep them as codes of the process-wide dictionaries
+ * {@link #CONDITIONS} and {@link #STATES} and decode them to the shared strings of the dictionaries. Once a
+ * dictionary holds {@link #MAX_DICTIONARY_SIZE} values, rows with new values keep their bytes in the text buffer.
+ * <p>
+ * Every row also has the sort key and the limit group of the query it is collected for, e.g. its price and id for
+ * the cheapest products with at most M products per id.
+ * <p>
+ * Candidate rows added by {@link #addCandidate(int, double, double, int, int, long)} keep no text at all, just the
+ * location of the row in its source file, and have to be re-read from the file to be materialized.
+ */
+public final class ProductBatch {
+
+    private static final int NAME = 0;
+    private static final int CONDITION = 1;
+    private static final int STATE = 2;
+    private static final int END = 3;
+    private static final int BOUNDS_PER_ROW = 4;
+
+    private static final int INSERTION_SORT_THRESHOLD = 16;
+
+    static final int MAX_DICTIONARY_SIZE = 1 << 16;
+
+    static final TextDictionary CONDITIONS = new TextDictionary();
+
+    static final TextDictionary STATES = new TextDictionary();
+
+    private int size;
+
+    private int[] ids;
+
+    private double[] prices;
+
+    private double[] keys;
+
+    private int[] groups;
+
+    private int[] fileIds;
+
+    private long[] offsets;
+
+    private int[] conditionCodes;
+
+    private int[] stateCodes;
+
+    private int[] textBounds;
+
+    private byte[] text;
+
+    private int textSize;
+
+    public ProductBatch(int capacity) {
+        this.ids = new int[capacity];
+        this.prices = new double[capacity];
+        this.keys = new double[capacity];
+        this.groups = new int[capacity];
+        this.fileIds = new int[capacity];
+        this.offsets = new long[capacity];
+        this.conditionCodes = new int[capacity];
+        this.stateCodes = new int[capacity];
+        this.textBounds = new int[0];
+        this.text = new byte[0];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return ids.length;
+    }
+
+    public boolean isFull() {
+        return size == ids.length;
+    }
+
+    public void clear() {
+        size = 0;
+        textSize = 0;
+    }
+
+    public int getId(int index) {
+        return ids[index];
+    }
+
+    public double getPrice(int index) {
+        return prices[index];
+    }
+
+    /**
+     * @return sort key, rows of merged batches are ordered by it ascending
+     */
+    public double getKey(int index) {
+        return keys[index];
+    }
+
+    /**
+     * @return value of the limit column, e.g. the id or a dictionary code of a text column
+     */
+    public int getGroup(int index) {
+        return groups[index];
+    }
+
+    public void setGroup(int index, int group) {
+        groups[index] = group;
+    }
+
+    /**
+     * @return index of the source file of a candidate row, -1 if unknown
+     */
+    public int getFileId(int index) {
+        return fileIds[index];
+    }
+
+    /**
+     * @return position of a candidate row in its source file, -1 if unknown
+     */
+    public long getOffset(int index) {
+        return offsets[index];
+    }
+
+    public String getName(int index) {
+        return decode(index, NAME);
+    }
+
+    public String getCondition(int index) {
+        return decode(index, CONDITION);
+    }
+
+    public String getState(int index) {
+        return decode(index, STATE);
+    }
+
+    /**
+     * Adds a row whose id and price are already parsed, only the name bytes and the condition and state codes are
+     * copied.
+     *
+     * @param condition code of the condition in {@link #CONDITIONS}, -1 to copy its bytes instead
+     * @param state     code of the state in {@link #STATES}, -1 to copy its bytes instead
+     * @throws IllegalArgumentException if row doesn't have 5 fields
+     */
+    void add(int id, double price, double key, int group, CSVRow row, int condition, int state) {
+        if (row.getFieldCount() != 5) {
+            throw new IllegalArgumentException("row must have 5 fields");
+        }
+        int nameLength = row.getFieldLength(1);
+        int conditionLength = condition < 0 ? row.getFieldLength(2) : 0;
+        int stateLength = state < 0 ? row.getFieldLength(3) : 0;
+
+        int offset = beginRow(id, price, key, group, -1, -1, nameLength + conditionLength + stateLength);
+        row.copyField(1, text, offset);
+        if (condition < 0) {
+            row.copyField(2, text, offset + nameLength);
+        }
+        if (state < 0) {
+            row.copyField(3, text, offset + nameLength + conditionLength);
+        }
+        endRow(offset, nameLength, conditionLength, stateLength, condition, state);
+    }
+
+    /**
+     * Adds a row of a segment block whose id and price are decoded already, only the name bytes and the condition
+     * and state codes are copied.
+     *
+     * @param condition code of the condition in {@link #CONDITIONS}, -1 to copy its bytes instead
+     * @param state     code of the state in {@link #STATES}, -1 to copy its bytes instead
+     */
+    void add(int id, double price, double key, int group, SegmentBlock block, int row, int condition, int state) {
+        int nameLength = block.getFieldLength(1, row);
+        int conditionLength = condition < 0 ? block.getFieldLength(2, row) : 0;
+        int stateLength = state < 0 ? block.getFieldLength(3, row) : 0;
+
+        int offset = beginRow(id, price, key, group, -1, -1, nameLength + conditionLength + stateLength);
+        block.copyField(1, row, text, offset);
+        if (condition < 0) {
+            block.copyField(2, row, text, offset + nameLength);
+        }
+        if (state < 0) {
+            block.copyField(3, row, text, offset + nameLength + conditionLength);
+        }
+        endRow(offset, nameLength, conditionLength, stateLength, condition, state);
+    }
+
+    /**
+     * Adds a product of the cheapest products query, sorted by price and limited per id.
+     */
+    public void add(Product product) {
+        add(product, product.getPrice(), product.getProductId());
+    }
+
+    public void add(Product product, double key, int group) {
+        byte[] name = encode(product.getName());
+        int conditionCode = CONDITIONS.code(nonNull(product.getCondition()), MAX_DICTIONARY_SIZE);
+        int stateCode = STATES.code(nonNull(product.getState()), MAX_DICTIONARY_SIZE);
+        byte[] condition = conditionCode < 0 ? encode(product.getCondition()) : new byte[0];
+        byte[] state = stateCode < 0 ? encode(product.getState()) : new byte[0];
+
+        int offset = beginRow(product.getProductId(), product.getPrice(), key, group, -1, -1,
+                name.length + condition.length + state.length);
+        System.arraycopy(name, 0, text, offset, name.length);
+        System.arraycopy(condition, 0, text, offset + name.length, condition.length);
+        System.arraycopy(state, 0, text, offset + name.length + condition.length, state.length);
+        endRow(offset, name.length, condition.length, state.length, conditionCode, stateCode);
+    }
+
+    /**
+     * Adds a row without text columns, its name, condition and state are empty until it is re-read from the file.
+     */
+    public void addCandidate(int id, double price, double key, int group, int fileId, long offset) {
+        int textOffset = beginRow(id, price, key, group, fileId, offset, 0);
+        endRow(textOffset, 0, 0, 0, -1, -1);
+    }
+
+    /**
+     * Copies row {@code index} of {@code source} to the end of this batch.
+     */
+    public void add(ProductBatch source, int index) {
+        if (source.textBounds.length == 0) {
+            addCandidate(source.ids[index], source.prices[index], source.keys[index], source.groups[index],
+                    source.fileIds[index], source.offsets[index]);
+            return;
+        }
+        int bounds = index * BOUNDS_PER_ROW;
+        int start = source.textBounds[bounds + NAME];
+        int length = source.textBounds[bounds + END] - start;
+
+        int offset = beginRow(source.ids[index], source.prices[index], source.keys[index], source.groups[index],
+                source.fileIds[index], source.offsets[index], length);
+        System.arraycopy(source.text, start, text, offset, length);
+        endRow(offset,
+                source.textBounds[bounds + CONDITION] - start,
+                source.textBounds[bounds + STATE] - source.textBounds[bounds + CONDITION],
+                source.textBounds[bounds + END] - source.textBounds[bounds + STATE],
+                source.conditionCodes[index], source.stateCodes[index]);
+    }
+
+    public Product toProduct(int index) {
+        return new Product(ids[index], getName(index), getCondition(index), getState(index), prices[index]);
+    }
+
+    public List<Product> toProducts() {
+        List<Product> products = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            products.add(toProduct(i));
+        }
+        return products;
+    }
+
+    /**
+     * @return copy of this batch with arrays trimmed to its size
+     */
+    public ProductBatch compact() {
+        ProductBatch copy = new ProductBatch(0);
+        copy.size = size;
+        copy.ids = Arrays.copyOf(ids, size);
+        copy.prices = Arrays.copyOf(prices, size);
+        copy.keys = Arrays.copyOf(keys, size);
+        copy.groups = Arrays.copyOf(groups, size);
+        copy.fileIds = Arrays.copyOf(fileIds, size);
+        copy.offsets = Arrays.copyOf(offsets, size);
+        copy.conditionCodes = Arrays.copyOf(conditionCodes, size);
+        copy.stateCodes = Arrays.copyOf(stateCodes, size);
+        copy.textBounds = textBounds.length == 0 ? textBounds : Arrays.copyOf(textBounds, size * BOUNDS_PER_ROW);
+        copy.text = Arrays.copyOf(text, textSize);
+        copy.textSize = textSize;
+        return copy;
+    }
+
+    /**
+     * Moves all rows to another source file, used when a batch of one file is loaded in a run with a different file order.
+     */
+    public void assignFileId(int fileId) {
+        Arrays.fill(fileIds, 0, size, fileId);
+    }
+
+    /**
+     * Writes the batch with condition and state codes replaced by their bytes, so the written batch does not depend
+     * on the dictionaries of this process.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < size; i++) {
+            out.writeInt(ids[i]);
+            out.writeDouble(prices[i]);
+            out.writeDouble(keys[i]);
+            out.writeInt(groups[i]);
+            out.writeInt(fileIds[i]);
+            out.writeLong(offsets[i]);
+        }
+
+        boolean hasText = textBounds.length > 0;
+        out.writeBoolean(hasText);
+        if (hasText) {
+            int end = 0;
+            for (int i = 0; i < size; i++) {
+                out.writeInt(end);
+                end += fieldLength(i, NAME);
+                out.writeInt(end);
+                end += fieldLength(i, CONDITION);
+                out.writeInt(end);
+                end += fieldLength(i, STATE);
+                out.writeInt(end);
+            }
+            out.writeInt(end);
+            for (int i = 0; i < size; i++) {
+                writeField(i, NAME, out);
+                writeField(i, CONDITION, out);
+                writeField(i, STATE, out);
+            }
+        }
+    }
+
+    /**
+     * @return batch written by {@link #writeTo(DataOutput)}, its capacity equals its size and its conditions and
+     * states are kept as bytes
+     */
+    public static ProductBatch readFrom(DataInput in) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
+            throw new IOException("Invalid batch size: " + size);
+        }
+
+        ProductBatch batch = new ProductBatch(size);
+        for (int i = 0; i < size; i++) {
+            batch.ids[i] = in.readInt();
+            batch.prices[i] = in.readDouble();
+            batch.keys[i] = in.readDouble();
+            batch.groups[i] = in.readInt();
+            batch.fileIds[i] = in.readInt();
+            batch.offsets[i] = in.readLong();
+        }
+
+        if (in.readBoolean()) {
+            batch.textBounds = new int[size * BOUNDS_PER_ROW];
+            for (int i = 0; i < batch.textBounds.length; i++) {
+                batch.textBounds[i] = in.readInt();
+            }
+            batch.textSize = in.readInt();
+            batch.text = new byte[batch.textSize];
+            in.readFully(batch.text);
+        }
+        Arrays.fill(batch.conditionCodes, -1);
+        Arrays.fill(batch.stateCodes, -1);
+        batch.size = size;
+        return batch;
+    }
+
+    /**
+     * Fills {@code order} with row indexes sorted by key ascending, the rows themselves are not moved.
+     *
+     * @param sortKeys scratch array of at least {@link #size()} length
+     */
+    public void sortByKey(int[] order, double[] sortKeys) {
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        System.arraycopy(keys, 0, sortKeys, 0, size);
+        sort(sortKeys, order, 0, size - 1);
+    }
+
+    /**
+     * Fills {@code order} with row indexes sorted by group and by key within a group, the rows are not moved.
+     *
+     * @param scratch scratch array of at least {@link #size()} length
+     */
+    public void sortByGroupAndKey(int[] order, int[] scratch) {
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        int[] source = order;
+        int[] target = scratch;
+        for (int width = 1; width < size; width *= 2) { // bottom-up merge sort, stable and without boxing
+            for (int low = 0; low < size; low += 2 * width) {
+                int middle = Math.min(low + width, size);
+                int high = Math.min(low + 2 * width, size);
+                int left = low;
+                int right = middle;
+                for (int i = low; i < high; i++) {
+                    if (left < middle && (right >= high || compareGroupAndKey(source[left], source[right]) <= 0)) {
+                        target[i] = source[left++];
+                    } else {
+                        target[i] = source[right++];
+                    }
+                }
+            }
+            int[] temp = source;
+            source = target;
+            target = temp;
+        }
+        if (source != order) {
+            System.arraycopy(source, 0, order, 0, size);
+        }
+    }
+
+    /**
+     * Writes row {@code index} as a self-contained record which {@link #readRow(DataInput)} appends to a batch.
+     */
+    void writeRow(int index, DataOutput out) throws IOException {
+        out.writeInt(ids[index]);
+        out.writeDouble(prices[index]);
+        out.writeDouble(keys[index]);
+        out.writeInt(groups[index]);
+        out.writeInt(fileIds[index]);
+        out.writeLong(offsets[index]);
+        if (textBounds.length == 0) {
+            out.writeInt(0);
+            out.writeInt(0);
+            out.writeInt(0);
+            return;
+        }
+        out.writeInt(fieldLength(index, NAME));
+        out.writeInt(fieldLength(index, CONDITION));
+        out.writeInt(fieldLength(index, STATE));
+        writeField(index, NAME, out);
+        writeField(index, CONDITION, out);
+        writeField(index, STATE, out);
+    }
+
+    /**
+     * Appends a row written by {@link #writeRow(int, DataOutput)}.
+     */
+    void readRow(DataInput in) throws IOException {
+        int id = in.readInt();
+        double price = in.readDouble();
+        double key = in.readDouble();
+        int group = in.readInt();
+        int fileId = in.readInt();
+        long offset = in.readLong();
+        int nameLength = in.readInt();
+        int conditionLength = in.readInt();
+        int stateLength = in.readInt();
+        if ((nameLength | conditionLength | stateLength) < 0) {
+            throw new IOException("Invalid row text lengths");
+        }
+
+        int textOffset = beginRow(id, price, key, group, fileId, offset, nameLength + conditionLength + stateLength);
+        in.readFully(text, textOffset, nameLength + conditionLength + stateLength);
+        endRow(textOffset, nameLength, conditionLength, stateLength, -1, -1);
+    }
+
+    private int compareGroupAndKey(int first, int second) {
+        int comparison = Integer.compare(groups[first], groups[second]);
+        return comparison != 0 ? comparison : Double.compare(keys[first], keys[second]);
+    }
+
+    private int beginRow(int id, double price, double key, int group, int fileId, long offset, int textLength) {
+        if (size == ids.length) {
+            throw new IllegalStateException("Batch is full");
+        }
+        if (textSize + textLength > text.length) {
+            text = Arrays.copyOf(text, Math.max(text.length * 2, textSize + textLength));
+        }
+        ids[size] = id;
+        prices[size] = price;
+        keys[size] = key;
+        groups[size] = group;
+        fileIds[size] = fileId;
+        offsets[size] = offset;
+        return textSize;
+    }
+
+    private void endRow(int offset, int nameLength, int conditionLength, int stateLength, int condition, int state) {
+        conditionCodes[size] = condition;
+        stateCodes[size] = state;
+        if (textBounds.length == 0) {
+            if (nameLength + conditionLength + stateLength == 0 && condition < 0 && state < 0) {
+                // batches of candidates never allocate text bounds
+                size++;
+                return;
+            }
+            textBounds = new int[ids.length * BOUNDS_PER_ROW];
+        }
+        int bounds = size * BOUNDS_PER_ROW;
+        textBounds[bounds + NAME] = offset;
+        textBounds[bounds + CONDITION] = offset + nameLength;
+        textBounds[bounds + STATE] = offset + nameLength + conditionLength;
+        textBounds[bounds + END] = offset + nameLength + conditionLength + stateLength;
+        textSize = textBounds[bounds + END];
+        size++;
+    }
+
+    private String decode(int index, int column) {
+        if (textBounds.length == 0) {
+            return "";
+        }
+        int code = code(index, column);
+        if (code >= 0) {
+            return dictionary(column).value(code);
+        }
+        int start = textBounds[index * BOUNDS_PER_ROW + column];
+        int end = textBounds[index * BOUNDS_PER_ROW + column + 1];
+        return new String(text, start, end - start, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return dictionary code of the condition or the state of the row, -1 if the row keeps its bytes
+     */
+    private int code(int index, int column) {
+        if (column == CONDITION) {
+            return conditionCodes[index];
+        }
+        return column == STATE ? stateCodes[index] : -1;
+    }
+
+    private static TextDictionary dictionary(int column) {
+        return column == CONDITION ? CONDITIONS : STATES;
+    }
+
+    private int fieldLength(int index, int column) {
+        int code = code(index, column);
+        if (code >= 0) {
+            return dictionary(column).bytes(code).length;
+        }
+        return textBounds[index * BOUNDS_PER_ROW + column + 1] - textBounds[index * BOUNDS_PER_ROW + column];
+    }
+
+    private void writeField(int index, int column, DataOutput out) throws IOException {
+        int code = code(index, column);
+        if (code >= 0) {
+            out.write(dictionary(column).bytes(code));
+        } else {
+            int start = textBounds[index * BOUNDS_PER_ROW + column];
+            out.write(text, start, textBounds[index * BOUNDS_PER_ROW + column + 1] - start);
+        }
+    }
+
+    private static String nonNull(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void sort(double[] keys, int[] order, int low, int high) {
+        while (high - low > INSERTION_SORT_THRESHOLD) {
+            double pivot = medianOfThree(keys[low], keys[(low + high) >>> 1], keys[high]);
+            int i = low;
+            int j = high;
+            while (i <= j) {
+                while (keys[i] < pivot) {
+                    i++;
+                }
+                while (keys[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(keys, order, i++, j--);
+                }
+            }
+
+            if (j - low < high - i) { // recurse into the smaller part to bound the stack depth
+                sort(keys, order, low, j);
+                low = i;
+            } else {
+                sort(keys, order, i, high);
+                high = j;
+            }
+        }
+
+        for (int i = low + 1; i <= high; i++) {
+            double key = keys[i];
+            int index = order[i];
+            int j = i - 1;
+            while (j >= low && keys[j] > key) {
+                keys[j + 1] = keys[j];
+                order[j + 1] = order[j];
+                j--;
+            }
+            keys[j + 1] = key;
+            order[j + 1] = index;
+        }
+    }
+
+    private static double medianOfThree(double a, double b, double c) {
+        return Math.max(Math.min(a, b), Math.min(Math.max(a, b), c));
+    }
+
+    private static void swap(double[] keys, int[] order, int i, int j) {
+        double key = keys[i];
+        keys[i] = keys[j];
+        keys[j] = key;
+        int index = order[i];
+        order[i] = order[j];
+        order[j] = index;
+    }
+}
@@ -0,0 +1,71 @@
+package product;
+
+/**
+ * Merges two batches sorted by key ascending into the first {@code resultSize} products with no more than
+ * {@code duplicateMaxCount} products per group. Not thread-safe, the duplicate counter is reused between merges.
+ */
+final class ProductMerger {
+
+    private final int resultSize;
+
+    private final int duplicateMaxCount;
+
+    private final IntIntCounter productsCounter;
+
+    /**
+     * @param duplicateMaxCount {@link Integer#MAX_VALUE} if groups are not limited
+     */
+    ProductMerger(int resultSize, int duplicateMaxCount) {
+        this.resultSize = resultSize;
+        this.duplicateMaxCount = duplicateMaxCount;
+        this.productsCounter = new IntIntCounter(Math.min(resultSize, 1 << 16));
+    }
+
+    int getResultSize() {
+        return resultSize;
+    }
+
+    /**
+     * Rows of a batch are visited in the order of its permutation, {@code null} means the batch itself is sorted.
+     *
+     * @param result batch of at least {@code resultSize} capacity, must not be one of the merged batches
+     */
+    void merge(ProductBatch first, int[] firstOrder, ProductBatch second, int[] secondOrder, ProductBatch result) {
+        productsCounter.clear();
+        result.clear();
+
+        int firstCount = first.size();
+        int secondCount = second.size();
+        int firstIndex = 0;
+        int secondIndex = 0;
+
+        while (result.size() < resultSize) {
+            ProductBatch source;
+            int index;
+            if (firstIndex < firstCount) {
+                int firstRow = firstOrder == null ? firstIndex : firstOrder[firstIndex];
+                int secondRow = secondIndex < secondCount ? (secondOrder == null ? secondIndex : secondOrder[secondIndex]) : -1;
+                if (secondRow >= 0 && second.getKey(secondRow) < first.getKey(firstRow)) {
+                    source = second;
+                    index = secondRow;
+                    secondIndex++;
+                } else {
+                    source = first;
+                    index = firstRow;
+                    firstIndex++;
+                }
+            } else if (secondIndex < secondCount) {
+                source = second;
+                index = secondOrder == null ? secondIndex : secondOrder[secondIndex];
+                secondIndex++;
+            } else {
+                break;
+            }
+
+            if (duplicateMaxCount == Integer.MAX_VALUE
+                    || productsCounter.incrementIfBelow(source.getGroup(index), duplicateMaxCount)) {
+                result.add(source, index);
+            }
+        }
+    }
+}
@@ -1,154 +1,310 @@
 package product;
 
-import csv.CSVReader;
+import csv.MappedCSVReader;
+import csv.Quarantine;
+import main.FileDiscovery;
 import main.Params;
+import main.Query;
+import metrics.ProgressReporter;
+import metrics.RunMetrics;
+import segment.SegmentStore;
 
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import java.util.concurrent.*;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 public final class ProductService {
 
-    private static final Comparator<Product> PRICE_ASCENDING_COMPARATOR = Comparator.comparingDouble(Product::getPrice);
-    private static final Comparator<Product> PRICE_DESCENDING_COMPARATOR = Comparator.comparingDouble(Product::getPrice).reversed();
-
+    /**
+     * @return result of the first query of the params
+     */
     public List<Product> getCheapestProducts(List<Path> csvFiles, Params params) {
+        return getQueryResults(csvFiles, params).get(0);
+    }
+
+    /**
+     * Answers all queries of the params by a single scan of the files.
+     *
+     * @return results in the order of {@link Params#getQueries()}
+     */
+    public List<List<Product>> getQueryResults(List<Path> csvFiles, Params params) {
+        List<List<Product>> results = new ArrayList<>();
+        for (ResultStream stream : streamQueryResults(csvFiles, params)) {
+            List<Product> products = new ArrayList<>();
+            try (stream) {
+                stream.forEachRemaining(products::add);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            results.add(products);
+        }
+        return results;
+    }
+
+    /**
+     * Answers all queries of the params by a single scan of the files. Results of the queries which are spilled by
+     * {@link Params#isSpilled(Query)} are merged from their runs while they are consumed, so they are never held in
+     * memory as a whole; the other results are in memory already.
+     * <p>
+     * With a {@link Params#getCheckpointFile()} the run resumes the checkpoint of an earlier run which has failed and
+     * skips its completed files, the checkpoint is deleted once the results are computed.
+     * <p>
+     * In {@link Params#isAnytime() anytime} mode snapshots of the results are written while the run goes on and the
+     * run stops once its time or byte budget is spent, results then cover the files completed so far and are
+     * {@link ResultStream#isPartial() partial}.
+     *
+     * @return results in the order of {@link Params#getQueries()}, every one of them must be closed
+     */
+    public List<ResultStream> streamQueryResults(List<Path> csvFiles, Params params) {
         if (csvFiles.isEmpty()) {
             throw new IllegalArgumentException("Must be least one file");
         }
-        List<Path> files = List.copyOf(csvFiles);
-
-        ExecutorService processors = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
-
-        BlockingQueue<Product[]> processedProducts = new LinkedBlockingQueue<>();
+        return streamQueryResults(List.copyOf(csvFiles), null, params);
+    }
 
-        int actionsCount = files.size() + 1;
-        CountDownLatch processedActions = new CountDownLatch(actionsCount);
-        files.forEach(path -> processors.submit(() -> {
-            try {
-                CSVReader parser = new CSVReader(new FileReader(path.toString()), params.getDelimiter(), params.getProductResultRowsCount());
+    /**
+     * Answers all queries of the params by a single scan of the files of the discovery as
+     * {@link #streamQueryResults(List, Params)} does, files are read while the directory tree is still listed.
+     *
+     * @return results in the order of {@link Params#getQueries()}, empty if no file is discovered, every one of them
+     * must be closed
+     */
+    public List<ResultStream> streamQueryResults(FileDiscovery discovery, Params params) {
+        return streamQueryResults(List.of(), discovery, params);
+    }
 
-                Deque<Product[]> productsQueue = new LinkedList<>();
+    /**
+     * @param discovery discovery of the files which are appended to the files, null if there is none
+     */
+    private List<ResultStream> streamQueryResults(List<Path> files, FileDiscovery discovery, Params params) {
+        PartialResultCache cache = createCache(params);
+        RunMetrics metrics = new RunMetrics(files.size());
+        SpillRuns[] spills = createSpills(params);
 
-                Iterator<List<String[]>> iterator = parser.iterator();
-                if (iterator.hasNext()) { // read first portion
-                    List<String[]> rows = iterator.next();
-                    Product[] products = Product.fromRaw(rows, true);
-                    Arrays.sort(products, PRICE_DESCENDING_COMPARATOR);
-                    productsQueue.addLast(products);
+        List<ResultStream> results = new ArrayList<>();
+        ProgressReporter progress = startProgress(metrics, params);
+        try (Quarantine quarantine = createQuarantine(params);
+             Checkpoint checkpoint = createCheckpoint(params)) {
+            SortKeyThreshold[] thresholds = newThresholds(params);
+            if (checkpoint != null && checkpoint.getCompletedCount() > 0) {
+                checkpoint.publish(thresholds);
+                System.out.println(String.format("Resuming from checkpoint %s, %s files are completed already",
+                        params.getCheckpointFile(), checkpoint.getCompletedCount()));
+            }
+            ProcessingRun run = new ProcessingRun(files, 0, params, cache, thresholds, spills, metrics, quarantine,
+                    checkpoint);
+            ProductBatch[] batches = discovery == null ? run.execute() : run.execute(discovery);
+            evict(cache);
+            List<Path> runFiles = run.getFiles();
+            ResultCoverage coverage = run.getCoverage();
+            for (int i = 0; i < batches.length; i++) {
+                if (spills[i] != null) {
+                    results.add(spills[i].open());
+                } else {
+                    results.add(ResultStream.of(toProducts(batches[i], runFiles, params, metrics))
+                            .withCoverage(coverage));
                 }
+            }
+            if (checkpoint != null) {
+                checkpoint.delete();
+            }
+        } catch (IOException e) {
+            closeSpills(spills);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            closeSpills(spills);
+            throw e;
+        } finally {
+            if (progress != null) {
+                progress.close();
+            }
+        }
 
-                while (iterator.hasNext()) { // read remaining portions and merge with existing
-                    List<String[]> rows = iterator.next();
-                    Product[] products = Product.fromRaw(rows, true);
-                    Arrays.sort(products, PRICE_DESCENDING_COMPARATOR);
-                    productsQueue.addLast(products);
+        writeMetrics(metrics, params);
+        return results;
+    }
 
-                    Product[] products1 = productsQueue.removeFirst();
-                    Product[] products2 = productsQueue.removeFirst();
-                    Product[] mergedArray = mergeArrays(products1, products2, params.getProductResultRowsCount(), params.getDuplicateProductsMaxCount());
-                    productsQueue.addLast(mergedArray);
+    /**
+     * Converts every CSV file without a valid segment into a segment, files are converted in parallel.
+     *
+     * @return number of the written segments
+     */
+    public int ingest(List<Path> csvFiles, Params params) {
+        SegmentStore segments = createSegmentStore(params);
+        ExecutorService executor = Executors.newFixedThreadPool(params.getCpuThreads());
+        try {
+            List<Future<Boolean>> futures = new ArrayList<>(csvFiles.size());
+            for (Path file : csvFiles) {
+                futures.add(executor.submit(() -> segments.ingest(file, params.getDelimiter())));
+            }
+
+            int written = 0;
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    if (futures.get(i).get()) {
+                        written++;
+                    }
+                } catch (ExecutionException e) {
+                    System.err.println(String.format("Failed to ingest %s: %s", csvFiles.get(i), e.getCause()));
                 }
+            }
+            return written;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
 
-                processedProducts.put(productsQueue.removeFirst());
+    static SortKeyThreshold[] newThresholds(Params params) {
+        SortKeyThreshold[] thresholds = new SortKeyThreshold[params.getQueries().size()];
+        Arrays.setAll(thresholds, i -> new SortKeyThreshold());
+        return thresholds;
+    }
 
-            } catch (Throwable e) {
-                throw new RuntimeException(e);
-            } finally {
-                processedActions.countDown();
-            }
-        }));
+    /**
+     * @return null if progress reporting is disabled
+     */
+    static ProgressReporter startProgress(RunMetrics metrics, Params params) {
+        return params.isProgress() ? new ProgressReporter(metrics) : null;
+    }
 
-        Thread mergerThread = new Thread(() -> {
+    /**
+     * Finishes the run metrics and writes their summary to the metrics file if there is one.
+     */
+    static void writeMetrics(RunMetrics metrics, Params params) {
+        metrics.finish();
+        if (params.getMetricsFile() != null) {
             try {
-                int mergesCount = files.size() - 1;
-                for (int i = 0; i < mergesCount; i++) {
-                    Product[] products1 = processedProducts.take();
-                    Product[] products2 = processedProducts.take();
+                Files.writeString(Path.of(params.getMetricsFile()), metrics.toJson(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                System.err.println("Failed to write metrics: " + e);
+            }
+        }
+    }
+
+    /**
+     * @return spill runs in the order of {@link Params#getQueries()}, null for queries collected in memory
+     */
+    static SpillRuns[] createSpills(Params params) {
+        List<Query> queries = params.getQueries();
+        SpillRuns[] spills = new SpillRuns[queries.size()];
+        try {
+            for (int i = 0; i < spills.length; i++) {
+                Query query = queries.get(i);
+                if (params.isSpilled(query)) {
+                    spills[i] = new SpillRuns(Path.of(params.getSpillDirectory()), query.getProductResultRowsCount(),
+                            query.getGroupMaxCount(), params.getSpillRunRows());
+                }
+            }
+        } catch (IOException e) {
+            closeSpills(spills);
+            throw new UncheckedIOException(e);
+        }
+        return spills;
+    }
 
-                    Product[] mergedArray = mergeArrays(products1, products2, params.getProductResultRowsCount(), params.getDuplicateProductsMaxCount());
-                    processedProducts.put(mergedArray);
+    static void closeSpills(SpillRuns[] spills) {
+        for (SpillRuns spill : spills) {
+            if (spill != null) {
+                try {
+                    spill.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to delete spill runs: " + e);
                 }
-            } catch (Throwable e) {
-                throw new RuntimeException(e);
-            } finally {
-                processedActions.countDown();
             }
-        });
+        }
+    }
 
-        mergerThread.start();
+    /**
+     * @return null if rejected rows are not quarantined
+     */
+    private static Quarantine createQuarantine(Params params) throws IOException {
+        return params.getQuarantineFile() == null ? null : new Quarantine(Path.of(params.getQuarantineFile()));
+    }
 
-        try {
-            processedActions.await();
-            processors.shutdown();
-            Product[] result = processedProducts.take();
-            return Arrays.stream(result).filter(Objects::nonNull).sorted(PRICE_ASCENDING_COMPARATOR).collect(Collectors.toList());
-        } catch (InterruptedException e) {
-            throw new IllegalStateException(e);
+    /**
+     * @return null if checkpoints are disabled
+     */
+    private static Checkpoint createCheckpoint(Params params) throws IOException {
+        return params.getCheckpointFile() == null ? null : new Checkpoint(params);
+    }
+
+    static PartialResultCache createCache(Params params) {
+        if (params.getCacheDirectory() == null) {
+            return null;
         }
+        return new PartialResultCache(Path.of(params.getCacheDirectory()), params.getCacheMaxSize(), params.isCacheContentHash());
     }
 
-    private Product[] mergeArrays(Product[] firstArray, Product[] secondArray, int resultSize, int duplicateMaxCount) {
-        Map<Integer, Integer> productsCounter = new HashMap<>();
-        Product[] result = new Product[Math.min(firstArray.length + secondArray.length, resultSize)];
-
-        int firstIndex = firstArray.length - 1;
-        int secondIndex = secondArray.length - 1;
-        int insertionIndex = result.length - 1;
-
-        while (insertionIndex >= 0) {
-            if (firstIndex >= 0 && firstArray[firstIndex] != null) {
-                if (secondIndex >= 0 && secondArray[secondIndex] != null) {
-
-                    Product firstProduct = firstArray[firstIndex];
-                    Product secondProduct = secondArray[secondIndex];
-                    if (PRICE_DESCENDING_COMPARATOR.compare(firstProduct, secondProduct) > 0) {
-                        int productId = firstProduct.getProductId();
-                        Integer count = productsCounter.computeIfAbsent(productId, key -> 0);
-                        if (count < duplicateMaxCount) {
-                            result[insertionIndex--] = firstProduct;
-                            productsCounter.put(productId, count + 1);
-                        }
-                        firstIndex--;
-                    } else {
-                        int productId = secondProduct.getProductId();
-                        Integer count = productsCounter.computeIfAbsent(productId, key -> 0);
-                        if (count < duplicateMaxCount) {
-                            result[insertionIndex--] = secondProduct;
-                            productsCounter.put(productId, count + 1);
-                        }
-                        secondIndex--;
-                    }
-                } else {
-                    for (int i = firstIndex; i >= 0 && firstArray[i] != null; i--) {
-                        Product product = firstArray[i];
-                        int productId = product.getProductId();
-                        Integer count = productsCounter.computeIfAbsent(productId, key -> 0);
-                        if (count < duplicateMaxCount) {
-                            result[insertionIndex--] = product;
-                            productsCounter.put(productId, count + 1);
-                        }
-                    }
-                    break;
-                }
-            } else {
-                if (secondIndex >= 0 && secondArray[secondIndex] != null) {
-                    for (int i = secondIndex; i >= 0 && secondArray[i] != null; i--) {
-                        Product product = secondArray[i];
-                        int productId = product.getProductId();
-                        Integer count = productsCounter.computeIfAbsent(productId, key -> 0);
-                        if (count < duplicateMaxCount) {
-                            result[insertionIndex--] = product;
-                            productsCounter.put(productId, count + 1);
-                        }
-                    }
-                }
-                break;
+    /**
+     * @return null if segments are disabled
+     */
+    static SegmentStore createSegmentStore(Params params) {
+        if (params.getSegmentDirectory() == null) {
+            return null;
+        }
+        return new SegmentStore(Path.of(params.getSegmentDirectory()));
+    }
+
+    static void evict(PartialResultCache cache) {
+        if (cache != null) {
+            try {
+                cache.evict();
+            } catch (IOException e) {
+                System.err.println("Failed to evict partial results cache: " + e);
             }
         }
+    }
+
+    /**
+     * @param files files which the file ids of the batch refer to
+     */
+    static List<Product> toProducts(ProductBatch batch, List<Path> files, Params params) {
+        if (batch == null) {
+            return List.of();
+        }
+        return params.isLateMaterialization() ? materialize(batch, files, params) : batch.toProducts();
+    }
 
-        return result;
+    private static List<Product> toProducts(ProductBatch batch, List<Path> files, Params params, RunMetrics metrics) {
+        long start = System.nanoTime();
+        List<Product> products = toProducts(batch, files, params);
+        metrics.addMaterializeNanos(System.nanoTime() - start);
+        return products;
+    }
+
+    /**
+     * Re-reads the rows of candidates from their files, every file is mapped once and read in position order.
+     */
+    private static List<Product> materialize(ProductBatch candidates, List<Path> files, Params params) {
+        Map<Integer, List<Integer>> rowsByFile = new HashMap<>();
+        for (int i = 0; i < candidates.size(); i++) {
+            rowsByFile.computeIfAbsent(candidates.getFileId(i), key -> new ArrayList<>()).add(i);
+        }
+
+        Product[] products = new Product[candidates.size()];
+        for (Map.Entry<Integer, List<Integer>> entry : rowsByFile.entrySet()) {
+            List<Integer> rows = entry.getValue();
+            rows.sort(Comparator.comparingLong(candidates::getOffset));
+
+            long[] offsets = rows.stream().mapToLong(candidates::getOffset).toArray();
+            int[] position = new int[1];
+            try {
+                new MappedCSVReader(files.get(entry.getKey()), params.getDelimiter()).readAt(offsets, row ->
+                        products[rows.get(position[0]++)] = Product.fromRow(row));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return Arrays.asList(products);
     }
 }
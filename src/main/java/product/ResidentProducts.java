@@ -0,0 +1,207 @@
+package product;
+
+import main.Params;
+import main.Query;
+import segment.Segment;
+import segment.SegmentBlock;
+import segment.SegmentStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Valid rows of a set of files kept in memory as decoded segment blocks, so any number of queries is answered without
+ * reading the files again. Every file is converted into a segment once and its blocks are loaded, {@link #refresh}
+ * loads new and changed files and drops removed ones while running queries keep reading the previous snapshot.
+ * <p>
+ * A query visits the blocks in the order of the smallest sort key of their zone maps, so once a block can not reach
+ * the result none of the remaining blocks can, and a top-N query reads little more than the blocks of its result.
+ */
+public final class ResidentProducts {
+
+    private final Params params;
+
+    private final SegmentStore segments;
+
+    private volatile Snapshot snapshot = new Snapshot(0, new HashMap<>());
+
+    /**
+     * @param params params with a segment directory, segments of the files are written to it
+     */
+    public ResidentProducts(Params params) {
+        this.params = params;
+        this.segments = ProductService.createSegmentStore(params);
+    }
+
+    /**
+     * Loads the files which are new or have changed since the last refresh and drops the resident files which are not
+     * among the files anymore.
+     *
+     * @return true if the resident rows have changed
+     */
+    public synchronized boolean refresh(List<Path> files) {
+        Map<Path, ResidentFile> current = snapshot.files;
+        Map<Path, ResidentFile> next = new HashMap<>();
+        List<Path> changed = new ArrayList<>();
+        for (Path file : files) {
+            Path key = file.toAbsolutePath().normalize();
+            ResidentFile resident = current.get(key);
+            BasicFileAttributes attributes = attributesOf(file);
+            if (attributes == null) {
+                continue;
+            }
+            if (resident != null && resident.isCurrent(attributes)) {
+                next.put(key, resident);
+            } else {
+                changed.add(file);
+            }
+        }
+        if (changed.isEmpty() && next.size() == current.size()) {
+            return false;
+        }
+
+        new ProductService().ingest(changed, params);
+        for (Path file : changed) {
+            ResidentFile resident = load(file);
+            if (resident != null) {
+                next.put(file.toAbsolutePath().normalize(), resident);
+            }
+        }
+        snapshot = new Snapshot(snapshot.version + 1, next);
+        return true;
+    }
+
+    /**
+     * @return result of the query over the current snapshot, the query must not be shared by concurrent calls
+     */
+    public List<Product> query(Query query) {
+        Snapshot current = snapshot;
+        ScanCollector scan = new ScanCollector(List.of(query), params, new SpillRuns[1], false);
+        scan.reset(0, new SortKeyThreshold[]{new SortKeyThreshold()});
+
+        CheapestProductsCollector collector = scan.getCollector(0);
+        Integer[] order = new Integer[current.infos.length];
+        Arrays.setAll(order, i -> i);
+        Arrays.sort(order, Comparator.comparingDouble(i -> collector.minKey(current.infos[i])));
+        for (int block : order) {
+            if (!scan.read(current.infos[block], current.blocks[block])) {
+                break; // the blocks which follow have even greater keys
+            }
+        }
+        return scan.finish()[0].toProducts();
+    }
+
+    /**
+     * @return number of the refreshes which have changed the resident rows
+     */
+    public long getVersion() {
+        return snapshot.version;
+    }
+
+    public int getFilesCount() {
+        return snapshot.files.size();
+    }
+
+    public long getRowsCount() {
+        return snapshot.rows;
+    }
+
+    /**
+     * @return resident blocks of the file, null if it has changed since it was converted or its segment can not be read
+     */
+    private ResidentFile load(Path file) {
+        BasicFileAttributes attributes = attributesOf(file);
+        Segment segment = attributes == null ? null : segments.open(file, attributes, params.getDelimiter());
+        if (segment == null) {
+            System.err.println(String.format("Failed to load %s, retrying on the next refresh", file));
+            return null;
+        }
+        try (segment) {
+            Segment.Block[] infos = new Segment.Block[segment.getBlockCount()];
+            SegmentBlock[] blocks = new SegmentBlock[infos.length];
+            for (int i = 0; i < infos.length; i++) {
+                infos[i] = segment.getBlock(i);
+                blocks[i] = segment.load(i);
+            }
+            return new ResidentFile(attributes, infos, blocks);
+        } catch (IOException e) {
+            System.err.println(String.format("Failed to load %s: %s", file, e));
+            return null;
+        }
+    }
+
+    /**
+     * @return null if the file is gone
+     */
+    private static BasicFileAttributes attributesOf(Path file) {
+        try {
+            return Files.readAttributes(file, BasicFileAttributes.class);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static final class ResidentFile {
+
+        private final long size;
+
+        private final long lastModified;
+
+        private final Segment.Block[] infos;
+
+        private final SegmentBlock[] blocks;
+
+        private ResidentFile(BasicFileAttributes attributes, Segment.Block[] infos, SegmentBlock[] blocks) {
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.infos = infos;
+            this.blocks = blocks;
+        }
+
+        private boolean isCurrent(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis();
+        }
+    }
+
+    /**
+     * Immutable set of resident files with their blocks flattened for queries.
+     */
+    private static final class Snapshot {
+
+        private final long version;
+
+        private final Map<Path, ResidentFile> files;
+
+        private final Segment.Block[] infos;
+
+        private final SegmentBlock[] blocks;
+
+        private final long rows;
+
+        private Snapshot(long version, Map<Path, ResidentFile> files) {
+            this.version = version;
+            this.files = files;
+            List<Segment.Block> infos = new ArrayList<>();
+            List<SegmentBlock> blocks = new ArrayList<>();
+            long rows = 0;
+            for (ResidentFile file : files.values()) {
+                infos.addAll(Arrays.asList(file.infos));
+                blocks.addAll(Arrays.asList(file.blocks));
+                for (SegmentBlock block : file.blocks) {
+                    rows += block.size();
+                }
+            }
+            this.infos = infos.toArray(new Segment.Block[0]);
+            this.blocks = blocks.toArray(new SegmentBlock[0]);
+            this.rows = rows;
+        }
+    }
+}
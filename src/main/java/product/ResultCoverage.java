@@ -0,0 +1,96 @@
+package product;
+
+/**
+ * Files and bytes which the results of a run cover. Snapshots taken while the run goes on and the results of a run
+ * which has stopped on its time or byte budget cover only the files completed by then and are partial.
+ */
+public final class ResultCoverage {
+
+    private final int filesCount;
+
+    private final int completedFiles;
+
+    private final long bytes;
+
+    private final long completedBytes;
+
+    private final long elapsedMillis;
+
+    private final boolean partial;
+
+    ResultCoverage(int filesCount, int completedFiles, long bytes, long completedBytes, long elapsedMillis,
+                   boolean partial) {
+        this.filesCount = filesCount;
+        this.completedFiles = completedFiles;
+        this.bytes = bytes;
+        this.completedBytes = completedBytes;
+        this.elapsedMillis = elapsedMillis;
+        this.partial = partial;
+    }
+
+    /**
+     * @return number of the files of the run, including the ones which were never read
+     */
+    public int getFilesCount() {
+        return filesCount;
+    }
+
+    public int getCompletedFiles() {
+        return completedFiles;
+    }
+
+    /**
+     * @return size of all files of the run
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return size of the completed files
+     */
+    public long getCompletedBytes() {
+        return completedBytes;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return true if the results do not cover every file of the run
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public double getFilesFraction() {
+        return filesCount == 0 ? 1 : (double) completedFiles / filesCount;
+    }
+
+    public double getBytesFraction() {
+        return bytes == 0 ? 1 : (double) completedBytes / bytes;
+    }
+
+    /**
+     * @return e.g. {@code 3/8 files, 41.2% of bytes}
+     */
+    public String describe() {
+        return String.format("%s/%s files, %.1f%% of bytes", completedFiles, filesCount, getBytesFraction() * 100);
+    }
+
+    /**
+     * @param snapshot name of the snapshot directory which holds the results
+     */
+    String toJson(String snapshot) {
+        return "{\n"
+                + "  \"snapshot\": \"" + snapshot + "\",\n"
+                + "  \"files\": " + filesCount + ",\n"
+                + "  \"completedFiles\": " + completedFiles + ",\n"
+                + "  \"bytes\": " + bytes + ",\n"
+                + "  \"completedBytes\": " + completedBytes + ",\n"
+                + "  \"elapsedMillis\": " + elapsedMillis + ",\n"
+                + "  \"partial\": " + partial + "\n"
+                + "}\n";
+    }
+}
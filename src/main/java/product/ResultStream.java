@@ -0,0 +1,78 @@
+package product;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Result of one query in order, either held in memory or merged from spilled runs while it is consumed. Must be
+ * closed, closing deletes the spilled runs of the result.
+ */
+public final class ResultStream implements Iterator<Product>, Closeable {
+
+    private final Source source;
+
+    private ResultCoverage coverage;
+
+    ResultStream(Source source) {
+        this.source = source;
+    }
+
+    static ResultStream of(List<Product> products) {
+        Iterator<Product> iterator = products.iterator();
+        return new ResultStream(new Source() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public Product next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        });
+    }
+
+    /**
+     * @return files and bytes which the result covers, null unless the run was in
+     * {@link main.Params#isAnytime() anytime} mode
+     */
+    public ResultCoverage getCoverage() {
+        return coverage;
+    }
+
+    /**
+     * @return true if the run has stopped on its budget before the result covered every file
+     */
+    public boolean isPartial() {
+        return coverage != null && coverage.isPartial();
+    }
+
+    ResultStream withCoverage(ResultCoverage coverage) {
+        this.coverage = coverage;
+        return this;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return source.hasNext();
+    }
+
+    @Override
+    public Product next() {
+        return source.next();
+    }
+
+    @Override
+    public void close() throws IOException {
+        source.close();
+    }
+
+    interface Source extends Iterator<Product>, Closeable {
+    }
+}
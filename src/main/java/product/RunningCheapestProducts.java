@@ -0,0 +1,91 @@
+package product;
+
+import main.Params;
+import main.Query;
+import metrics.ProgressReporter;
+import metrics.RunMetrics;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Cheapest products of every query of a growing set of files kept in memory. New files are folded into the current
+ * results without processing the earlier ones again, their rows are pruned by the price thresholds of the current
+ * results.
+ */
+public final class RunningCheapestProducts {
+
+    private final Params params;
+
+    private final PartialResultCache cache;
+
+    private final ProductMerger[] mergers;
+
+    private final List<Path> files = new ArrayList<>();
+
+    private final ProductBatch[] current;
+
+    public RunningCheapestProducts(Params params) {
+        this.params = params;
+        this.cache = ProductService.createCache(params);
+        List<Query> queries = params.getQueries();
+        this.mergers = new ProductMerger[queries.size()];
+        Arrays.setAll(mergers, i -> new ProductMerger(queries.get(i).getProductResultRowsCount(),
+                queries.get(i).getGroupMaxCount()));
+        this.current = new ProductBatch[queries.size()];
+        Arrays.setAll(current, i -> new ProductBatch(0));
+    }
+
+    /**
+     * Folds the files into the results, they are added to the files of the results only once all of them are
+     * processed.
+     *
+     * @throws IllegalStateException if a file fails to be processed, the results and their files are unchanged then
+     */
+    public synchronized void addFiles(List<Path> newFiles) {
+        if (newFiles.isEmpty()) {
+            return;
+        }
+        int firstFileId = files.size();
+        List<Path> runFiles = new ArrayList<>(files);
+        runFiles.addAll(newFiles);
+
+        SortKeyThreshold[] thresholds = ProductService.newThresholds(params);
+        for (int i = 0; i < thresholds.length; i++) {
+            thresholds[i].publish(current[i], mergers[i].getResultSize());
+        }
+        RunMetrics metrics = new RunMetrics(newFiles.size());
+        ProductBatch[] partials;
+        ProgressReporter progress = ProductService.startProgress(metrics, params);
+        try {
+            partials = new ProcessingRun(runFiles, firstFileId, params, cache, thresholds,
+                    new SpillRuns[thresholds.length], metrics, null, null).execute();
+            ProductService.evict(cache);
+        } finally {
+            if (progress != null) {
+                progress.close();
+            }
+        }
+        ProductService.writeMetrics(metrics, params);
+
+        files.addAll(newFiles);
+        for (int i = 0; i < partials.length; i++) {
+            ProductBatch merged = new ProductBatch(mergers[i].getResultSize());
+            mergers[i].merge(current[i], null, partials[i], null, merged);
+            current[i] = merged;
+        }
+    }
+
+    public synchronized int getFilesCount() {
+        return files.size();
+    }
+
+    /**
+     * @param query index of the query in {@link Params#getQueries()}
+     */
+    public synchronized List<Product> getProducts(int query) {
+        return ProductService.toProducts(current[query], files, params);
+    }
+}
@@ -0,0 +1,266 @@
+package product;
+
+import csv.CSVRow;
+import csv.FileRange;
+import csv.Quarantine;
+import csv.RowHandler;
+import csv.RowStatus;
+import main.Params;
+import main.Query;
+import metrics.RangeCounters;
+import segment.Segment;
+import segment.SegmentBlock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Feeds the rows of one range to the collectors of all queries of a run, so that any number of queries costs a single
+ * read and parse of the files. Every row is validated and its price parsed once, the id only if a query sorts by it
+ * or accepts the row. Filters are evaluated only for rows whose sort key can still reach the result. Malformed rows
+ * are detected by parse results rather than exceptions, with quarantine enabled every id is parsed to find them.
+ * <p>
+ * Segment blocks are skipped as a whole when the zone map of the block proves that none of its rows can reach the
+ * result of any query.
+ */
+final class ScanCollector implements RowHandler {
+
+    private final RangeCounters counters = new RangeCounters();
+
+    private final CheapestProductsCollector[] collectors;
+
+    private final boolean idKeys;
+
+    private final List<Quarantine.Reject> rejects;
+
+    private final SegmentBlock block = new SegmentBlock();
+
+    /**
+     * @param spills         spill runs of the queries, null for a query collected in memory
+     * @param collectRejects true if rejected rows are kept for the quarantine
+     */
+    ScanCollector(List<Query> queries, Params params, SpillRuns[] spills, boolean collectRejects) {
+        this.collectors = new CheapestProductsCollector[queries.size()];
+        boolean idKeys = false;
+        for (int i = 0; i < collectors.length; i++) {
+            collectors[i] = new CheapestProductsCollector(queries.get(i), params.isLateMaterialization(), counters,
+                    spills[i]);
+            idKeys |= collectors[i].isSortedById();
+        }
+        this.idKeys = idKeys || collectRejects;
+        this.rejects = collectRejects ? new ArrayList<>() : null;
+    }
+
+    @Override
+    public void handle(CSVRow row) {
+        counters.rowParsed();
+        if (row.getFieldCount() != 5) {
+            reject(row, RowStatus.WRONG_FIELD_COUNT);
+            return;
+        }
+        if (!row.tryParseDouble(4)) {
+            reject(row, RowStatus.MALFORMED_PRICE);
+            return;
+        }
+        double price = row.getParsedDouble();
+        int id = 0;
+        boolean idParsed = false;
+        if (idKeys) {
+            if (!row.tryParseInt(0)) {
+                reject(row, RowStatus.MALFORMED_ID);
+                return;
+            }
+            id = row.getParsedInt();
+            idParsed = true;
+        }
+
+        boolean accepted = false;
+        boolean filtered = false;
+        for (CheapestProductsCollector collector : collectors) {
+            double key = collector.key(id, price);
+            if (!collector.accepts(key)) {
+                continue;
+            }
+            if (!collector.matches(row, price)) {
+                filtered = true;
+                continue;
+            }
+            if (!idParsed) {
+                if (!row.tryParseInt(0)) {
+                    reject(row, RowStatus.MALFORMED_ID);
+                    return;
+                }
+                id = row.getParsedInt();
+                idParsed = true;
+            }
+            collector.add(id, price, key, row);
+            accepted = true;
+        }
+        if (!accepted) {
+            if (filtered) {
+                counters.rowFiltered();
+            } else {
+                counters.rowPruned();
+            }
+        }
+    }
+
+    /**
+     * Handles a row of the stream reader.
+     *
+     * @param line 1-based line number of the row
+     */
+    void handle(String[] data, long line, char delimiter) {
+        RowStatus status = Product.validate(data);
+        if (status == RowStatus.VALID) {
+            add(Product.fromValidRaw(data));
+            return;
+        }
+        counters.rowParsed();
+        counters.rowRejected();
+        if (rejects != null) {
+            StringBuilder text = new StringBuilder();
+            for (int i = 0; i < data.length && data[i] != null; i++) {
+                if (i > 0) {
+                    text.append(delimiter);
+                }
+                text.append(data[i]);
+            }
+            rejects.add(new Quarantine.Reject(line, status, text.toString()));
+        }
+    }
+
+    private void reject(CSVRow row, RowStatus status) {
+        counters.rowRejected();
+        if (rejects != null) {
+            rejects.add(new Quarantine.Reject(row.getOffset(), status, row.getLine()));
+        }
+    }
+
+    /**
+     * Reads the blocks of the segment which start inside the range.
+     */
+    void read(Segment segment, FileRange range) throws IOException {
+        for (int i = segment.firstBlockAt(range.getStart());
+             i < segment.getBlockCount() && segment.getBlock(i).getOffset() < range.getEnd(); i++) {
+            Segment.Block info = segment.getBlock(i);
+            if (!accepts(info)) {
+                counters.blockSkipped(info.getLength());
+                continue;
+            }
+            segment.read(i, block);
+            counters.blockRead();
+            for (int row = 0; row < block.size(); row++) {
+                handle(block, row);
+            }
+        }
+    }
+
+    /**
+     * Reads a block which is decoded already, e.g. a resident one.
+     *
+     * @return false if the block is skipped by its zone map
+     */
+    boolean read(Segment.Block info, SegmentBlock decoded) {
+        if (!accepts(info)) {
+            counters.blockSkipped(info.getLength());
+            return false;
+        }
+        counters.blockRead();
+        for (int row = 0; row < decoded.size(); row++) {
+            handle(decoded, row);
+        }
+        return true;
+    }
+
+    private boolean accepts(Segment.Block info) {
+        for (CheapestProductsCollector collector : collectors) {
+            if (collector.accepts(info)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void handle(SegmentBlock block, int row) {
+        counters.rowParsed();
+        int id = block.getId(row);
+        double price = block.getPrice(row);
+        boolean accepted = false;
+        boolean filtered = false;
+        for (CheapestProductsCollector collector : collectors) {
+            double key = collector.key(id, price);
+            if (!collector.accepts(key)) {
+                continue;
+            }
+            if (!collector.matches(block, row)) {
+                filtered = true;
+                continue;
+            }
+            collector.add(id, price, key, block, row);
+            accepted = true;
+        }
+        if (!accepted) {
+            if (filtered) {
+                counters.rowFiltered();
+            } else {
+                counters.rowPruned();
+            }
+        }
+    }
+
+    void add(Product product) {
+        counters.rowParsed();
+        boolean accepted = false;
+        for (CheapestProductsCollector collector : collectors) {
+            accepted |= collector.add(product);
+        }
+        if (!accepted) {
+            counters.rowPruned();
+        }
+    }
+
+    /**
+     * @param thresholds thresholds of the queries, shared between the ranges whose partial results are merged
+     */
+    void reset(int fileId, SortKeyThreshold[] thresholds) {
+        counters.clear();
+        if (rejects != null) {
+            rejects.clear();
+        }
+        for (int i = 0; i < collectors.length; i++) {
+            collectors[i].reset(fileId, thresholds[i]);
+        }
+    }
+
+    /**
+     * @return partial results of the queries
+     */
+    ProductBatch[] finish() {
+        ProductBatch[] partials = new ProductBatch[collectors.length];
+        for (int i = 0; i < collectors.length; i++) {
+            partials[i] = collectors[i].finish();
+        }
+        return partials;
+    }
+
+    /**
+     * @return rows rejected since the last {@link #reset(int, SortKeyThreshold[])}, by offset for rows of a
+     * {@link CSVRow} and by line number for rows of the stream reader; null if rejects are not collected
+     */
+    List<Quarantine.Reject> getRejects() {
+        return rejects;
+    }
+
+    CheapestProductsCollector getCollector(int query) {
+        return collectors[query];
+    }
+
+    /**
+     * @return counters of the range since the last {@link #reset(int, SortKeyThreshold[])}
+     */
+    RangeCounters getCounters() {
+        return counters;
+    }
+}
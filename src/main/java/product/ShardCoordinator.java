@@ -0,0 +1,287 @@
+package product;
+
+import main.Main;
+import main.Params;
+import main.Query;
+import metrics.RangeCounters;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Coordinator of a sharded run: splits the files into one shard per worker process, balanced by file size, sends
+ * every shard to its {@link ShardWorker} and merges the streamed results of all workers. Worker results are
+ * collected as any other rows, by one collector per query, so result sizes, duplicate caps and spilling hold for
+ * the merged result as they do in a single process.
+ * <p>
+ * Workers are either running already, listening on the addresses of {@link Params#getWorkers()}, or started on
+ * this machine for the run and stopped once it is complete. Workers read the files themselves, paths are sent as
+ * absolute paths, so remote workers must see the files under the same paths.
+ * <p>
+ * A worker which does not start, does not accept the connection or stays silent for longer than
+ * {@link Params#getWorkerTimeout()}, e.g. because it hangs or the network is partitioned, fails the run. Workers
+ * send heartbeats while they process their shards, so the timeout does not limit how long a shard may take.
+ */
+public final class ShardCoordinator {
+
+    private static final int HEARTBEATS_PER_TIMEOUT = 4;
+
+    private final Params params;
+
+    private final Map<String, String> arguments;
+
+    /**
+     * @param arguments arguments which the workers resolve the params of their shards from
+     */
+    public ShardCoordinator(Params params, Map<String, String> arguments) {
+        this.params = params;
+        this.arguments = Map.copyOf(arguments);
+    }
+
+    /**
+     * @return results in the order of {@link Params#getQueries()}, empty if there are no files, every one of them
+     * must be closed
+     * @throws IllegalStateException if a worker fails
+     */
+    public List<ResultStream> execute(List<Path> files) {
+        if (files.isEmpty()) {
+            return List.of();
+        }
+        List<Process> processes = new ArrayList<>();
+        SpillRuns[] spills = ProductService.createSpills(params);
+        try {
+            List<InetSocketAddress> addresses = new ArrayList<>();
+            for (String worker : params.getWorkers()) {
+                int separator = worker.lastIndexOf(':');
+                addresses.add(new InetSocketAddress(worker.substring(0, separator),
+                        Integer.parseInt(worker.substring(separator + 1))));
+            }
+            for (int i = 0; i < params.getLocalWorkers(); i++) {
+                Process process = startWorker();
+                processes.add(process);
+                addresses.add(new InetSocketAddress(InetAddress.getLoopbackAddress(), awaitPort(process)));
+            }
+
+            List<Query> queries = params.getQueries();
+            CheapestProductsCollector[] collectors = new CheapestProductsCollector[queries.size()];
+            for (int i = 0; i < collectors.length; i++) {
+                collectors[i] = new CheapestProductsCollector(queries.get(i), false, new RangeCounters(), spills[i]);
+                collectors[i].reset(0, new SortKeyThreshold());
+            }
+            collectShards(split(files, addresses.size()), addresses, collectors);
+
+            List<ResultStream> results = new ArrayList<>();
+            for (int i = 0; i < collectors.length; i++) {
+                ProductBatch batch = collectors[i].finish();
+                results.add(spills[i] != null ? spills[i].open() : ResultStream.of(batch.toProducts()));
+            }
+            return results;
+        } catch (IOException e) {
+            ProductService.closeSpills(spills);
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException e) {
+            ProductService.closeSpills(spills);
+            throw e;
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+    }
+
+    /**
+     * Requests all shards concurrently, one thread per worker, and waits until every worker has answered.
+     */
+    private void collectShards(List<List<Path>> shards, List<InetSocketAddress> addresses,
+                               CheapestProductsCollector[] collectors) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(shards.size(), runnable -> {
+            Thread thread = new Thread(runnable, "shard-coordinator");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < shards.size(); i++) {
+                InetSocketAddress address = addresses.get(i);
+                List<Path> shard = shards.get(i);
+                futures.add(executor.submit(() -> {
+                    collectShard(address, shard, collectors);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void collectShard(InetSocketAddress address, List<Path> shard, CheapestProductsCollector[] collectors)
+            throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(address, (int) Math.min(params.getWorkerTimeout(), Integer.MAX_VALUE));
+            socket.setSoTimeout((int) Math.min(params.getWorkerTimeout(), Integer.MAX_VALUE));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            out.writeInt(ShardWorker.MAGIC);
+            out.writeInt(ShardWorker.VERSION);
+            out.writeLong(Math.max(1, params.getWorkerTimeout() / HEARTBEATS_PER_TIMEOUT));
+            out.writeInt(arguments.size());
+            for (Map.Entry<String, String> argument : arguments.entrySet()) {
+                out.writeUTF(argument.getKey());
+                out.writeUTF(argument.getValue());
+            }
+            out.writeInt(shard.size());
+            for (Path file : shard) {
+                out.writeUTF(file.toAbsolutePath().toString());
+            }
+            out.flush();
+
+            byte status = in.readByte();
+            while (status == ShardWorker.HEARTBEAT) {
+                status = in.readByte();
+            }
+            if (status != ShardWorker.OK) {
+                throw new IllegalStateException(String.format("Worker %s failed: %s", address, in.readUTF()));
+            }
+            for (CheapestProductsCollector collector : collectors) {
+                while (in.readBoolean()) {
+                    Product product = ShardWorker.readProduct(in);
+                    synchronized (collector) {
+                        collector.add(product);
+                    }
+                }
+            }
+        } catch (SocketTimeoutException e) {
+            throw new IllegalStateException(String.format("Worker %s has not answered within %s ms", address,
+                    params.getWorkerTimeout()), e);
+        }
+    }
+
+    /**
+     * Splits the files into at most {@code count} shards, every file goes to the shard with the fewest bytes so far,
+     * largest files first.
+     */
+    private static List<List<Path>> split(List<Path> files, int count) throws IOException {
+        long[] sizes = new long[files.size()];
+        List<Integer> bySize = new ArrayList<>();
+        for (int i = 0; i < sizes.length; i++) {
+            sizes[i] = Files.size(files.get(i));
+            bySize.add(i);
+        }
+        bySize.sort(Comparator.comparingLong((Integer file) -> sizes[file]).reversed());
+
+        List<List<Path>> shards = new ArrayList<>();
+        long[] shardSizes = new long[Math.min(count, files.size())];
+        for (int i = 0; i < shardSizes.length; i++) {
+            shards.add(new ArrayList<>());
+        }
+        for (int file : bySize) {
+            int smallest = 0;
+            for (int i = 1; i < shardSizes.length; i++) {
+                if (shardSizes[i] < shardSizes[smallest]) {
+                    smallest = i;
+                }
+            }
+            shards.get(smallest).add(files.get(file));
+            shardSizes[smallest] += sizes[file];
+        }
+        return shards;
+    }
+
+    private Process startWorker() throws IOException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        if (params.getWorkerHeap() != null) {
+            command.add("-Xmx" + params.getWorkerHeap());
+        }
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(Main.class.getName());
+        command.add(ShardWorker.PORT_ARGUMENT + "=0");
+        return new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+    }
+
+    /**
+     * Waits until a started worker announces its port, its output is copied to the standard output meanwhile and
+     * afterwards.
+     *
+     * @throws IllegalStateException if the worker exits or does not announce its port within the worker timeout
+     */
+    private int awaitPort(Process process) throws IOException {
+        BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                StandardCharsets.UTF_8));
+        CompletableFuture<Integer> port = new CompletableFuture<>();
+        Thread copier = new Thread(() -> {
+            try {
+                String line;
+                while ((line = output.readLine()) != null) {
+                    if (!port.isDone() && line.startsWith(ShardWorker.LISTENING)) {
+                        port.complete(Integer.parseInt(line.substring(ShardWorker.LISTENING.length()).trim()));
+                    } else {
+                        System.out.println(line);
+                    }
+                }
+                port.completeExceptionally(new IllegalStateException("Worker process has exited before listening"));
+            } catch (IOException | RuntimeException e) {
+                port.completeExceptionally(e); // the worker is stopped
+            }
+        }, "worker-output");
+        copier.setDaemon(true);
+        copier.start();
+
+        try {
+            return port.get(params.getWorkerTimeout(), TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            throw new IllegalStateException(String.format("Worker process %s has not started listening within %s ms",
+                    process.pid(), params.getWorkerTimeout()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+}
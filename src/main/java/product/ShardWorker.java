@@ -0,0 +1,210 @@
+package product;
+
+import main.Params;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Worker process of a sharded run. A {@link ShardCoordinator} connects once per shard and sends the arguments of
+ * the run and the files of the shard, the worker answers the queries over the shard by the pipeline of
+ * {@link ProductService} and streams back the result of every query in order. Connections are served concurrently,
+ * each by a thread of its own.
+ * <p>
+ * Nothing of a result can be sent before the whole shard is processed, so until then the worker sends a heartbeat
+ * every interval requested by the coordinator, which tells a busy worker from a hung one however long the shard takes.
+ * <p>
+ * A product is sent as its id, its price and the UTF-8 bytes of its text columns, every result is terminated by a
+ * {@code false} marker, so results are streamed without being counted first.
+ */
+public final class ShardWorker implements Closeable {
+
+    /**
+     * Argument which turns a process into a worker listening on the given port, 0 for any free port.
+     */
+    public static final String PORT_ARGUMENT = "workerPort";
+
+    static final String LISTENING = "Worker listening on port ";
+
+    static final int MAGIC = 0x53484152;
+
+    static final int VERSION = 2;
+
+    static final byte OK = 0;
+
+    static final byte FAILED = 1;
+
+    static final byte HEARTBEAT = 2;
+
+    private final ServerSocket server;
+
+    private final Function<Map<String, String>, Params> parser;
+
+    /**
+     * @param parser resolves the params of a shard from the arguments sent by the coordinator
+     */
+    public ShardWorker(int port, Function<Map<String, String>, Params> parser) throws IOException {
+        this.server = new ServerSocket(port);
+        this.parser = parser;
+    }
+
+    public int getPort() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Announces the port on the standard output and serves shards until the worker is closed.
+     */
+    public void serve() throws IOException {
+        System.out.println(LISTENING + getPort());
+        System.out.flush();
+        while (true) {
+            Socket socket;
+            try {
+                socket = server.accept();
+            } catch (SocketException e) {
+                if (server.isClosed()) {
+                    return;
+                }
+                throw e;
+            }
+            new Thread(() -> handle(socket), "shard-worker-" + socket.getPort()).start();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+    }
+
+    private void handle(Socket socket) {
+        try (socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Unknown shard request");
+            }
+            long heartbeatInterval = in.readLong();
+            Map<String, String> arguments = new HashMap<>();
+            int argumentsCount = in.readInt();
+            for (int i = 0; i < argumentsCount; i++) {
+                arguments.put(in.readUTF(), in.readUTF());
+            }
+            List<Path> files = new ArrayList<>();
+            int filesCount = in.readInt();
+            for (int i = 0; i < filesCount; i++) {
+                files.add(Path.of(in.readUTF()));
+            }
+
+            List<ResultStream> results;
+            try {
+                results = execute(arguments, files, heartbeatInterval, out);
+            } catch (RuntimeException e) {
+                out.writeByte(FAILED);
+                out.writeUTF(String.valueOf(e));
+                return;
+            }
+
+            try {
+                out.writeByte(OK);
+                for (ResultStream result : results) {
+                    while (result.hasNext()) {
+                        out.writeBoolean(true);
+                        writeProduct(result.next(), out);
+                    }
+                    out.writeBoolean(false);
+                }
+            } finally {
+                for (ResultStream result : results) {
+                    result.close();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            System.err.println(String.format("Failed to serve shard of %s: %s", socket.getRemoteSocketAddress(), e));
+        }
+    }
+
+    /**
+     * Answers the queries over the shard on a thread of its own and sends heartbeats until the results are ready.
+     */
+    private List<ResultStream> execute(Map<String, String> arguments, List<Path> files, long heartbeatInterval,
+                                       DataOutputStream out) throws IOException {
+        Params params = parser.apply(arguments);
+        if (params.isSharded()) {
+            throw new IllegalArgumentException("workers can not shard their files further");
+        }
+        FutureTask<List<ResultStream>> run = new FutureTask<>(() -> new ProductService().streamQueryResults(files,
+                params));
+        new Thread(run, Thread.currentThread().getName() + "-run").start();
+        try {
+            while (true) {
+                try {
+                    return run.get(heartbeatInterval, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    out.writeByte(HEARTBEAT);
+                    out.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            run.cancel(true);
+        }
+    }
+
+    static void writeProduct(Product product, DataOutput out) throws IOException {
+        out.writeInt(product.getProductId());
+        out.writeDouble(product.getPrice());
+        writeText(product.getName(), out);
+        writeText(product.getCondition(), out);
+        writeText(product.getState(), out);
+    }
+
+    static Product readProduct(DataInput in) throws IOException {
+        int id = in.readInt();
+        double price = in.readDouble();
+        return new Product(id, readText(in), readText(in), readText(in), price);
+    }
+
+    private static void writeText(String value, DataOutput out) throws IOException {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readText(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Invalid text length: " + length);
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,40 @@
+package product;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sort key of the N-th row of the best partial result seen so far, shared between worker threads, e.g. the price of
+ * the N-th cheapest product. Any partial result with N rows proves that rows with a greater key can never reach the
+ * final result, so the value only ever decreases.
+ */
+public final class SortKeyThreshold {
+
+    private final AtomicLong keyBits = new AtomicLong(Double.doubleToLongBits(Double.POSITIVE_INFINITY));
+
+    public double get() {
+        return Double.longBitsToDouble(keyBits.get());
+    }
+
+    public boolean rejects(double key) {
+        return key > get();
+    }
+
+    public void tighten(double key) {
+        long current = keyBits.get();
+        while (key < Double.longBitsToDouble(current)) {
+            if (keyBits.compareAndSet(current, Double.doubleToLongBits(key))) {
+                return;
+            }
+            current = keyBits.get();
+        }
+    }
+
+    /**
+     * Merged batches are sorted by key ascending, so a full one holds its greatest key last.
+     */
+    public void publish(ProductBatch merged, int resultSize) {
+        if (merged.size() == resultSize && resultSize > 0) {
+            tighten(merged.getKey(resultSize - 1));
+        }
+    }
+}
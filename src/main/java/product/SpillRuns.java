@@ -0,0 +1,388 @@
+package product;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Sorted runs of one query whose result is too big to be kept in memory, spilled by the collectors of all worker
+ * threads and merged into the result once the scan is complete. Memory stays bounded by the run size and the merge
+ * fan-in regardless of the result size.
+ * <p>
+ * Without a limit column runs are sorted by key and merged straight into the result. With a limit column runs are
+ * sorted by group and key first, so that a merge can enforce the cap per group by counting consecutive rows only.
+ * The capped rows are collected into runs sorted by key again, which are then merged into the result.
+ * Every intermediate merge applies the cap and the result size too, which never drops a row of the final result.
+ */
+final class SpillRuns implements Closeable {
+
+    static final int MAX_FAN_IN = 64;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Comparator<RunReader> KEY_ORDER = Comparator.comparingDouble(RunReader::key);
+
+    private static final Comparator<RunReader> GROUP_ORDER =
+            Comparator.comparingInt(RunReader::group).thenComparingDouble(RunReader::key);
+
+    private final Path directory;
+
+    private final int resultSize;
+
+    private final int groupMaxCount;
+
+    private final int runRows;
+
+    private final List<Path> runs = Collections.synchronizedList(new ArrayList<>());
+
+    private final AtomicInteger runIds = new AtomicInteger();
+
+    /**
+     * @param spillDirectory parent directory of the temporary directory of the runs
+     * @param groupMaxCount  {@link Integer#MAX_VALUE} if groups are not limited
+     * @param runRows        rows of a run kept in memory before it is written
+     */
+    SpillRuns(Path spillDirectory, int resultSize, int groupMaxCount, int runRows) throws IOException {
+        Files.createDirectories(spillDirectory);
+        this.directory = Files.createTempDirectory(spillDirectory, "spill");
+        this.resultSize = resultSize;
+        this.groupMaxCount = groupMaxCount;
+        this.runRows = runRows;
+    }
+
+    int getRunRows() {
+        return runRows;
+    }
+
+    /**
+     * @return true if runs have to be sorted by group and key, false if by key only
+     */
+    boolean isGroupOrdered() {
+        return groupMaxCount != Integer.MAX_VALUE;
+    }
+
+    /**
+     * Writes the rows of the batch in the order of the permutation as a run, thread-safe.
+     */
+    void spill(ProductBatch batch, int[] order) throws IOException {
+        Path run = newRun();
+        runs.add(run);
+        try (RunWriter writer = new RunWriter(run, isGroupOrdered())) {
+            for (int i = 0; i < batch.size(); i++) {
+                writer.write(batch, order[i]);
+            }
+        }
+    }
+
+    /**
+     * Merges the runs into the result, the rows are merged while they are consumed. Must be called once the scan
+     * is complete.
+     */
+    ResultStream open() throws IOException {
+        List<Path> keyRuns = new ArrayList<>(runs);
+        if (isGroupOrdered()) {
+            keyRuns = capGroups(reduce(keyRuns, true));
+        }
+        List<Path> remaining = reduce(keyRuns, false);
+
+        RunMerge merge = new RunMerge(remaining, KEY_ORDER);
+        return new ResultStream(new ResultStream.Source() {
+            private int count;
+
+            private boolean advanced;
+
+            private boolean available;
+
+            @Override
+            public boolean hasNext() {
+                if (!advanced) {
+                    available = count < resultSize && merge.next();
+                    advanced = true;
+                }
+                return available;
+            }
+
+            @Override
+            public Product next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                advanced = false;
+                count++;
+                return merge.current().toProduct(0);
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    merge.close();
+                } finally {
+                    SpillRuns.this.close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Deletes all runs and their directory, does nothing if they are deleted already.
+     */
+    @Override
+    public void close() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return;
+        }
+        try (Stream<Path> files = Files.list(directory)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+        Files.deleteIfExists(directory);
+    }
+
+    /**
+     * Merges runs of the same order until there are no more than {@link #MAX_FAN_IN}.
+     */
+    private List<Path> reduce(List<Path> input, boolean groupOrdered) throws IOException {
+        List<Path> remaining = new ArrayList<>(input);
+        while (remaining.size() > MAX_FAN_IN) {
+            List<Path> merged = new ArrayList<>(remaining.subList(0, MAX_FAN_IN));
+            remaining.subList(0, MAX_FAN_IN).clear();
+            Path output = newRun();
+            try (RunMerge merge = new RunMerge(merged, groupOrdered ? GROUP_ORDER : KEY_ORDER);
+                 RunWriter writer = new RunWriter(output, groupOrdered)) {
+                while (merge.next()) {
+                    writer.write(merge.current(), 0);
+                }
+            }
+            for (Path run : merged) {
+                Files.delete(run);
+            }
+            remaining.add(output);
+        }
+        return remaining;
+    }
+
+    /**
+     * Merges runs sorted by group and key, keeps at most the cap of rows per group and collects them into new runs
+     * sorted by key.
+     */
+    private List<Path> capGroups(List<Path> groupRuns) throws IOException {
+        List<Path> keyRuns = new ArrayList<>();
+        ProductBatch buffer = new ProductBatch(runRows);
+        int[] order = new int[runRows];
+        double[] sortKeys = new double[runRows];
+
+        try (RunMerge merge = new RunMerge(groupRuns, GROUP_ORDER)) {
+            int group = 0;
+            int count = 0;
+            while (merge.next()) {
+                ProductBatch row = merge.current();
+                if (count > 0 && row.getGroup(0) == group) {
+                    if (count == groupMaxCount) {
+                        continue;
+                    }
+                    count++;
+                } else {
+                    group = row.getGroup(0);
+                    count = 1;
+                }
+
+                buffer.add(row, 0);
+                if (buffer.isFull()) {
+                    keyRuns.add(writeKeyRun(buffer, order, sortKeys));
+                }
+            }
+        }
+        if (buffer.size() > 0) {
+            keyRuns.add(writeKeyRun(buffer, order, sortKeys));
+        }
+        for (Path run : groupRuns) {
+            Files.delete(run);
+        }
+        return keyRuns;
+    }
+
+    private Path writeKeyRun(ProductBatch buffer, int[] order, double[] sortKeys) throws IOException {
+        buffer.sortByKey(order, sortKeys);
+        Path run = newRun();
+        try (RunWriter writer = new RunWriter(run, false)) {
+            for (int i = 0; i < buffer.size(); i++) {
+                writer.write(buffer, order[i]);
+            }
+        }
+        buffer.clear();
+        return run;
+    }
+
+    private Path newRun() {
+        return directory.resolve("run-" + runIds.incrementAndGet());
+    }
+
+    /**
+     * Writer of one run, drops rows which can not reach the result: rows beyond the cap of their group if the run is
+     * sorted by group, rows beyond the result size if it is sorted by key.
+     */
+    private final class RunWriter implements Closeable {
+
+        private final DataOutputStream out;
+
+        private final boolean groupOrdered;
+
+        private int rows;
+
+        private int group;
+
+        private int groupRows;
+
+        private RunWriter(Path path, boolean groupOrdered) throws IOException {
+            this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), BUFFER_SIZE));
+            this.groupOrdered = groupOrdered;
+        }
+
+        private void write(ProductBatch batch, int index) throws IOException {
+            if (groupOrdered) {
+                if (groupRows > 0 && batch.getGroup(index) == group) {
+                    if (groupRows == groupMaxCount) {
+                        return;
+                    }
+                    groupRows++;
+                } else {
+                    group = batch.getGroup(index);
+                    groupRows = 1;
+                }
+            } else if (rows == resultSize) {
+                return;
+            }
+            out.writeBoolean(true);
+            batch.writeRow(index, out);
+            rows++;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                out.writeBoolean(false);
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /**
+     * Reader of one run, its current row is the only row of a reused batch.
+     */
+    private static final class RunReader implements Closeable {
+
+        private final DataInputStream in;
+
+        private final ProductBatch row = new ProductBatch(1);
+
+        private RunReader(Path path) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE));
+        }
+
+        /**
+         * @return false if the run is exhausted
+         */
+        private boolean advance() throws IOException {
+            row.clear();
+            if (!in.readBoolean()) {
+                return false;
+            }
+            row.readRow(in);
+            return true;
+        }
+
+        private double key() {
+            return row.getKey(0);
+        }
+
+        private int group() {
+            return row.getGroup(0);
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /**
+     * K-way merge of runs by a heap of their readers.
+     */
+    private static final class RunMerge implements Closeable {
+
+        private final List<RunReader> readers = new ArrayList<>();
+
+        private final PriorityQueue<RunReader> heap;
+
+        private RunReader current;
+
+        private RunMerge(List<Path> runs, Comparator<RunReader> order) throws IOException {
+            this.heap = new PriorityQueue<>(Math.max(runs.size(), 1), order);
+            try {
+                for (Path run : runs) {
+                    RunReader reader = new RunReader(run);
+                    readers.add(reader);
+                    if (reader.advance()) {
+                        heap.add(reader);
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        /**
+         * @return false if all runs are exhausted
+         */
+        private boolean next() {
+            try {
+                if (current != null && current.advance()) {
+                    heap.add(current);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            current = heap.poll();
+            return current != null;
+        }
+
+        /**
+         * @return batch whose only row is the current row of the merge
+         */
+        private ProductBatch current() {
+            return current.row;
+        }
+
+        @Override
+        public void close() throws IOException {
+            IOException failure = null;
+            for (RunReader reader : readers) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package query;
+
+import java.util.Locale;
+
+/**
+ * Columns of a product row in file order.
+ */
+public enum Column {
+    ID(0, true),
+    NAME(1, false),
+    CONDITION(2, false),
+    STATE(3, false),
+    PRICE(4, true);
+
+    private final int index;
+
+    private final boolean numeric;
+
+    Column(int index, boolean numeric) {
+        this.index = index;
+        this.numeric = numeric;
+    }
+
+    /**
+     * @return index of the column in a row
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public boolean isNumeric() {
+        return numeric;
+    }
+
+    /**
+     * @throws IllegalArgumentException if there is no such column
+     */
+    public static Column of(String name) {
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Unknown column: " + name);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
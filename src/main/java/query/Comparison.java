@@ -0,0 +1,154 @@
+package query;
+
+import csv.CSVRow;
+import product.Product;
+import segment.SegmentBlock;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Comparison of a column with a literal.
+ */
+final class Comparison extends Filter {
+
+    enum Operator {
+        EQUAL("="),
+        NOT_EQUAL("!="),
+        LESS("<"),
+        LESS_OR_EQUAL("<="),
+        GREATER(">"),
+        GREATER_OR_EQUAL(">=");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        String getSymbol() {
+            return symbol;
+        }
+
+        /**
+         * @param comparison sign of the comparison of the column value with the literal
+         */
+        boolean test(int comparison) {
+            switch (this) {
+                case EQUAL:
+                    return comparison == 0;
+                case NOT_EQUAL:
+                    return comparison != 0;
+                case LESS:
+                    return comparison < 0;
+                case LESS_OR_EQUAL:
+                    return comparison <= 0;
+                case GREATER:
+                    return comparison > 0;
+                case GREATER_OR_EQUAL:
+                    return comparison >= 0;
+                default:
+                    throw new IllegalStateException("Unknown operator: " + this);
+            }
+        }
+    }
+
+    private final Column column;
+
+    private final Operator operator;
+
+    private final double number;
+
+    private final byte[] text;
+
+    private final String literal;
+
+    /**
+     * @throws IllegalArgumentException if a numeric column is compared with a literal which is not a finite number
+     */
+    Comparison(Column column, Operator operator, String literal) {
+        this.column = column;
+        this.operator = operator;
+        this.literal = literal;
+        if (column.isNumeric()) {
+            double number;
+            try {
+                number = Double.parseDouble(literal);
+            } catch (NumberFormatException e) {
+                number = Double.NaN;
+            }
+            if (!Double.isFinite(number)) {
+                throw new IllegalArgumentException(
+                        String.format("%s should be compared with a finite number: %s", column, literal));
+            }
+            this.number = number;
+            this.text = null;
+        } else {
+            this.number = 0;
+            this.text = literal.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @Override
+    public boolean test(CSVRow row, double price) {
+        switch (column) {
+            case ID:
+                return row.tryParseInt(column.getIndex())
+                        && operator.test(Double.compare(row.getParsedInt(), number));
+            case PRICE:
+                return operator.test(Double.compare(price, number));
+            default:
+                return operator.test(row.compareField(column.getIndex(), text));
+        }
+    }
+
+    @Override
+    public boolean test(Product product) {
+        switch (column) {
+            case ID:
+                return operator.test(Double.compare(product.getProductId(), number));
+            case PRICE:
+                return operator.test(Double.compare(product.getPrice(), number));
+            case NAME:
+                return testText(product.getName());
+            case CONDITION:
+                return testText(product.getCondition());
+            case STATE:
+                return testText(product.getState());
+            default:
+                throw new IllegalStateException("Unknown column: " + column);
+        }
+    }
+
+    @Override
+    public boolean test(SegmentBlock block, int row) {
+        switch (column) {
+            case ID:
+                return operator.test(Double.compare(block.getId(row), number));
+            case PRICE:
+                return operator.test(Double.compare(block.getPrice(row), number));
+            default:
+                return operator.test(block.compareField(column.getIndex(), row, text));
+        }
+    }
+
+    private boolean testText(String value) {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        return operator.test(compareUnsigned(bytes, text));
+    }
+
+    static int compareUnsigned(byte[] first, byte[] second) {
+        int length = Math.min(first.length, second.length);
+        for (int i = 0; i < length; i++) {
+            int comparison = Integer.compare(first[i] & 0xFF, second[i] & 0xFF);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(first.length, second.length);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %s '%s'", column, operator.getSymbol(), literal.replace("'", "''"));
+    }
+}
@@ -0,0 +1,64 @@
+package query;
+
+import csv.CSVRow;
+import product.Product;
+import segment.SegmentBlock;
+
+/**
+ * Row predicate over the five product columns, evaluated on the bytes of a parsed row so that rejected rows never
+ * become products. Rows whose numeric column is malformed do not match comparisons of that column.
+ * <p>
+ * Expressions are comparisons of a column with a literal, e.g. {@code condition = new}, {@code price < 10.5} or
+ * {@code name != 'old phone'}, combined by {@code and}, {@code or}, {@code not} and parentheses.
+ * Text columns are compared by their UTF-8 bytes.
+ */
+public abstract class Filter {
+
+    /**
+     * Filter which matches every row.
+     */
+    public static final Filter ALL = new Filter() {
+        @Override
+        public boolean test(CSVRow row, double price) {
+            return true;
+        }
+
+        @Override
+        public boolean test(Product product) {
+            return true;
+        }
+
+        @Override
+        public boolean test(SegmentBlock block, int row) {
+            return true;
+        }
+
+        @Override
+        public String toString() {
+            return "true";
+        }
+    };
+
+    /**
+     * @param row   row with 5 fields
+     * @param price price of the row, parsed already by the caller
+     */
+    public abstract boolean test(CSVRow row, double price);
+
+    public abstract boolean test(Product product);
+
+    public abstract boolean test(SegmentBlock block, int row);
+
+    /**
+     * @throws IllegalArgumentException if the expression is incorrect
+     */
+    public static Filter parse(String expression) {
+        return new FilterParser(expression).parse();
+    }
+
+    /**
+     * @return canonical form of the expression, equal for equal filters
+     */
+    @Override
+    public abstract String toString();
+}
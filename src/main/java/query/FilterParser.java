@@ -0,0 +1,152 @@
+package query;
+
+import java.util.Locale;
+
+/**
+ * Recursive descent parser of filter expressions:
+ * <pre>
+ * or         := and ('or' and)*
+ * and        := unary ('and' unary)*
+ * unary      := 'not' unary | '(' or ')' | comparison
+ * comparison := column operator literal
+ * literal    := 'quoted text' | word
+ * </pre>
+ * Keywords and column names are case-insensitive, quotes inside quoted text are doubled.
+ */
+final class FilterParser {
+
+    private final String expression;
+
+    private int position;
+
+    FilterParser(String expression) {
+        this.expression = expression;
+    }
+
+    Filter parse() {
+        Filter filter = parseOr();
+        skipSpaces();
+        if (position < expression.length()) {
+            throw error("unexpected '" + expression.charAt(position) + "'");
+        }
+        return filter;
+    }
+
+    private Filter parseOr() {
+        Filter filter = parseAnd();
+        while (acceptKeyword("or")) {
+            filter = new Logical.Or(filter, parseAnd());
+        }
+        return filter;
+    }
+
+    private Filter parseAnd() {
+        Filter filter = parseUnary();
+        while (acceptKeyword("and")) {
+            filter = new Logical.And(filter, parseUnary());
+        }
+        return filter;
+    }
+
+    private Filter parseUnary() {
+        if (acceptKeyword("not")) {
+            return new Logical.Not(parseUnary());
+        }
+        if (accept('(')) {
+            Filter filter = parseOr();
+            if (!accept(')')) {
+                throw error("')' expected");
+            }
+            return filter;
+        }
+        Column column = Column.of(readWord());
+        Comparison.Operator operator = readOperator();
+        return new Comparison(column, operator, readLiteral());
+    }
+
+    private Comparison.Operator readOperator() {
+        skipSpaces();
+        for (String symbol : new String[]{"!=", "<=", ">=", "=", "<", ">"}) {
+            if (expression.startsWith(symbol, position)) {
+                position += symbol.length();
+                for (Comparison.Operator operator : Comparison.Operator.values()) {
+                    if (operator.getSymbol().equals(symbol)) {
+                        return operator;
+                    }
+                }
+            }
+        }
+        throw error("comparison operator expected");
+    }
+
+    private String readLiteral() {
+        skipSpaces();
+        if (position < expression.length() && expression.charAt(position) == '\'') {
+            StringBuilder literal = new StringBuilder();
+            position++;
+            while (true) {
+                if (position >= expression.length()) {
+                    throw error("unterminated quote");
+                }
+                char c = expression.charAt(position++);
+                if (c == '\'') {
+                    if (position < expression.length() && expression.charAt(position) == '\'') {
+                        position++;
+                    } else {
+                        return literal.toString();
+                    }
+                }
+                literal.append(c);
+            }
+        }
+        return readWord();
+    }
+
+    private String readWord() {
+        skipSpaces();
+        int start = position;
+        while (position < expression.length() && isWordCharacter(expression.charAt(position))) {
+            position++;
+        }
+        if (start == position) {
+            throw error("word expected");
+        }
+        return expression.substring(start, position);
+    }
+
+    private boolean acceptKeyword(String keyword) {
+        skipSpaces();
+        int end = position + keyword.length();
+        if (expression.regionMatches(true, position, keyword, 0, keyword.length())
+                && (end == expression.length() || !isWordCharacter(expression.charAt(end)))) {
+            position = end;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean accept(char c) {
+        skipSpaces();
+        if (position < expression.length() && expression.charAt(position) == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void skipSpaces() {
+        while (position < expression.length() && Character.isWhitespace(expression.charAt(position))) {
+            position++;
+        }
+    }
+
+    private static boolean isWordCharacter(char c) {
+        return c != '(' && c != ')' && c != '\'' && c != '=' && c != '!' && c != '<' && c != '>'
+                && !Character.isWhitespace(c);
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(String.format("Invalid filter '%s' at %s: %s",
+                expression, position, message.toLowerCase(Locale.ROOT)));
+    }
+}
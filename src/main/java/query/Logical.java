@@ -0,0 +1,107 @@
+package query;
+
+import csv.CSVRow;
+import product.Product;
+import segment.SegmentBlock;
+
+/**
+ * {@code and}, {@code or} and {@code not} of other filters, evaluated left to right with short-circuiting.
+ */
+final class Logical {
+
+    private Logical() {
+    }
+
+    static final class And extends Filter {
+
+        private final Filter left;
+
+        private final Filter right;
+
+        And(Filter left, Filter right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean test(CSVRow row, double price) {
+            return left.test(row, price) && right.test(row, price);
+        }
+
+        @Override
+        public boolean test(Product product) {
+            return left.test(product) && right.test(product);
+        }
+
+        @Override
+        public boolean test(SegmentBlock block, int row) {
+            return left.test(block, row) && right.test(block, row);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("(%s and %s)", left, right);
+        }
+    }
+
+    static final class Or extends Filter {
+
+        private final Filter left;
+
+        private final Filter right;
+
+        Or(Filter left, Filter right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public boolean test(CSVRow row, double price) {
+            return left.test(row, price) || right.test(row, price);
+        }
+
+        @Override
+        public boolean test(Product product) {
+            return left.test(product) || right.test(product);
+        }
+
+        @Override
+        public boolean test(SegmentBlock block, int row) {
+            return left.test(block, row) || right.test(block, row);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("(%s or %s)", left, right);
+        }
+    }
+
+    static final class Not extends Filter {
+
+        private final Filter filter;
+
+        Not(Filter filter) {
+            this.filter = filter;
+        }
+
+        @Override
+        public boolean test(CSVRow row, double price) {
+            return !filter.test(row, price);
+        }
+
+        @Override
+        public boolean test(Product product) {
+            return !filter.test(product);
+        }
+
+        @Override
+        public boolean test(SegmentBlock block, int row) {
+            return !filter.test(block, row);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("not %s", filter);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package query;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Thread-safe dictionary of text values to dense int codes, e.g. to limit results per state with a counter of ints.
+ * Codes are stable for the lifetime of the dictionary only, persisted data keeps the values.
+ */
+public final class TextDictionary {
+
+    private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+
+    private final List<String> values = new ArrayList<>();
+
+    private final List<byte[]> bytes = new ArrayList<>();
+
+    public int code(String value) {
+        return code(value, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxSize number of values after which new values are not added anymore
+     * @return code of the value, -1 if the value is new and the dictionary is full
+     */
+    public int code(String value, int maxSize) {
+        Integer code = codes.get(value);
+        if (code != null) {
+            return code;
+        }
+        synchronized (values) {
+            code = codes.get(value);
+            if (code != null) {
+                return code;
+            }
+            if (values.size() >= maxSize) {
+                return -1;
+            }
+            values.add(value);
+            bytes.add(value.getBytes(StandardCharsets.UTF_8));
+            codes.put(value, values.size() - 1);
+            return values.size() - 1;
+        }
+    }
+
+    /**
+     * @throws IndexOutOfBoundsException if the code is unknown
+     */
+    public String value(int code) {
+        synchronized (values) {
+            return values.get(code);
+        }
+    }
+
+    /**
+     * @return UTF-8 bytes of the value, must not be modified
+     * @throws IndexOutOfBoundsException if the code is unknown
+     */
+    public byte[] bytes(int code) {
+        synchronized (values) {
+            return bytes.get(code);
+        }
+    }
+}
@@ -0,0 +1,316 @@
+package segment;
+
+import csv.FileRange;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary columnar copy of the valid rows of one CSV file, written by {@link SegmentStore#ingest(Path, char)}.
+ * <p>
+ * Rows are stored in blocks of up to {@link SegmentWriter#BLOCK_ROWS} rows. A block holds ids, prices, positions
+ * of the rows in the source file, dictionary codes of conditions and states and the offset-indexed bytes of names.
+ * The footer at the end of the file describes the source file, the dictionaries and every block with the minimal
+ * and maximal id and price of its rows, so blocks which can not reach a result are never read.
+ * <p>
+ * Blocks are read with positional reads, one instance can be read by several threads at the same time.
+ */
+public final class Segment implements Closeable {
+
+    static final int MAGIC = 0x43535653;
+
+    static final int VERSION = 1;
+
+    static final int HEADER_SIZE = 8;
+
+    static final int TRAILER_SIZE = 12;
+
+    private final Path path;
+
+    private final FileChannel channel;
+
+    private final String sourcePath;
+
+    private final long sourceSize;
+
+    private final long sourceLastModified;
+
+    private final char delimiter;
+
+    private final long rowsRejected;
+
+    private final Dictionary conditions;
+
+    private final Dictionary states;
+
+    private final Block[] blocks;
+
+    private Segment(Path path, FileChannel channel, DataInputStream footer) throws IOException {
+        this.path = path;
+        this.channel = channel;
+        this.sourcePath = footer.readUTF();
+        this.sourceSize = footer.readLong();
+        this.sourceLastModified = footer.readLong();
+        this.delimiter = footer.readChar();
+        this.rowsRejected = footer.readLong();
+        this.conditions = Dictionary.readFrom(footer);
+        this.states = Dictionary.readFrom(footer);
+
+        int blockCount = footer.readInt();
+        if (blockCount < 0) {
+            throw new IOException("Invalid block count: " + blockCount);
+        }
+        this.blocks = new Block[blockCount];
+        for (int i = 0; i < blockCount; i++) {
+            blocks[i] = new Block(footer.readLong(), footer.readInt(), footer.readInt(), footer.readInt(),
+                    footer.readInt(), footer.readDouble(), footer.readDouble());
+        }
+    }
+
+    /**
+     * @throws IOException if the file can not be read or is not a complete segment
+     */
+    static Segment open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long size = channel.size();
+            if (size < HEADER_SIZE + TRAILER_SIZE) {
+                throw new IOException("Segment is truncated: " + path);
+            }
+            ByteBuffer header = readFully(channel, 0, HEADER_SIZE);
+            if (header.getInt() != MAGIC || header.getInt() != VERSION) {
+                throw new IOException("Not a segment of version " + VERSION + ": " + path);
+            }
+            ByteBuffer trailer = readFully(channel, size - TRAILER_SIZE, TRAILER_SIZE);
+            long footerOffset = trailer.getLong();
+            if (trailer.getInt() != MAGIC || footerOffset < HEADER_SIZE || footerOffset > size - TRAILER_SIZE) {
+                throw new IOException("Segment is incomplete: " + path);
+            }
+            ByteBuffer footer = readFully(channel, footerOffset, (int) (size - TRAILER_SIZE - footerOffset));
+            return new Segment(path, channel,
+                    new DataInputStream(new ByteArrayInputStream(footer.array(), 0, footer.limit())));
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        } catch (RuntimeException e) {
+            channel.close();
+            throw new IOException("Segment is corrupt: " + path, e);
+        }
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    /**
+     * @return absolute normalized path of the CSV file the segment is a copy of
+     */
+    public String getSourcePath() {
+        return sourcePath;
+    }
+
+    public long getSourceSize() {
+        return sourceSize;
+    }
+
+    public long getSourceLastModified() {
+        return sourceLastModified;
+    }
+
+    public char getDelimiter() {
+        return delimiter;
+    }
+
+    /**
+     * @return rows of the source file which were not stored, because they do not have 5 fields, an int id and a price
+     */
+    public long getRowsRejected() {
+        return rowsRejected;
+    }
+
+    public int getBlockCount() {
+        return blocks.length;
+    }
+
+    public Block getBlock(int index) {
+        return blocks[index];
+    }
+
+    /**
+     * @return block aligned ranges of the segment file of about {@code rangeSize} bytes, at least one
+     */
+    public List<FileRange> split(long rangeSize) {
+        List<FileRange> ranges = new ArrayList<>();
+        int first = 0;
+        long size = 0;
+        for (int i = 0; i < blocks.length; i++) {
+            size += blocks[i].length;
+            if (size >= rangeSize || i == blocks.length - 1) {
+                ranges.add(new FileRange(path, blocks[first].offset, blocks[i].offset + blocks[i].length));
+                first = i + 1;
+                size = 0;
+            }
+        }
+        if (ranges.isEmpty()) {
+            ranges.add(new FileRange(path, HEADER_SIZE, HEADER_SIZE));
+        }
+        return ranges;
+    }
+
+    /**
+     * @return index of the first block which starts at or after the position, the block count if there is none
+     */
+    public int firstBlockAt(long position) {
+        int low = 0;
+        int high = blocks.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (blocks[middle].offset < position) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Reads the block into {@code target}, replacing its previous rows.
+     */
+    public void read(int index, SegmentBlock target) throws IOException {
+        Block block = blocks[index];
+        ByteBuffer buffer = target.buffer(block.length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, block.offset + buffer.position()) < 0) {
+                throw new EOFException("Segment is truncated: " + path);
+            }
+        }
+        buffer.flip();
+        target.decode(buffer, block.rows, conditions, states);
+    }
+
+    /**
+     * Reads the block into a block of its own, which holds just the decoded rows and may be retained.
+     */
+    public SegmentBlock load(int index) throws IOException {
+        SegmentBlock target = new SegmentBlock();
+        read(index, target);
+        target.releaseBuffer();
+        return target;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Location and zone map of a block.
+     */
+    public static final class Block {
+
+        private final long offset;
+
+        private final int length;
+
+        private final int rows;
+
+        private final int minId;
+
+        private final int maxId;
+
+        private final double minPrice;
+
+        private final double maxPrice;
+
+        Block(long offset, int length, int rows, int minId, int maxId, double minPrice, double maxPrice) {
+            this.offset = offset;
+            this.length = length;
+            this.rows = rows;
+            this.minId = minId;
+            this.maxId = maxId;
+            this.minPrice = minPrice;
+            this.maxPrice = maxPrice;
+        }
+
+        public long getOffset() {
+            return offset;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public int getRows() {
+            return rows;
+        }
+
+        public int getMinId() {
+            return minId;
+        }
+
+        public int getMaxId() {
+            return maxId;
+        }
+
+        public double getMinPrice() {
+            return minPrice;
+        }
+
+        public double getMaxPrice() {
+            return maxPrice;
+        }
+    }
+
+    /**
+     * Distinct values of a text column of the segment, as raw bytes for comparisons and decoded for results.
+     */
+    static final class Dictionary {
+
+        final byte[][] bytes;
+
+        final String[] strings;
+
+        Dictionary(byte[][] bytes) {
+            this.bytes = bytes;
+            this.strings = new String[bytes.length];
+            for (int i = 0; i < bytes.length; i++) {
+                strings[i] = new String(bytes[i], StandardCharsets.UTF_8);
+            }
+        }
+
+        private static Dictionary readFrom(DataInputStream in) throws IOException {
+            int size = in.readInt();
+            if (size < 0) {
+                throw new IOException("Invalid dictionary size: " + size);
+            }
+            byte[][] values = new byte[size][];
+            for (int i = 0; i < size; i++) {
+                values[i] = new byte[in.readInt()];
+                in.readFully(values[i]);
+            }
+            return new Dictionary(values);
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package segment;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decoded block of a {@link Segment}, columns are addressed by the indexes of the CSV columns. The instance is reused
+ * by a worker thread for every block it reads, so its rows must not be retained after the next
+ * {@link Segment#read(int, SegmentBlock)}; blocks of {@link Segment#load(int)} are never reused.
+ */
+public final class SegmentBlock {
+
+    private static final int NAME = 1;
+    private static final int CONDITION = 2;
+    private static final int STATE = 3;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(0);
+
+    private int size;
+
+    private int[] ids = new int[0];
+
+    private double[] prices = new double[0];
+
+    private long[] sourceOffsets = new long[0];
+
+    private int[] conditionCodes = new int[0];
+
+    private int[] stateCodes = new int[0];
+
+    private int[] nameEnds = new int[0];
+
+    private byte[] names = new byte[0];
+
+    private Segment.Dictionary conditions;
+
+    private Segment.Dictionary states;
+
+    public int size() {
+        return size;
+    }
+
+    public int getId(int row) {
+        return ids[row];
+    }
+
+    public double getPrice(int row) {
+        return prices[row];
+    }
+
+    /**
+     * @return position of the first byte of the row in the source CSV file
+     */
+    public long getSourceOffset(int row) {
+        return sourceOffsets[row];
+    }
+
+    /**
+     * @param column index of a text column: 1 name, 2 condition or 3 state
+     */
+    public String getString(int column, int row) {
+        switch (column) {
+            case NAME:
+                int start = nameStart(row);
+                return new String(names, start, nameEnds[row] - start, StandardCharsets.UTF_8);
+            case CONDITION:
+                return conditions.strings[conditionCodes[row]];
+            case STATE:
+                return states.strings[stateCodes[row]];
+            default:
+                throw new IllegalArgumentException("not a text column " + column);
+        }
+    }
+
+    /**
+     * @param column index of a text column: 1 name, 2 condition or 3 state
+     */
+    public int getFieldLength(int column, int row) {
+        if (column == NAME) {
+            return nameEnds[row] - nameStart(row);
+        }
+        return dictionaryBytes(column, row).length;
+    }
+
+    /**
+     * Copies raw bytes of the field, {@code target} must have {@link #getFieldLength(int, int)} bytes of space after
+     * {@code offset}.
+     */
+    public void copyField(int column, int row, byte[] target, int offset) {
+        if (column == NAME) {
+            int start = nameStart(row);
+            System.arraycopy(names, start, target, offset, nameEnds[row] - start);
+        } else {
+            byte[] value = dictionaryBytes(column, row);
+            System.arraycopy(value, 0, target, offset, value.length);
+        }
+    }
+
+    /**
+     * Compares raw bytes of the field with {@code value} as unsigned bytes, like {@link csv.CSVRow#compareField}.
+     *
+     * @return negative, zero or positive if the field is less than, equal to or greater than the value
+     */
+    public int compareField(int column, int row, byte[] value) {
+        byte[] field;
+        int start;
+        int length;
+        if (column == NAME) {
+            field = names;
+            start = nameStart(row);
+            length = nameEnds[row] - start;
+        } else {
+            field = dictionaryBytes(column, row);
+            start = 0;
+            length = field.length;
+        }
+        int common = Math.min(length, value.length);
+        for (int i = 0; i < common; i++) {
+            int comparison = Integer.compare(field[start + i] & 0xFF, value[i] & 0xFF);
+            if (comparison != 0) {
+                return comparison;
+            }
+        }
+        return Integer.compare(length, value.length);
+    }
+
+    /**
+     * @return cleared buffer of at least the length with the limit set to it
+     */
+    ByteBuffer buffer(int length) {
+        if (buffer.capacity() < length) {
+            buffer = ByteBuffer.allocate(Math.max(length, buffer.capacity() * 2));
+        }
+        buffer.clear().limit(length);
+        return buffer;
+    }
+
+    /**
+     * Drops the buffer of the encoded block once it is decoded, for blocks which are retained.
+     */
+    void releaseBuffer() {
+        buffer = ByteBuffer.allocate(0);
+    }
+
+    /**
+     * Decodes the columns in the order they are written by {@link SegmentWriter}.
+     */
+    void decode(ByteBuffer block, int rows, Segment.Dictionary conditions, Segment.Dictionary states) {
+        if (ids.length < rows) {
+            ids = new int[rows];
+            prices = new double[rows];
+            sourceOffsets = new long[rows];
+            conditionCodes = new int[rows];
+            stateCodes = new int[rows];
+            nameEnds = new int[rows];
+        }
+        block.asIntBuffer().get(ids, 0, rows);
+        block.position(block.position() + rows * Integer.BYTES);
+        block.asDoubleBuffer().get(prices, 0, rows);
+        block.position(block.position() + rows * Double.BYTES);
+        block.asLongBuffer().get(sourceOffsets, 0, rows);
+        block.position(block.position() + rows * Long.BYTES);
+        block.asIntBuffer().get(conditionCodes, 0, rows);
+        block.position(block.position() + rows * Integer.BYTES);
+        block.asIntBuffer().get(stateCodes, 0, rows);
+        block.position(block.position() + rows * Integer.BYTES);
+        block.asIntBuffer().get(nameEnds, 0, rows);
+        block.position(block.position() + rows * Integer.BYTES);
+
+        int namesLength = block.remaining();
+        if (names.length < namesLength) {
+            names = new byte[namesLength];
+        }
+        block.get(names, 0, namesLength);
+
+        this.conditions = conditions;
+        this.states = states;
+        this.size = rows;
+    }
+
+    private int nameStart(int row) {
+        return row == 0 ? 0 : nameEnds[row - 1];
+    }
+
+    private byte[] dictionaryBytes(int column, int row) {
+        switch (column) {
+            case CONDITION:
+                return conditions.bytes[conditionCodes[row]];
+            case STATE:
+                return states.bytes[stateCodes[row]];
+            default:
+                throw new IllegalArgumentException("not a text column " + column);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package segment;
+
+import csv.MappedCSVReader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Directory of segments, one per CSV file. A segment is valid for the same file path, size and last-modified time
+ * and the same delimiter, a changed file has to be ingested again.
+ */
+public final class SegmentStore {
+
+    private static final String SEGMENT_SUFFIX = ".segment";
+
+    private final Path directory;
+
+    public SegmentStore(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param attributes current attributes of the CSV file which the segment is validated against
+     * @return valid segment of the file, null if it has none, the segment is stale or can not be read
+     */
+    public Segment open(Path csvFile, BasicFileAttributes attributes, char delimiter) {
+        Path path = segmentPath(csvFile);
+        if (!Files.exists(path)) {
+            return null;
+        }
+        try {
+            Segment segment = Segment.open(path);
+            if (isValid(segment, csvFile, attributes, delimiter)) {
+                return segment;
+            }
+            segment.close();
+        } catch (IOException e) {
+            System.err.println(String.format("Failed to open segment of %s: %s", csvFile, e));
+        }
+        return null;
+    }
+
+    /**
+     * Converts the CSV file into a segment unless it has a valid one already. The segment is written to a temporary
+     * file first, so a failed or concurrent ingest never leaves a partial segment.
+     *
+     * @return true if the segment is written, false if it is up to date
+     */
+    public boolean ingest(Path csvFile, char delimiter) throws IOException {
+        BasicFileAttributes attributes = Files.readAttributes(csvFile, BasicFileAttributes.class);
+        Segment existing = open(csvFile, attributes, delimiter);
+        if (existing != null) {
+            existing.close();
+            return false;
+        }
+
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, "segment", ".tmp");
+        try {
+            try (SegmentWriter writer = new SegmentWriter(temp)) {
+                new MappedCSVReader(csvFile, delimiter).read(writer);
+                writer.finish(sourcePath(csvFile), attributes.size(), attributes.lastModifiedTime().toMillis(),
+                        delimiter);
+            }
+            Files.move(temp, segmentPath(csvFile), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+        return true;
+    }
+
+    private Path segmentPath(Path csvFile) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            byte[] hash = digest.digest(sourcePath(csvFile).getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder();
+            for (int i = 0; i < 16; i++) {
+                name.append(String.format("%02x", hash[i]));
+            }
+            return directory.resolve(name.append(SEGMENT_SUFFIX).toString());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isValid(Segment segment, Path csvFile, BasicFileAttributes attributes, char delimiter) {
+        return segment.getSourcePath().equals(sourcePath(csvFile))
+                && segment.getSourceSize() == attributes.size()
+                && segment.getSourceLastModified() == attributes.lastModifiedTime().toMillis()
+                && segment.getDelimiter() == delimiter;
+    }
+
+    private static String sourcePath(Path csvFile) {
+        return csvFile.toAbsolutePath().normalize().toString();
+    }
+}
@@ -0,0 +1,262 @@
+package segment;
+
+import csv.CSVRow;
+import csv.RowHandler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes the valid rows of a CSV file handed over by a {@link csv.MappedCSVReader} as a {@link Segment}. Rows are
+ * buffered column by column in runs of {@link #RUN_BLOCKS} blocks, every run is ordered by price before it is
+ * written, so that blocks cover narrow price ranges and most of them can be skipped by their zone maps. The footer
+ * is written by {@link #finish}.
+ */
+final class SegmentWriter implements RowHandler, Closeable {
+
+    static final int BLOCK_ROWS = 16 * 1024;
+
+    static final int RUN_BLOCKS = 16;
+
+    private static final int RUN_ROWS = BLOCK_ROWS * RUN_BLOCKS;
+
+    private final FileChannel channel;
+
+    private final int[] ids = new int[RUN_ROWS];
+
+    private final double[] prices = new double[RUN_ROWS];
+
+    private final long[] sourceOffsets = new long[RUN_ROWS];
+
+    private final int[] conditionCodes = new int[RUN_ROWS];
+
+    private final int[] stateCodes = new int[RUN_ROWS];
+
+    private final int[] nameEnds = new int[RUN_ROWS];
+
+    private final long[] order = new long[RUN_ROWS];
+
+    private final DictionaryBuilder conditions = new DictionaryBuilder();
+
+    private final DictionaryBuilder states = new DictionaryBuilder();
+
+    private final List<Segment.Block> blocks = new ArrayList<>();
+
+    private byte[] names = new byte[RUN_ROWS * 16];
+
+    private int rows;
+
+    private long rowsRejected;
+
+    private long position;
+
+    SegmentWriter(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = ByteBuffer.allocate(Segment.HEADER_SIZE).putInt(Segment.MAGIC).putInt(Segment.VERSION);
+        writeFully(header.flip());
+    }
+
+    @Override
+    public void handle(CSVRow row) {
+        if (row.getFieldCount() != 5) {
+            rowsRejected++;
+            return;
+        }
+        if (!row.tryParseInt(0) || !row.tryParseDouble(4)) {
+            rowsRejected++;
+            return;
+        }
+        int id = row.getParsedInt();
+        double price = row.getParsedDouble();
+
+        int nameStart = rows == 0 ? 0 : nameEnds[rows - 1];
+        int nameLength = row.getFieldLength(1);
+        if (nameStart + nameLength > names.length) {
+            names = Arrays.copyOf(names, Math.max(names.length * 2, nameStart + nameLength));
+        }
+        row.copyField(1, names, nameStart);
+
+        ids[rows] = id;
+        prices[rows] = price;
+        sourceOffsets[rows] = row.getOffset();
+        conditionCodes[rows] = conditions.code(row.getString(2));
+        stateCodes[rows] = states.code(row.getString(3));
+        nameEnds[rows] = nameStart + nameLength;
+        if (++rows == RUN_ROWS) {
+            try {
+                writeRun();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+
+    /**
+     * Writes the last block and the footer which describes the source file, the dictionaries and the blocks.
+     */
+    void finish(String sourcePath, long sourceSize, long sourceLastModified, char delimiter) throws IOException {
+        if (rows > 0) {
+            writeRun();
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream footer = new DataOutputStream(bytes)) {
+            footer.writeUTF(sourcePath);
+            footer.writeLong(sourceSize);
+            footer.writeLong(sourceLastModified);
+            footer.writeChar(delimiter);
+            footer.writeLong(rowsRejected);
+            conditions.writeTo(footer);
+            states.writeTo(footer);
+            footer.writeInt(blocks.size());
+            for (Segment.Block block : blocks) {
+                footer.writeLong(block.getOffset());
+                footer.writeInt(block.getLength());
+                footer.writeInt(block.getRows());
+                footer.writeInt(block.getMinId());
+                footer.writeInt(block.getMaxId());
+                footer.writeDouble(block.getMinPrice());
+                footer.writeDouble(block.getMaxPrice());
+            }
+        }
+
+        long footerOffset = position;
+        writeFully(ByteBuffer.wrap(bytes.toByteArray()));
+        writeFully(ByteBuffer.allocate(Segment.TRAILER_SIZE).putLong(footerOffset).putInt(Segment.MAGIC).flip());
+        channel.force(false);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Orders the buffered rows by price and writes them as blocks. Rows are ordered by the float approximation of
+     * their price packed with their index into a long, which sorts as a plain primitive array; zone maps are computed
+     * from the exact prices, so the approximation only makes them slightly wider.
+     */
+    private void writeRun() throws IOException {
+        for (int i = 0; i < rows; i++) {
+            order[i] = ((long) sortableBits((float) prices[i]) << 32) | i;
+        }
+        Arrays.sort(order, 0, rows);
+
+        for (int start = 0; start < rows; start += BLOCK_ROWS) {
+            writeBlock(start, Math.min(start + BLOCK_ROWS, rows));
+        }
+        rows = 0;
+    }
+
+    /**
+     * Writes the rows at positions {@code [from, to)} of the run order as one block.
+     */
+    private void writeBlock(int from, int to) throws IOException {
+        int count = to - from;
+        int namesLength = 0;
+        for (int i = from; i < to; i++) {
+            namesLength += nameLength(rowAt(i));
+        }
+        int length = count * (Integer.BYTES * 4 + Double.BYTES + Long.BYTES) + namesLength;
+        ByteBuffer block = ByteBuffer.allocate(length);
+
+        int minId = Integer.MAX_VALUE;
+        int maxId = Integer.MIN_VALUE;
+        double minPrice = Double.POSITIVE_INFINITY;
+        double maxPrice = Double.NEGATIVE_INFINITY;
+        for (int i = from; i < to; i++) {
+            int row = rowAt(i);
+            minId = Math.min(minId, ids[row]);
+            maxId = Math.max(maxId, ids[row]);
+            minPrice = Math.min(minPrice, prices[row]);
+            maxPrice = Math.max(maxPrice, prices[row]);
+            block.putInt(ids[row]);
+        }
+        for (int i = from; i < to; i++) {
+            block.putDouble(prices[rowAt(i)]);
+        }
+        for (int i = from; i < to; i++) {
+            block.putLong(sourceOffsets[rowAt(i)]);
+        }
+        for (int i = from; i < to; i++) {
+            block.putInt(conditionCodes[rowAt(i)]);
+        }
+        for (int i = from; i < to; i++) {
+            block.putInt(stateCodes[rowAt(i)]);
+        }
+        int nameEnd = 0;
+        for (int i = from; i < to; i++) {
+            nameEnd += nameLength(rowAt(i));
+            block.putInt(nameEnd);
+        }
+        for (int i = from; i < to; i++) {
+            int row = rowAt(i);
+            int nameStart = row == 0 ? 0 : nameEnds[row - 1];
+            block.put(names, nameStart, nameEnds[row] - nameStart);
+        }
+
+        blocks.add(new Segment.Block(position, length, count, minId, maxId, minPrice, maxPrice));
+        writeFully(block.flip());
+    }
+
+    private int rowAt(int position) {
+        return (int) order[position];
+    }
+
+    private int nameLength(int row) {
+        return nameEnds[row] - (row == 0 ? 0 : nameEnds[row - 1]);
+    }
+
+    /**
+     * @return bits of the float which order as signed ints like the floats themselves
+     */
+    private static int sortableBits(float value) {
+        int bits = Float.floatToIntBits(value);
+        return bits ^ ((bits >> 31) & 0x7FFFFFFF);
+    }
+
+    private void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            position += channel.write(buffer);
+        }
+    }
+
+    private static final class DictionaryBuilder {
+
+        private final Map<String, Integer> codes = new HashMap<>();
+
+        private final List<byte[]> values = new ArrayList<>();
+
+        private int code(String value) {
+            Integer code = codes.get(value);
+            if (code == null) {
+                code = values.size();
+                codes.put(value, code);
+                values.add(value.getBytes(StandardCharsets.UTF_8));
+            }
+            return code;
+        }
+
+        private void writeTo(DataOutputStream out) throws IOException {
+            out.writeInt(values.size());
+            for (byte[] value : values) {
+                out.writeInt(value.length);
+                out.write(value);
+            }
+        }
+    }
+}
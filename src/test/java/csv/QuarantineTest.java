@@ -0,0 +1,71 @@
+package csv;
+
+import main.Params;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import product.ProductService;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class QuarantineTest {
+
+    /**
+     * Rejected rows by their 1-based line numbers, the last line has no line separator.
+     */
+    private static final Map<Integer, String> REJECTED = new TreeMap<>(Map.of(
+            3, "x1,apple,new,ok,1.5",
+            50, "7,pear,new,ok,abc",
+            51, "8,plum,new",
+            120, "",
+            200, "9,fig,new,ok,"));
+
+    private static final Map<Integer, RowStatus> STATUSES = Map.of(
+            3, RowStatus.MALFORMED_ID,
+            50, RowStatus.MALFORMED_PRICE,
+            51, RowStatus.WRONG_FIELD_COUNT,
+            120, RowStatus.WRONG_FIELD_COUNT,
+            200, RowStatus.MALFORMED_PRICE);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void quarantinesRowsWithTheirLineNumbers() throws IOException {
+        Path files = Files.createDirectory(directory.resolve("files"));
+        StringBuilder text = new StringBuilder();
+        for (int line = 1; line <= 200; line++) {
+            text.append(REJECTED.getOrDefault(line, line + ",product" + line + ",new,ok," + line / 4.0));
+            if (line < 200) {
+                text.append(line % 2 == 0 ? "\r\n" : "\n");
+            }
+        }
+        Path file = Files.writeString(files.resolve("products.csv"), text);
+
+        List<String> expected = new ArrayList<>();
+        for (Map.Entry<Integer, String> rejected : REJECTED.entrySet()) {
+            String row = rejected.getValue();
+            expected.add(file + "," + rejected.getKey() + "," + STATUSES.get(rejected.getKey()).getDescription() + ","
+                    + (row.contains(",") ? '"' + row + '"' : row));
+        }
+
+        for (Params.ReaderMode readerMode : Params.ReaderMode.values()) {
+            Path quarantineFile = directory.resolve("rejected-" + readerMode + ".csv");
+            Params params = Params.builder(files.toString())
+                    .readerMode(readerMode)
+                    .rangeSize(64) // rows of the mapped reader are spread over many ranges
+                    .quarantineFile(quarantineFile.toString())
+                    .build();
+            new ProductService().getCheapestProducts(List.of(file), params);
+
+            assertEquals(expected, Files.readAllLines(quarantineFile), readerMode.toString());
+        }
+    }
+}
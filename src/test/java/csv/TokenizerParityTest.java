@@ -0,0 +1,170 @@
+package csv;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Reads adversarial files with both tokenizers of {@link MappedCSVReader}, over the whole file, over small ranges and
+ * over small mapping windows, and compares the rows with the ones {@link CSVReader} splits from the same text.
+ */
+class TokenizerParityTest {
+
+    private static final char DELIMITER = ';';
+
+    private static final long[] RANGE_SIZES = {1, 7, 8, 63, 64, 65, 100};
+
+    /**
+     * Window sizes must exceed the longest row of the files below.
+     */
+    private static final long[] WINDOW_SIZES = {160, 200, 257};
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void edgeCases() throws IOException {
+        assertParity("");
+        assertParity("\n");
+        assertParity("\r\n");
+        assertParity("\n\n\r\n\n");
+        assertParity("a");
+        assertParity("a;b;c;d;e");
+        assertParity("a;b;c;d;e\n");
+        assertParity("a;b;c;d;e\r\n");
+        assertParity("a;b;c;d;e;f;g\r\nh;;\n;\r\n;;;;;;\n");
+        assertParity("1;2\n\n3\r\n\r\n4;5;6;7;8;9;10");
+        assertParity("a;b\r");
+        assertParity(";;;;\r\n;;;;;");
+    }
+
+    /**
+     * Moves a delimiter, a line feed and a CRLF separator over every position of the first blocks, so each of them
+     * lands on and next to every 8-byte word boundary and the 64-byte block boundary.
+     */
+    @Test
+    void separatorsAtWordAndBlockBoundaries() throws IOException {
+        for (int padding = 0; padding < 2 * Long.SIZE + 2; padding++) {
+            String prefix = "x".repeat(padding);
+            assertParity(prefix + ";y;z\n1;2;3;4;5;6\n");
+            assertParity(prefix + "\r\n;y\r\n");
+            assertParity(prefix + "\n\n" + prefix);
+            assertParity("a;b;c;d;e;" + prefix + "\r\n" + prefix);
+        }
+    }
+
+    @Test
+    void randomRows() throws IOException {
+        Random random = new Random(42);
+        for (int i = 0; i < 200; i++) {
+            assertParity(randomText(random));
+        }
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        int rows = random.nextInt(40);
+        for (int i = 0; i < rows; i++) {
+            int fields = random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(7);
+            for (int j = 0; j < fields; j++) {
+                if (j > 0) {
+                    text.append(DELIMITER);
+                }
+                int length = random.nextInt(18);
+                for (int k = 0; k < length; k++) {
+                    text.append((char) ('a' + random.nextInt(26)));
+                }
+            }
+            if (i < rows - 1 || random.nextBoolean()) {
+                text.append(random.nextBoolean() ? "\r\n" : "\n");
+            }
+        }
+        return text.toString();
+    }
+
+    private void assertParity(String text) throws IOException {
+        Path file = Files.createTempFile(directory, "rows", ".csv");
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        List<String> expected = split(text);
+
+        for (Tokenizer tokenizer : Tokenizer.values()) {
+            MappedCSVReader reader = new MappedCSVReader(file, DELIMITER, tokenizer);
+            List<String> rows = new ArrayList<>();
+            reader.read(row -> rows.add(describe(row)));
+            assertEquals(expected, rows, () -> tokenizer + " over the whole file of " + quote(text));
+
+            for (long rangeSize : RANGE_SIZES) {
+                List<String> rangeRows = new ArrayList<>();
+                for (FileRange range : reader.split(rangeSize)) {
+                    reader.read(range, row -> rangeRows.add(describe(row)));
+                }
+                assertEquals(expected, rangeRows,
+                        () -> tokenizer + " over ranges of " + rangeSize + " bytes of " + quote(text));
+            }
+
+            for (long windowSize : WINDOW_SIZES) {
+                List<String> windowRows = new ArrayList<>();
+                new MappedCSVReader(file, DELIMITER, tokenizer, windowSize).read(row -> windowRows.add(describe(row)));
+                assertEquals(expected, windowRows,
+                        () -> tokenizer + " over windows of " + windowSize + " bytes of " + quote(text));
+            }
+        }
+        Files.delete(file);
+    }
+
+    /**
+     * @return rows of the text as {@link CSVReader} splits them, each with its offset and line appended
+     */
+    private static List<String> split(String text) {
+        List<String> rows = new ArrayList<>();
+        for (List<String[]> batch : new CSVReader(new StringReader(text), DELIMITER, 3)) {
+            for (String[] fields : batch) {
+                rows.add(String.join("|", Arrays.asList(fields).subList(0, fieldCount(fields))));
+            }
+        }
+
+        int offset = 0;
+        for (int i = 0; i < rows.size(); i++) {
+            int end = text.indexOf('\n', offset);
+            int next = end == -1 ? text.length() : end + 1;
+            String line = text.substring(offset, end == -1 ? text.length() : end);
+            if (line.endsWith("\r")) {
+                line = line.substring(0, line.length() - 1);
+            }
+            rows.set(i, offset + "|" + rows.get(i) + "|" + line);
+            offset = next;
+        }
+        return rows;
+    }
+
+    private static int fieldCount(String[] fields) {
+        int count = 0;
+        while (count < fields.length && fields[count] != null) {
+            count++;
+        }
+        return count;
+    }
+
+    private static String describe(CSVRow row) {
+        List<String> fields = new ArrayList<>();
+        for (int i = 0; i < row.getFieldCount(); i++) {
+            fields.add(row.getString(i));
+        }
+        return row.getOffset() + "|" + String.join("|", fields) + "|" + row.getLine();
+    }
+
+    private static String quote(String text) {
+        return '"' + text.replace("\r", "\\r").replace("\n", "\\n") + '"';
+    }
+}
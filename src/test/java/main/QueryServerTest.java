@@ -0,0 +1,83 @@
+package main;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryServerTest {
+
+    @TempDir
+    Path directory;
+
+    private QueryServer server;
+
+    private int port;
+
+    private final HttpClient client = HttpClient.newHttpClient();
+
+    @BeforeEach
+    void start() throws IOException {
+        Path files = Files.createDirectory(directory.resolve("files"));
+        Files.writeString(files.resolve("products.csv"), "1,apple,new,ok,3.5\n"
+                + "2,pear,used,ok,1.25\n"
+                + "3,plum,new,ok,2.0\n"
+                + "2,pear,new,ok,0.5\n");
+        Params params = Params.builder(files.toString())
+                .segmentDirectory(directory.resolve("segments").toString())
+                .serverPort(0)
+                .serverThreads(2)
+                .build();
+        server = new QueryServer(params, new FileDiscovery(params));
+        port = server.start();
+    }
+
+    @AfterEach
+    void stop() {
+        server.stop();
+    }
+
+    @Test
+    void answersQueryWithCSV() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("n=2&filter=condition%20%3D%20'new'")));
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/csv"));
+        assertEquals("2,pear,new,ok,0.5\n3,plum,new,ok,2.0\n", response.body());
+    }
+
+    @Test
+    void rejectsUnknownParameter() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("n=2&color=red")));
+
+        assertEquals(400, response.statusCode());
+        assertTrue(response.body().startsWith("Unknown parameter color"), response.body());
+    }
+
+    @Test
+    void rejectsNonGetRequest() throws Exception {
+        HttpResponse<String> response = send(HttpRequest.newBuilder(uri("n=2"))
+                .POST(HttpRequest.BodyPublishers.ofString("")));
+
+        assertEquals(405, response.statusCode());
+    }
+
+    private URI uri(String query) {
+        return URI.create("http://localhost:" + port + "/products?" + query);
+    }
+
+    private HttpResponse<String> send(HttpRequest.Builder request) throws Exception {
+        return client.send(request.build(), HttpResponse.BodyHandlers.ofString());
+    }
+}
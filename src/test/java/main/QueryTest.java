@@ -0,0 +1,43 @@
+package main;
+
+import org.junit.jupiter.api.Test;
+import query.Column;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QueryTest {
+
+    @Test
+    void keepsSeparatorsInsideQuotedLiterals() {
+        Query query = Query.parse("10:2:out.csv@filter=name = 'a@b' or state = 'it''s@home'@sortOrder=desc@limitBy=none");
+
+        assertEquals("(name = 'a@b' or state = 'it''s@home')", query.getFilter().toString());
+        assertTrue(query.isDescending());
+        assertNull(query.getLimitColumn());
+        assertEquals("out.csv", query.getOutputFile());
+    }
+
+    @Test
+    void splitsOutsideQuotes() {
+        assertEquals(List.of("1:1:a.csv@filter=name = 'x;y'", "2:1:b.csv@sortBy=id"),
+                Query.split("1:1:a.csv@filter=name = 'x;y';2:1:b.csv@sortBy=id", ';'));
+        assertEquals(List.of("a", "", "b'@'c", ""), Query.split("a@@b'@'c@", '@'));
+
+        Query query = Query.parse("5:1:out.csv@sortBy=id@limitBy=state");
+        assertEquals(Column.ID, query.getSortColumn());
+        assertEquals(Column.STATE, query.getLimitColumn());
+    }
+
+    @Test
+    void rejectsIncorrectQueries() {
+        for (String value : List.of("10:2", "10:2:", "x:2:out.csv", "10:2:out.csv@color=red", "10:2:out.csv@filter",
+                "10:2:out.csv@filter=name = 'a@b", "10:2:out.csv@sortBy=name")) {
+            assertThrows(IllegalArgumentException.class, () -> Query.parse(value), value);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package product;
+
+import main.Params;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AnytimeResultsTest {
+
+    private static final Pattern SNAPSHOT = Pattern.compile("\"snapshot\": \"([^\"]+)\"");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void stopsOnByteBudget() throws IOException {
+        List<Path> files = ProductFiles.write(Files.createDirectory(directory.resolve("files")), new Random(11), 40,
+                2000);
+        Path snapshots = directory.resolve("snapshots");
+        Params params = Params.builder(directory.toString())
+                .productResultRowsCount(100)
+                .duplicateProductsMaxCount(3)
+                .cpuThreads(1)
+                .ioThreads(1)
+                .byteBudget(1) // spent by the first range read
+                .snapshotDirectory(snapshots.toString())
+                .build();
+
+        List<ResultStream> results = new ProductService().streamQueryResults(files, params);
+        assertEquals(1, results.size());
+        List<Product> products = new ArrayList<>();
+        try (ResultStream result = results.get(0)) {
+            result.forEachRemaining(products::add);
+        }
+
+        ResultCoverage coverage = results.get(0).getCoverage();
+        assertNotNull(coverage);
+        assertTrue(results.get(0).isPartial());
+        assertEquals(files.size(), coverage.getFilesCount());
+        assertTrue(coverage.getCompletedFiles() < files.size(), coverage.describe());
+
+        // the last snapshot names a directory with the results it describes
+        String json = Files.readString(snapshots.resolve("snapshot.json"));
+        assertTrue(json.contains("\"partial\": true"), json);
+        assertTrue(json.contains("\"completedFiles\": " + coverage.getCompletedFiles() + ","), json);
+        Matcher snapshot = SNAPSHOT.matcher(json);
+        assertTrue(snapshot.find(), json);
+        List<String> rows = Files.readAllLines(snapshots.resolve(snapshot.group(1)).resolve("query-1.csv"));
+        assertEquals(products.stream().map(product -> product.getProductId() + "," + product.getName())
+                .collect(Collectors.toList()), rows.stream().map(AnytimeResultsTest::idAndName)
+                .collect(Collectors.toList()));
+    }
+
+    @Test
+    void keepsLatestTwoSnapshots() throws IOException {
+        List<Path> files = ProductFiles.write(Files.createDirectory(directory.resolve("files")), new Random(13), 30,
+                2000);
+        Path snapshots = directory.resolve("snapshots");
+        Params params = Params.builder(directory.toString())
+                .cpuThreads(1)
+                .snapshotDirectory(snapshots.toString())
+                .snapshotInterval(1)
+                .build();
+
+        List<ResultStream> results = new ProductService().streamQueryResults(files, params);
+        results.get(0).close();
+        assertFalse(results.get(0).isPartial());
+
+        String json = Files.readString(snapshots.resolve("snapshot.json"));
+        assertTrue(json.contains("\"partial\": false"), json);
+        Matcher snapshot = SNAPSHOT.matcher(json);
+        assertTrue(snapshot.find(), json);
+        try (Stream<Path> list = Files.list(snapshots)) {
+            List<Path> directories = list.filter(Files::isDirectory).collect(Collectors.toList());
+            assertTrue(directories.size() <= 2, directories.toString());
+            assertTrue(directories.contains(snapshots.resolve(snapshot.group(1))), directories.toString());
+        }
+    }
+
+    private static String idAndName(String row) {
+        String[] fields = row.split(",");
+        return fields[0] + "," + fields[1];
+    }
+}
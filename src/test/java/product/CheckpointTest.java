@@ -0,0 +1,106 @@
+package product;
+
+import main.Params;
+import metrics.RunMetrics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CheckpointTest {
+
+    @TempDir
+    Path directory;
+
+    private Path checkpointFile;
+
+    private List<Path> files;
+
+    @BeforeEach
+    void writeFiles() throws IOException {
+        checkpointFile = directory.resolve("run.checkpoint");
+        files = ProductFiles.write(Files.createDirectory(directory.resolve("files")), new Random(5), 6, 500);
+    }
+
+    @Test
+    void resumesWithoutReadingCompletedFiles() throws IOException {
+        List<Product> expected = new ProductService().getCheapestProducts(files, params().build());
+        Params params = params().checkpointFile(checkpointFile.toString()).build();
+        writeCheckpoint(params, files.subList(0, 3));
+
+        // a completed file whose content changes but keeps its size and modification time is not read again
+        Path completed = files.get(0);
+        FileTime lastModified = Files.getLastModifiedTime(completed);
+        Files.writeString(completed, Files.readString(completed).replace("product", "PRODUCT"));
+        Files.setLastModifiedTime(completed, lastModified);
+
+        assertEquals(expected, read(new ProductService().streamQueryResults(files, params)));
+        assertFalse(Files.exists(checkpointFile), "checkpoint is deleted once the run succeeds");
+    }
+
+    @Test
+    void failsOnChangedCompletedFile() throws IOException {
+        Params params = params().checkpointFile(checkpointFile.toString()).build();
+        writeCheckpoint(params, files.subList(0, 3));
+        Files.writeString(files.get(1), "1,late,new,ok,0.5\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class,
+                () -> new ProductService().streamQueryResults(files, params));
+        String cause = String.valueOf(e.getCause());
+        assertTrue(cause.contains("has changed since checkpoint"), cause);
+    }
+
+    @Test
+    void rejectsCheckpointOfOtherQueriesOrDelimiter() throws IOException {
+        writeCheckpoint(params().checkpointFile(checkpointFile.toString()).build(), files.subList(0, 3));
+
+        Params otherQuery = params().productResultRowsCount(50).checkpointFile(checkpointFile.toString()).build();
+        assertThrows(IllegalStateException.class, () -> new ProductService().streamQueryResults(files, otherQuery));
+
+        Params otherDelimiter = params().delimiter(';').checkpointFile(checkpointFile.toString()).build();
+        assertThrows(IllegalStateException.class,
+                () -> new ProductService().streamQueryResults(files, otherDelimiter));
+        assertTrue(Files.exists(checkpointFile), "a rejected checkpoint is kept");
+    }
+
+    private Params.Builder params() {
+        return Params.builder(directory.toString())
+                .productResultRowsCount(100)
+                .duplicateProductsMaxCount(3);
+    }
+
+    /**
+     * Writes the checkpoint of a run which stopped once the given files were completed.
+     */
+    private static void writeCheckpoint(Params params, List<Path> completed) throws IOException {
+        try (Checkpoint checkpoint = new Checkpoint(params)) {
+            new ProcessingRun(completed, 0, params, null, ProductService.newThresholds(params),
+                    new SpillRuns[params.getQueries().size()], new RunMetrics(completed.size()), null, checkpoint)
+                    .execute();
+        }
+        assertTrue(Files.exists(Path.of(params.getCheckpointFile())));
+    }
+
+    private static List<Product> read(List<ResultStream> results) throws IOException {
+        assertEquals(1, results.size());
+        List<Product> products = new ArrayList<>();
+        try (ResultStream result = results.get(0)) {
+            result.forEachRemaining(products::add);
+        }
+        return products;
+    }
+}
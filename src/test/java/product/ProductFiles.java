@@ -0,0 +1,50 @@
+package product;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * CSV files of random products for tests. Rows have few distinct ids and states, so duplicate caps matter, and
+ * distinct prices, so the result of a query sorted by price is unambiguous.
+ */
+final class ProductFiles {
+
+    private ProductFiles() {
+    }
+
+    static List<Path> write(Path directory, Random random, int filesCount, int rowsCount) throws IOException {
+        return write(directory, random, filesCount, rowsCount, 60);
+    }
+
+    /**
+     * @param ids number of distinct product ids
+     */
+    static List<Path> write(Path directory, Random random, int filesCount, int rowsCount, int ids)
+            throws IOException {
+        List<Integer> prices = new ArrayList<>();
+        for (int i = 0; i < filesCount * rowsCount; i++) {
+            prices.add(i);
+        }
+        Collections.shuffle(prices, random);
+
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < filesCount; i++) {
+            StringBuilder rows = new StringBuilder();
+            for (int j = 0; j < rowsCount; j++) {
+                int id = random.nextInt(ids);
+                rows.append(id).append(",product").append(id).append(random.nextBoolean() ? ",new," : ",used,")
+                        .append("state").append(random.nextInt(5)).append(',')
+                        .append(prices.get(i * rowsCount + j) / 100.0).append('\n');
+            }
+            Path file = directory.resolve("products-" + i + ".csv");
+            Files.writeString(file, rows);
+            files.add(file);
+        }
+        return files;
+    }
+}
@@ -0,0 +1,216 @@
+package product;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Compares the reduction of partial results by {@link ProductMerger} and {@link PartialResultReducer} with the merge
+ * of product arrays which the pipeline used before, on random chunks with many ties on price.
+ */
+class ProductMergerTest {
+
+    private static final Comparator<Product> PRICE_ASCENDING = Comparator.comparingDouble(Product::getPrice);
+
+    private static final Comparator<Product> PRICE_DESCENDING = PRICE_ASCENDING.reversed();
+
+    @Test
+    void reducesAsArrayMergeDoes() throws Exception {
+        Random random = new Random(3);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (int round = 0; round < 300; round++) {
+                int resultSize = 1 + random.nextInt(60);
+                int[] caps = {1, 1 + random.nextInt(4), resultSize};
+                int cap = caps[round % caps.length];
+                List<List<Product>> chunks = randomChunks(random, 1 + random.nextInt(30));
+                String description = String.format("round %s, result size %s, cap %s", round, resultSize, cap);
+
+                List<Product> expected = reduceArrays(chunks, resultSize, cap);
+                assertEquivalent(expected, reduceSequentially(chunks, resultSize, cap), cap, description);
+                assertEquivalent(expected, reduceConcurrently(chunks, resultSize, cap, executor), cap, description);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Counts of one generation must not leak into the next one, whether the table is rehashed or not.
+     */
+    @Test
+    void clearsCountsBetweenGenerations() {
+        IntIntCounter counter = new IntIntCounter(4);
+        for (int generation = 0; generation < 1000; generation++) {
+            int keys = 1 + generation % 100;
+            for (int key = 0; key < keys; key++) {
+                assertTrue(counter.incrementIfBelow(key * 31 + generation, 2));
+                assertTrue(counter.incrementIfBelow(key * 31 + generation, 2));
+                assertFalse(counter.incrementIfBelow(key * 31 + generation, 2));
+            }
+            assertEquals(keys, counter.size());
+            counter.clear();
+            assertEquals(0, counter.size());
+            assertEquals(0, counter.get(generation));
+        }
+    }
+
+    /**
+     * Products with few distinct ids and prices, every product has a name of its own.
+     */
+    private static List<List<Product>> randomChunks(Random random, int count) {
+        List<List<Product>> chunks = new ArrayList<>();
+        int ids = 1 + random.nextInt(20);
+        int name = 0;
+        for (int i = 0; i < count; i++) {
+            List<Product> chunk = new ArrayList<>();
+            int size = random.nextInt(40);
+            for (int j = 0; j < size; j++) {
+                chunk.add(new Product(random.nextInt(ids), "product" + name++, "new", "state",
+                        random.nextInt(25) / 2.0));
+            }
+            chunks.add(chunk);
+        }
+        return chunks;
+    }
+
+    /**
+     * Every chunk is capped by a merge with an empty batch as the collectors do, then the partial results are offered
+     * to the reducer on the current thread with one merger, so the counter of the merger goes through many
+     * generations.
+     */
+    private static List<Product> reduceSequentially(List<List<Product>> chunks, int resultSize, int cap) {
+        ProductMerger merger = new ProductMerger(resultSize, cap);
+        PartialResultReducer<ProductBatch> reducer = new PartialResultReducer<>();
+        for (List<Product> chunk : chunks) {
+            reducer.offer(partial(chunk, merger), (first, second) -> merge(first, second, merger));
+        }
+        return reducer.getResult().toProducts();
+    }
+
+    private static List<Product> reduceConcurrently(List<List<Product>> chunks, int resultSize, int cap,
+                                                    ExecutorService executor) throws Exception {
+        ThreadLocal<ProductMerger> mergers = ThreadLocal.withInitial(() -> new ProductMerger(resultSize, cap));
+        PartialResultReducer<ProductBatch> reducer = new PartialResultReducer<>();
+        List<Future<?>> futures = new ArrayList<>();
+        for (List<Product> chunk : chunks) {
+            futures.add(executor.submit(() -> reducer.offer(partial(chunk, mergers.get()),
+                    (first, second) -> merge(first, second, mergers.get()))));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        return reducer.getResult().toProducts();
+    }
+
+    private static ProductBatch partial(List<Product> chunk, ProductMerger merger) {
+        List<Product> sorted = new ArrayList<>(chunk);
+        sorted.sort(PRICE_ASCENDING);
+        ProductBatch batch = new ProductBatch(sorted.size());
+        for (Product product : sorted) {
+            batch.add(product, product.getPrice(), product.getProductId());
+        }
+        return merge(batch, new ProductBatch(0), merger);
+    }
+
+    private static ProductBatch merge(ProductBatch first, ProductBatch second, ProductMerger merger) {
+        ProductBatch result = new ProductBatch(merger.getResultSize());
+        merger.merge(first, null, second, null, result);
+        return result;
+    }
+
+    /**
+     * Reduces the chunks pairwise in arrival order as the merger thread of the original pipeline did.
+     */
+    private static List<Product> reduceArrays(List<List<Product>> chunks, int resultSize, int cap) {
+        Deque<Product[]> partials = new ArrayDeque<>();
+        for (List<Product> chunk : chunks) {
+            Product[] products = chunk.toArray(new Product[0]);
+            Arrays.sort(products, PRICE_DESCENDING);
+            partials.addLast(mergeArrays(products, new Product[0], resultSize, cap));
+        }
+        while (partials.size() > 1) {
+            partials.addLast(mergeArrays(partials.removeFirst(), partials.removeFirst(), resultSize, cap));
+        }
+        return Arrays.stream(partials.removeFirst()).filter(Objects::nonNull).sorted(PRICE_ASCENDING)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Merge of two arrays sorted by price descending as the original pipeline did it.
+     */
+    private static Product[] mergeArrays(Product[] firstArray, Product[] secondArray, int resultSize,
+                                         int duplicateMaxCount) {
+        Map<Integer, Integer> productsCounter = new HashMap<>();
+        Product[] result = new Product[Math.min(firstArray.length + secondArray.length, resultSize)];
+
+        int firstIndex = firstArray.length - 1;
+        int secondIndex = secondArray.length - 1;
+        int insertionIndex = result.length - 1;
+
+        while (insertionIndex >= 0) {
+            Product product;
+            if (firstIndex >= 0 && firstArray[firstIndex] != null) {
+                if (secondIndex >= 0 && secondArray[secondIndex] != null
+                        && PRICE_DESCENDING.compare(firstArray[firstIndex], secondArray[secondIndex]) <= 0) {
+                    product = secondArray[secondIndex--];
+                } else {
+                    product = firstArray[firstIndex--];
+                }
+            } else if (secondIndex >= 0 && secondArray[secondIndex] != null) {
+                product = secondArray[secondIndex--];
+            } else {
+                break;
+            }
+            int count = productsCounter.getOrDefault(product.getProductId(), 0);
+            if (count < duplicateMaxCount) {
+                result[insertionIndex--] = product;
+                productsCounter.put(product.getProductId(), count + 1);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Ties on price may select other products of the same price, so results are equivalent if they have the same
+     * prices, the same products below the highest price and no more than the cap of products per id.
+     */
+    private static void assertEquivalent(List<Product> expected, List<Product> actual, int cap, String description) {
+        assertEquals(prices(expected), prices(actual), description);
+        if (expected.isEmpty()) {
+            return;
+        }
+        double highest = expected.get(expected.size() - 1).getPrice();
+        assertEquals(below(expected, highest), below(actual, highest), description);
+        Map<Integer, Long> counts = actual.stream()
+                .collect(Collectors.groupingBy(Product::getProductId, Collectors.counting()));
+        assertTrue(counts.values().stream().allMatch(count -> count <= cap), description);
+    }
+
+    private static List<Double> prices(List<Product> products) {
+        return products.stream().map(Product::getPrice).collect(Collectors.toList());
+    }
+
+    private static Map<String, Long> below(List<Product> products, double price) {
+        return products.stream().filter(product -> product.getPrice() < price)
+                .collect(Collectors.groupingBy(product -> product.getProductId() + "@" + product.getPrice(),
+                        Collectors.counting()));
+    }
+}
@@ -0,0 +1,99 @@
+package product;
+
+import main.Params;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ShardCoordinatorTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<ShardWorker> workers = new ArrayList<>();
+
+    @AfterEach
+    void closeWorkers() throws IOException {
+        for (ShardWorker worker : workers) {
+            worker.close();
+        }
+    }
+
+    @Test
+    void mergesShardsAsSingleProcessDoes() throws IOException {
+        List<Path> files = ProductFiles.write(directory, new Random(7), 12, 3000);
+        Params single = Params.builder(directory.toString())
+                .productResultRowsCount(200)
+                .duplicateProductsMaxCount(3)
+                .build();
+        List<Product> expected = new ProductService().getCheapestProducts(files, single);
+
+        List<String> addresses = List.of("localhost:" + startWorker(single), "localhost:" + startWorker(single));
+        Params sharded = Params.builder(directory.toString())
+                .productResultRowsCount(200)
+                .duplicateProductsMaxCount(3)
+                .workers(addresses)
+                .workerTimeout(20) // shorter than the shards take, heartbeats keep the workers alive
+                .build();
+        List<ResultStream> results = new ShardCoordinator(sharded, Map.of()).execute(files);
+
+        assertEquals(1, results.size());
+        List<Product> products = new ArrayList<>();
+        try (ResultStream result = results.get(0)) {
+            result.forEachRemaining(products::add);
+        }
+        assertEquals(expected, products);
+    }
+
+    @Test
+    void failsOnSilentWorker() throws IOException {
+        List<Path> files = ProductFiles.write(directory, new Random(7), 1, 10);
+        try (ServerSocket silent = new ServerSocket(0)) {
+            Thread acceptor = new Thread(() -> {
+                try (Socket ignored = silent.accept()) {
+                    Thread.sleep(5_000);
+                } catch (IOException | InterruptedException ignored) {
+                    // the test is over
+                }
+            });
+            acceptor.setDaemon(true);
+            acceptor.start();
+
+            Params params = Params.builder(directory.toString())
+                    .workers(List.of("localhost:" + silent.getLocalPort()))
+                    .workerTimeout(200)
+                    .build();
+            IllegalStateException e = assertThrows(IllegalStateException.class,
+                    () -> new ShardCoordinator(params, Map.of()).execute(files));
+            assertTrue(e.getMessage().contains(String.valueOf(silent.getLocalPort())), e.getMessage());
+        }
+    }
+
+    private int startWorker(Params params) throws IOException {
+        ShardWorker worker = new ShardWorker(0, arguments -> params);
+        workers.add(worker);
+        Thread thread = new Thread(() -> {
+            try {
+                worker.serve();
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.setDaemon(true);
+        thread.start();
+        return worker.getPort();
+    }
+}
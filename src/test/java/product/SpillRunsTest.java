@@ -0,0 +1,73 @@
+package product;
+
+import main.Params;
+import query.Column;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpillRunsTest {
+
+    private static final int RUN_ROWS = 16;
+
+    @TempDir
+    Path directory;
+
+    /**
+     * 16000 rows in runs of 16 rows make hundreds of runs, more than {@link SpillRuns#MAX_FAN_IN}, so the runs are
+     * merged in several passes.
+     */
+    @Test
+    void mergesSpilledRunsAsInMemoryCollectorDoes() throws IOException {
+        Path files = Files.createDirectory(directory.resolve("files"));
+        List<Path> csvFiles = ProductFiles.write(files, new Random(11), 8, 2000, 3000);
+        Path spillDirectory = directory.resolve("spill");
+
+        for (Column limitColumn : Arrays.asList(null, Column.ID, Column.STATE)) {
+            for (boolean descending : new boolean[]{false, true}) {
+                Params inMemory = params(files, limitColumn, descending).build();
+                Params spilled = params(files, limitColumn, descending)
+                        .spillDirectory(spillDirectory.toString())
+                        .spillRunRows(RUN_ROWS)
+                        .build();
+                assertTrue(spilled.isSpilled(spilled.getQueries().get(0)));
+
+                String description = "limitBy " + limitColumn + ", descending " + descending;
+                List<Product> expected = read(new ProductService().streamQueryResults(csvFiles, inMemory));
+                assertTrue(expected.size() > RUN_ROWS, description);
+                assertEquals(expected, read(new ProductService().streamQueryResults(csvFiles, spilled)), description);
+                try (Stream<Path> runs = Files.list(spillDirectory)) {
+                    assertEquals(0, runs.count(), "runs are deleted once the result is closed");
+                }
+            }
+        }
+    }
+
+    private static Params.Builder params(Path files, Column limitColumn, boolean descending) {
+        return Params.builder(files.toString())
+                .productResultRowsCount(1500)
+                .duplicateProductsMaxCount(40)
+                .limitColumn(limitColumn)
+                .descending(descending);
+    }
+
+    private static List<Product> read(List<ResultStream> results) throws IOException {
+        assertEquals(1, results.size());
+        List<Product> products = new ArrayList<>();
+        try (ResultStream result = results.get(0)) {
+            result.forEachRemaining(products::add);
+        }
+        return products;
+    }
+}
@@ -0,0 +1,77 @@
+package query;
+
+import org.junit.jupiter.api.Test;
+import product.Product;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class FilterParserTest {
+
+    private static final Product PHONE = new Product(7, "old phone", "used", "it's fine", 10.5);
+
+    @Test
+    void comparesWithEveryOperator() {
+        Map<String, Boolean> expressions = Map.ofEntries(
+                Map.entry("price = 10.5", true),
+                Map.entry("price != 10.5", false),
+                Map.entry("price < 10.5", false),
+                Map.entry("price <= 10.5", true),
+                Map.entry("price > 10", true),
+                Map.entry("price >= 11", false),
+                Map.entry("id = 7", true),
+                Map.entry("id < 7", false),
+                Map.entry("id >= -7", true),
+                Map.entry("condition = used", true),
+                Map.entry("condition != used", false),
+                Map.entry("condition < v", true),
+                Map.entry("condition <= used", true),
+                Map.entry("condition > usedx", false),
+                Map.entry("condition >= use", true));
+        expressions.forEach((expression, expected) ->
+                assertEquals(expected, Filter.parse(expression).test(PHONE), expression));
+    }
+
+    @Test
+    void bindsNotBeforeAndBeforeOr() {
+        assertEquals("(condition = 'new' or (price < '5' and not id = '7'))",
+                Filter.parse("condition = new or price < 5 and not id = 7").toString());
+        assertEquals("(not condition = 'new' and price < '5')",
+                Filter.parse("not condition = new and price < 5").toString());
+        assertEquals("((condition = 'new' or price < '5') and id = '7')",
+                Filter.parse("(condition = new or price < 5) and id = 7").toString());
+        assertEquals("((id = '1' and id = '2') and id = '3')", Filter.parse("id = 1 and id = 2 and id = 3").toString());
+
+        // true or (false and false), false if the operators were applied left to right
+        assertTrue(Filter.parse("condition = used or price < 5 and id = 8").test(PHONE));
+        assertFalse(Filter.parse("(condition = used or price < 5) and id = 8").test(PHONE));
+        assertFalse(Filter.parse("not condition = used and id = 7").test(PHONE));
+        assertTrue(Filter.parse("not (condition = used and id = 8)").test(PHONE));
+    }
+
+    @Test
+    void readsQuotedLiterals() {
+        assertTrue(Filter.parse("name = 'old phone'").test(PHONE));
+        assertTrue(Filter.parse("state = 'it''s fine'").test(PHONE));
+        assertEquals("state = 'it''s fine'", Filter.parse("state = 'it''s fine'").toString());
+        assertTrue(Filter.parse("NAME != 'a and (b) or <c>'").test(PHONE));
+        assertEquals("name != 'a and (b) or <c>'", Filter.parse("NAME != 'a and (b) or <c>'").toString());
+        assertTrue(Filter.parse("price = '10.5' AND Not name = ''").test(PHONE));
+        assertTrue(Filter.parse("name!='x'And(id=7)").test(PHONE));
+    }
+
+    @Test
+    void rejectsMalformedExpressions() {
+        for (String expression : List.of("", "   ", "price", "price 5", "price = ", "price == 5", "color = red",
+                "(price < 5", "price < 5)", "price < 5 and", "price < 5 or or id = 1", "not", "name = 'phone",
+                "name = 'it''s", "price = 5 id = 7", "price = cheap", "id = 1x", "price = NaN", "price > Infinity",
+                "price < -Infinity", "id != 'NaN'")) {
+            assertThrows(IllegalArgumentException.class, () -> Filter.parse(expression), expression);
+        }
+    }
+}